@@ -1,6 +1,7 @@
 package tools;
 
 import java.util.Arrays;
+import java.util.List;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
 
 public class Action {
@@ -13,6 +14,9 @@ public class Action {
   private int applicableOnStateAxis;
   private int applicableOnStateValue;
 
+  private int[] applicableOnStateAxes = new int[0];
+  private int[] applicableOnStateValues = new int[0];
+
   public Action(String actionTag, Object[] payloadTags,
     Object[] payload, TDHttpRequest request) {
       this.actionTag = actionTag;
@@ -53,7 +57,34 @@ public class Action {
   }
 
   public void setApplicableOn(int stateAxis, int stateValue) {
-    this.applicableOnStateAxis = stateAxis;
-    this.applicableOnStateValue = stateValue;
+    setApplicableOn(new int[]{stateAxis}, new int[]{stateValue});
+  }
+
+  /**
+   * Sets the substates on which the action is applicable, e.g. for actions that
+   * set several devices at once
+   *
+   * @param stateAxes the state axes
+   * @param stateValues the value that each state axis must have
+   */
+  public void setApplicableOn(int[] stateAxes, int[] stateValues) {
+    this.applicableOnStateAxis = stateAxes[0];
+    this.applicableOnStateValue = stateValues[0];
+    this.applicableOnStateAxes = stateAxes;
+    this.applicableOnStateValues = stateValues;
+  }
+
+  /**
+   * Returns true if the action is applicable on a given state
+   *
+   * @param state the state, e.g. [0,1,0,1,0,0,2]
+   */
+  public boolean isApplicableOn(List<Integer> state) {
+    for (int i = 0; i < applicableOnStateAxes.length; i++) {
+      if (state.get(applicableOnStateAxes[i]) != applicableOnStateValues[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 }
@@ -0,0 +1,187 @@
+package tools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+* A circuit breaker around the requests to an endpoint, which bounds the time of every
+* request with a deadline and stops sending requests to an endpoint that keeps failing.
+*
+* <p> The breaker is closed while requests succeed. After a number of consecutive
+* failed requests (including requests that missed their deadline) it opens, and
+* requests are refused without reaching the endpoint. Once the breaker has been open
+* for a while it becomes half-open and lets a single trial request through: the
+* breaker closes if the trial succeeds, and opens again if it fails.
+* </p>
+* <p> Like rate limiters, breakers are shared by all code that talks to the same
+* endpoint: they are retrieved with {@link #forEndpoint(String, int, long)}.
+* </p>
+* <p> Requests run on a bounded pool of {@link #MAX_PENDING_REQUESTS} threads, shared by
+* all breakers. Requests that missed their deadline may keep a thread until they end, so
+* when all threads are taken, new requests are rejected and count as failures.
+* </p>
+*/
+public class CircuitBreaker {
+
+  /**
+  * The states of a circuit breaker
+  */
+  public enum State { CLOSED, OPEN, HALF_OPEN }
+
+  public static final int MAX_PENDING_REQUESTS = 32; // the maximum number of requests running at once
+
+  private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+  // requests run on daemon threads, so that a request that misses its deadline never blocks the caller;
+  // requests are handed to an idle thread or rejected, and are never queued behind stuck requests
+  private static final ExecutorService REQUESTS = new ThreadPoolExecutor(0, MAX_PENDING_REQUESTS, 60, TimeUnit.SECONDS,
+    new SynchronousQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "lab-request");
+      thread.setDaemon(true);
+      return thread;
+    }, new ThreadPoolExecutor.AbortPolicy());
+
+  private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+  private final String name;
+
+  private int failureThreshold; // the number of consecutive failures that open the breaker
+  private long openNanos; // the time the breaker stays open before a trial request
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openedAt;
+  private boolean trialPending = false;
+
+  /**
+  * @param name the name of the breaker, used for logging
+  * @param failureThreshold the number of consecutive failures that open the breaker
+  * @param openMillis the time in milliseconds the breaker stays open before a trial request
+  */
+  public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+    this.name = name;
+    configure(failureThreshold, openMillis);
+  }
+
+  /**
+  * Returns the circuit breaker shared by all requests to an endpoint, creating it
+  * with a given configuration if it does not exist yet
+  *
+  * @param endpoint the endpoint, e.g. the URL of a W3C WoT Thing Description
+  * @param failureThreshold the number of consecutive failures that open a new breaker
+  * @param openMillis the time in milliseconds a new breaker stays open before a trial request
+  */
+  public static CircuitBreaker forEndpoint(String endpoint, int failureThreshold, long openMillis) {
+    return BREAKERS.computeIfAbsent(endpoint, e -> new CircuitBreaker(e, failureThreshold, openMillis));
+  }
+
+  /**
+  * Sets the number of consecutive failures that open the breaker, and the time it stays open
+  */
+  public synchronized void configure(int failureThreshold, long openMillis) {
+    if (failureThreshold < 1 || openMillis < 0) {
+      throw new IllegalArgumentException("Invalid circuit breaker: failure threshold=" + failureThreshold
+        + ", open time=" + openMillis + "ms");
+    }
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+  }
+
+  public synchronized State getState() {
+    if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+      state = State.HALF_OPEN;
+    }
+    return state;
+  }
+
+  /**
+  * Returns the time in milliseconds until an open breaker lets a trial request through,
+  * or 0 if the breaker is not open
+  */
+  public synchronized long getRetryDelay() {
+    if (getState() != State.OPEN) {
+      return 0;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(openNanos - (System.nanoTime() - openedAt)) + 1;
+  }
+
+  /**
+  * Returns whether a request may be sent to the endpoint now. A half-open breaker
+  * allows a single trial request until the outcome of the trial is known.
+  */
+  public synchronized boolean allowRequest() {
+    switch (getState()) {
+      case CLOSED:
+        return true;
+      case HALF_OPEN:
+        if (trialPending) {
+          return false;
+        }
+        trialPending = true;
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+  * Sends a request that has been allowed by {@link #allowRequest()}, and waits for its
+  * response until a deadline
+  *
+  * @param request the request
+  * @param deadlineMillis the time in milliseconds the response is waited for
+  * @return the response
+  * @throws IOException if the request failed, missed its deadline, or was rejected because
+  * {@link #MAX_PENDING_REQUESTS} requests are pending
+  */
+  public <T> T call(Callable<T> request, long deadlineMillis) throws IOException {
+    Future<T> response;
+    try {
+      response = REQUESTS.submit(request);
+    } catch (RejectedExecutionException e) {
+      onFailure();
+      throw new IOException("Too many pending requests (" + MAX_PENDING_REQUESTS + "), request to " + name + " rejected");
+    }
+    try {
+      T result = response.get(deadlineMillis, TimeUnit.MILLISECONDS);
+      onSuccess();
+      return result;
+    } catch (TimeoutException e) {
+      response.cancel(true);
+      onFailure();
+      throw new IOException("No response from " + name + " within " + deadlineMillis + "ms");
+    } catch (ExecutionException e) {
+      onFailure();
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Request to " + name + " failed: " + e.getCause(), e.getCause());
+    } catch (InterruptedException e) {
+      response.cancel(true);
+      onFailure();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + name);
+    }
+  }
+
+  private synchronized void onSuccess() {
+    if (state != State.CLOSED) {
+      LOGGER.info("Circuit breaker of " + name + " closed");
+    }
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    trialPending = false;
+  }
+
+  private synchronized void onFailure() {
+    consecutiveFailures++;
+    trialPending = false;
+    if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      state = State.OPEN;
+      openedAt = System.nanoTime();
+      LOGGER.warning("Circuit breaker of " + name + " opened after " + consecutiveFailures + " consecutive failures");
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package tools;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+* Tracks the convergence of a Q matrix during training.
+*
+* <p> For every episode, the tracker records the max-norm of the changes applied
+* to Q values and the number of states whose greedy action changed. Training is
+* considered converged when, over a sliding window of episodes, the largest
+* Q value change is within the Q tolerance and the number of greedy policy
+* changes is within the policy tolerance.
+* </p>
+*/
+public class ConvergenceTracker {
+
+  private final int window; // the number of episodes of the sliding window
+  private final double qTolerance; // the max-norm of Q value change tolerated within the window
+  private final int policyTolerance; // the number of greedy policy changes tolerated within the window
+
+  private final double[] episodeMaxDelta; // ring buffer of the max Q value change per episode
+  private final int[] episodePolicyChanges; // ring buffer of the greedy policy changes per episode
+  private final int[] greedyPolicy; // the last known greedy action per state, -1 if unknown
+
+  private int episodes = 0; // the number of completed episodes
+  private double currentMaxDelta = 0.0;
+  private int currentPolicyChanges = 0;
+
+  /**
+  * @param stateCount the number of states of the Q matrix
+  * @param window the number of episodes of the sliding window
+  * @param qTolerance the max-norm of Q value change tolerated within the window
+  * @param policyTolerance the number of greedy policy changes tolerated within the window
+  */
+  public ConvergenceTracker(int stateCount, int window, double qTolerance, int policyTolerance) {
+    this.window = Math.max(1, window);
+    this.qTolerance = qTolerance;
+    this.policyTolerance = policyTolerance;
+    this.episodeMaxDelta = new double[this.window];
+    this.episodePolicyChanges = new int[this.window];
+    this.greedyPolicy = new int[stateCount];
+    Arrays.fill(this.greedyPolicy, -1);
+  }
+
+  /**
+  * Records an update of a Q value
+  *
+  * @param state the updated state
+  * @param delta the change applied to the Q value
+  * @param greedyAction the greedy action of the state after the update
+  */
+  public void recordUpdate(int state, double delta, int greedyAction) {
+    currentMaxDelta = Math.max(currentMaxDelta, Math.abs(delta));
+
+    int previousAction = greedyPolicy[state];
+    if (previousAction != greedyAction) {
+      if (previousAction != -1) {
+        currentPolicyChanges++;
+      }
+      greedyPolicy[state] = greedyAction;
+    }
+  }
+
+  /**
+  * Completes the current episode
+  *
+  * @return true if training has converged
+  */
+  public boolean endEpisode() {
+    int slot = episodes % window;
+    episodeMaxDelta[slot] = currentMaxDelta;
+    episodePolicyChanges[slot] = currentPolicyChanges;
+    episodes++;
+    currentMaxDelta = 0.0;
+    currentPolicyChanges = 0;
+    return isConverged();
+  }
+
+  /**
+  * Returns true if the window is full and both the Q value change and the greedy
+  * policy changes within the window are within their tolerances
+  */
+  public boolean isConverged() {
+    return episodes >= window && getWindowMaxDelta() <= qTolerance
+      && getWindowPolicyChanges() <= policyTolerance;
+  }
+
+  /**
+  * Returns the max-norm of Q value change over the episodes of the window
+  */
+  public double getWindowMaxDelta() {
+    double max = 0.0;
+    for (int i = 0; i < Math.min(episodes, window); i++) {
+      max = Math.max(max, episodeMaxDelta[i]);
+    }
+    return max;
+  }
+
+  /**
+  * Returns the number of greedy policy changes over the episodes of the window
+  */
+  public int getWindowPolicyChanges() {
+    int changes = 0;
+    for (int i = 0; i < Math.min(episodes, window); i++) {
+      changes += episodePolicyChanges[i];
+    }
+    return changes;
+  }
+
+  public int getEpisodes() {
+    return this.episodes;
+  }
+
+  /**
+  * Returns the state of the tracker between episodes, for checkpoints
+  */
+  public byte[] saveState() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(window);
+    out.writeInt(episodes);
+    for (int i = 0; i < window; i++) {
+      out.writeDouble(episodeMaxDelta[i]);
+      out.writeInt(episodePolicyChanges[i]);
+    }
+    out.writeInt(greedyPolicy.length);
+    for (int action : greedyPolicy) {
+      out.writeInt(action);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+  * Restores a state returned by {@link #saveState()}
+  *
+  * @throws IOException if the state is of a tracker with another window or state count
+  */
+  public void restoreState(byte[] state) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+    if (in.readInt() != window) {
+      throw new IOException("The checkpoint was taken with another convergence window");
+    }
+    int restoredEpisodes = in.readInt();
+    for (int i = 0; i < window; i++) {
+      episodeMaxDelta[i] = in.readDouble();
+      episodePolicyChanges[i] = in.readInt();
+    }
+    if (in.readInt() != greedyPolicy.length) {
+      throw new IOException("The checkpoint was taken with another state space");
+    }
+    for (int i = 0; i < greedyPolicy.length; i++) {
+      greedyPolicy[i] = in.readInt();
+    }
+    episodes = restoredEpisodes;
+    currentMaxDelta = 0.0;
+    currentPolicyChanges = 0;
+  }
+}
@@ -0,0 +1,118 @@
+package tools;
+
+/**
+* Replacing eligibility traces for Watkins's Q(lambda).
+*
+* <p> Traces are stored in a primitive array indexed by state * actionCount + action.
+* The indices of the non-zero traces are kept in a compact list, so that updates
+* only visit the eligible state-action pairs, and resetting the traces at the
+* beginning of an episode only clears the entries that were used.
+* </p>
+*/
+public class EligibilityTraces {
+
+  private final int actionCount;
+  private final double decay; // gamma * lambda
+  private final double threshold; // traces below this value are dropped
+
+  private final double[] traces; // the trace of every state-action pair
+  private final int[] active; // the indices of the non-zero traces
+  private final boolean[] listed; // whether an index is in the list of active indices
+  private int activeCount = 0;
+
+  /**
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  * @param gamma the discount factor
+  * @param lambda the trace decay parameter [0,1]
+  * @param threshold traces below this value are dropped
+  */
+  public EligibilityTraces(int stateCount, int actionCount, double gamma, double lambda, double threshold) {
+    this.actionCount = actionCount;
+    this.decay = gamma * lambda;
+    this.threshold = threshold;
+    this.traces = new double[stateCount * actionCount];
+    this.active = new int[stateCount * actionCount];
+    this.listed = new boolean[stateCount * actionCount];
+  }
+
+  /**
+  * Clears all traces, e.g. at the beginning of an episode
+  */
+  public void reset() {
+    for (int i = 0; i < activeCount; i++) {
+      traces[active[i]] = 0.0;
+      listed[active[i]] = false;
+    }
+    activeCount = 0;
+  }
+
+  /**
+  * Marks a state-action pair as visited. With replacing traces, the trace of the
+  * pair is set to 1 and the traces of the other actions of the state are cleared.
+  */
+  public void visit(int state, int action) {
+    int base = state * actionCount;
+    for (int a = 0; a < actionCount; a++) {
+      if (a != action) {
+        traces[base + a] = 0.0;
+      }
+    }
+    if (!listed[base + action]) {
+      listed[base + action] = true;
+      active[activeCount++] = base + action;
+    }
+    traces[base + action] = 1.0;
+  }
+
+  /**
+  * Applies a temporal difference error to every eligible state-action pair, and
+  * decays the traces. As in Watkins's Q(lambda), the traces are cut after the
+  * update if the next action, already selected in the next state, is exploratory,
+  * so that the error of the next step is not applied to the pairs that preceded it.
+  *
+  * @param q the Q values to update
+  * @param goal the goal whose Q matrix is updated
+  * @param alpha the learning rate
+  * @param tdError the temporal difference error of the current step
+  * @param nextGreedy whether the next action is a greedy action of the next state
+  * @param listener a listener that receives every applied update, or null
+  */
+  void update(QTensor q, int goal, double alpha, double tdError, boolean nextGreedy, QUpdateListener listener) {
+    int kept = 0;
+    for (int i = 0; i < activeCount; i++) {
+      int index = active[i];
+      double trace = traces[index];
+      if (trace == 0.0) {
+        // cleared by a replacing visit of another action of the same state
+        listed[index] = false;
+        continue;
+      }
+
+      int state = index / actionCount;
+      int action = index % actionCount;
+      double delta = alpha * tdError * trace;
+      q.add(goal, state, action, delta);
+      if (listener != null) {
+        listener.updated(state, delta);
+      }
+
+      double decayed = nextGreedy ? trace * decay : 0.0;
+      if (decayed >= threshold) {
+        traces[index] = decayed;
+        active[kept++] = index;
+      } else {
+        traces[index] = 0.0;
+        listed[index] = false;
+      }
+    }
+    activeCount = kept;
+  }
+
+  /**
+  * Returns the number of state-action pairs with a non-zero trace
+  */
+  public int getActiveCount() {
+    return this.activeCount;
+  }
+}
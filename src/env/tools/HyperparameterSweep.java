@@ -0,0 +1,216 @@
+package tools;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+* A sweep over the learning rate, discount factor, exploration rate and episode budget
+* of the {@link QLearner}, run in parallel across cores.
+*
+* <p> Every configuration of the grid is trained with its own {@link QLearning} against its own
+* environment: a {@link SimulatedLab} for "local:" URLs, or a {@link ReplayLab} for
+* "replay:" URLs, so that configurations never share state and the lab is never
+* involved. After training, the greedy policy of every goal is evaluated with a
+* {@link PolicyBenchmark} against a {@link SimulatedLab} from all the states the lab can
+* be reset to.
+* </p>
+* <p> Configurations are ranked by the quality of their policies (the share of runs
+* that reach their goal, then the mean steps to the goal), and then by their sample
+* efficiency (the mean training episodes until convergence).
+* </p>
+*/
+public class HyperparameterSweep {
+
+  private static final Logger LOGGER = Logger.getLogger(HyperparameterSweep.class.getName());
+
+  private final String environmentURL;
+  private final List<Object[]> goals;
+  private final Object[] options;
+  private final int threads;
+
+  /**
+  * A configuration of the grid and its results
+  */
+  static class Configuration {
+    final double alpha;
+    final double gamma;
+    final double epsilon;
+    final int episodes;
+
+    double meanEpisodes; // the mean episodes run until convergence or the episode budget
+    double convergedShare; // the share of goals whose training converged
+    double successRate; // the share of evaluation runs that reached their goal
+    double meanSteps; // the mean steps of the evaluation runs
+    long trainingMillis;
+
+    Configuration(double alpha, double gamma, double epsilon, int episodes) {
+      this.alpha = alpha;
+      this.gamma = gamma;
+      this.epsilon = epsilon;
+      this.episodes = episodes;
+    }
+  }
+
+  /**
+  * Ranks configurations by policy quality, then by sample efficiency
+  */
+  static final Comparator<Configuration> RANKING = Comparator
+    .comparingDouble((Configuration c) -> -c.successRate)
+    .thenComparingDouble(c -> c.meanSteps)
+    .thenComparingDouble(c -> c.meanEpisodes);
+
+  /**
+  * @param environmentURL the environment to train against, e.g. "local:simulator" or "replay:traces/lab.trace"
+  * @param goals the goals every configuration is trained and evaluated for
+  * @param options the training options of every configuration as [Name, Value] pairs
+  * @param threads the number of configurations trained in parallel
+  */
+  public HyperparameterSweep(String environmentURL, List<Object[]> goals, Object[] options, int threads) {
+    if (!environmentURL.startsWith(SimulatedLab.URL_PREFIX) && !environmentURL.startsWith(ReplayLab.URL_PREFIX)) {
+      throw new IllegalArgumentException("Sweeps run against local or replayed environments only: " + environmentURL);
+    }
+    this.environmentURL = environmentURL;
+    this.goals = goals;
+    this.options = options;
+    this.threads = threads;
+  }
+
+  /**
+  * Trains and evaluates every combination of the given values in parallel
+  *
+  * @return the configurations, ranked from best to worst
+  */
+  public List<Configuration> run(double[] alphas, double[] gammas, double[] epsilons, int[] episodeBudgets)
+      throws InterruptedException {
+    List<Configuration> configurations = new ArrayList<>();
+    for (double alpha : alphas) {
+      for (double gamma : gammas) {
+        for (double epsilon : epsilons) {
+          for (int episodes : episodeBudgets) {
+            configurations.add(new Configuration(alpha, gamma, epsilon, episodes));
+          }
+        }
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < configurations.size(); i++) {
+      Configuration configuration = configurations.get(i);
+      long seed = i;
+      futures.add(executor.submit(() -> {
+        evaluate(configuration, seed);
+        return null;
+      }));
+    }
+    executor.shutdown();
+
+    int done = 0;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Configuration failed", e.getCause());
+      }
+      if (++done % 10 == 0) {
+        LOGGER.info("Evaluated " + done + "/" + configurations.size() + " configurations");
+      }
+    }
+
+    configurations.sort(RANKING);
+    return configurations;
+  }
+
+  private void evaluate(Configuration configuration, long seed) throws IOException {
+    // the seed of the configuration seeds the training lab, the exploration and the evaluation lab
+    QLearning learning = new QLearning(QLearning.createLab(environmentURL, seed), seed);
+    PolicyBenchmark benchmark = new PolicyBenchmark(learning, new SimulatedLab(seed), 20);
+
+    long start = System.nanoTime();
+    int episodesRun = 0;
+    int converged = 0;
+    for (Object[] goal : goals) {
+      Map<String, Object> summary = learning.train(goal, configuration.episodes, configuration.alpha,
+        configuration.gamma, configuration.epsilon, 100.0, options);
+      episodesRun += (Integer) summary.get("episodes");
+      if ((Boolean) summary.get("converged")) {
+        converged++;
+      }
+    }
+    configuration.trainingMillis = (System.nanoTime() - start) / 1000000;
+
+    for (Object[] goal : goals) {
+      benchmark.run(goal);
+    }
+
+    configuration.meanEpisodes = (double) episodesRun / goals.size();
+    configuration.convergedShare = (double) converged / goals.size();
+    configuration.successRate = benchmark.getSuccessRate();
+    configuration.meanSteps = benchmark.getMeanSteps();
+  }
+
+  /**
+  * Writes the ranked configurations as a CSV file
+  */
+  static void writeCsv(List<Configuration> configurations, File file) throws IOException {
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      out.println("rank,alpha,gamma,epsilon,episodes,success_rate,mean_steps,mean_episodes,converged_share,training_ms");
+      int rank = 1;
+      for (Configuration c : configurations) {
+        out.println(rank++ + "," + c.alpha + "," + c.gamma + "," + c.epsilon + "," + c.episodes + ","
+          + c.successRate + "," + c.meanSteps + "," + c.meanEpisodes + "," + c.convergedShare + "," + c.trainingMillis);
+      }
+    }
+  }
+
+  private static double[] parseDoubles(String values) {
+    return Arrays.stream(values.split(";")).mapToDouble(Double::parseDouble).toArray();
+  }
+
+  /**
+  * Runs a sweep and writes the ranked configurations to a CSV file
+  *
+  * @param args the environment URL (default "local:simulator"), the alphas, gammas,
+  * epsilons and episode budgets separated by ";" (defaults "0.1;0.2;0.5", "0.8;0.9;0.95",
+  * "0.1;0.3;0.5" and "100;200;400"), and the output directory (default "build/sweep")
+  */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String environmentURL = args.length > 0 ? args[0] : SimulatedLab.URL_PREFIX + "simulator";
+    double[] alphas = parseDoubles(args.length > 1 ? args[1] : "0.1;0.2;0.5");
+    double[] gammas = parseDoubles(args.length > 2 ? args[2] : "0.8;0.9;0.95");
+    double[] epsilons = parseDoubles(args.length > 3 ? args[3] : "0.1;0.3;0.5");
+    int[] episodeBudgets = Arrays.stream(parseDoubles(args.length > 4 ? args[4] : "100;200;400"))
+      .mapToInt(d -> (int) d).toArray();
+    File outputDir = new File(args.length > 5 ? args[5] : "build/sweep");
+    outputDir.mkdirs();
+
+    // the learners of the sweep would otherwise log every training run
+    Logger.getLogger(QLearning.class.getName()).setLevel(Level.WARNING);
+    Logger.getLogger(Lab.class.getName()).setLevel(Level.WARNING);
+
+    List<Object[]> goals = new ArrayList<>();
+    for (int z1 = 0; z1 < 4; z1++) {
+      for (int z2 = 0; z2 < 4; z2++) {
+        goals.add(new Object[]{z1, z2});
+      }
+    }
+    Object[] options = {new Object[]{"start_states", "stratified"}};
+
+    HyperparameterSweep sweep = new HyperparameterSweep(environmentURL, goals, options,
+      Runtime.getRuntime().availableProcessors());
+    long start = System.nanoTime();
+    List<Configuration> ranked = sweep.run(alphas, gammas, epsilons, episodeBudgets);
+
+    writeCsv(ranked, new File(outputDir, "sweep.csv"));
+    TrainingTelemetry.getInstance().close();
+    Configuration best = ranked.get(0);
+    System.out.println("Swept " + ranked.size() + " configurations in " + (System.nanoTime() - start) / 1000000 + "ms");
+    System.out.println("Best: alpha=" + best.alpha + ", gamma=" + best.gamma + ", epsilon=" + best.epsilon
+      + ", episodes=" + best.episodes + " (success rate " + best.successRate + ", mean steps " + best.meanSteps
+      + ", mean episodes " + best.meanEpisodes + ")");
+    System.out.println("Results written to " + outputDir);
+  }
+}
@@ -1,5 +1,6 @@
 package tools;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.logging.*;
@@ -104,6 +105,81 @@ public class Lab extends LearningEnvironment {
   */
   private static final HashMap<Integer,Integer> sunshine = new HashMap<>();
 
+  /**
+  * The semantic types of the affordances that set the lights and blinds of the lab,
+  * in the order of the state axes 2 to 5
+  */
+  protected static final List<String> DEVICE_AFFORDANCE_TYPES = Arrays.asList(
+    "http://example.org/was#SetZ1Light",
+    "http://example.org/was#SetZ2Light",
+    "http://example.org/was#SetZ1Blinds",
+    "http://example.org/was#SetZ2Blinds"
+  );
+
+  /**
+  * The names of the payload properties of the device actions of labs without a
+  * W3C Web of Things Thing Description, in the order of {@link #DEVICE_AFFORDANCE_TYPES}
+  */
+  protected static final String[] DEVICE_PROPERTIES = {"Z1Light", "Z2Light", "Z1Blinds", "Z2Blinds"};
+
+  /**
+  * The last sunshine value (in lux) read from the lab
+  */
+  protected double lastSunshineLux = 600;
+
+  /**
+  * The default rates (requests per second) and bursts of the requests to a lab
+  */
+  private static final double DEFAULT_READ_RATE = 20;
+  private static final double DEFAULT_READ_BURST = 5;
+  private static final double DEFAULT_ACTION_RATE = 10;
+  private static final double DEFAULT_ACTION_BURST = 2;
+
+  /**
+  * The rate limiters of status reads and of action invocations, shared by all
+  * {@link Lab} instances of the same Thing Description
+  */
+  private RateLimiter readLimiter;
+  private RateLimiter actionLimiter;
+
+  /**
+  * The default deadlines (milliseconds) of the requests to a lab, and the default
+  * configuration of its circuit breaker
+  */
+  private static final long DEFAULT_READ_DEADLINE = 2000;
+  private static final long DEFAULT_ACTION_DEADLINE = 3000;
+  private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+  private static final long DEFAULT_OPEN_TIME = 10000;
+
+  /**
+  * The circuit breaker of the requests to the lab, shared by all {@link Lab} instances
+  * of the same Thing Description, and the deadlines of status reads and of actions
+  */
+  private CircuitBreaker breaker;
+  private long readDeadlineMillis = DEFAULT_READ_DEADLINE;
+  private long actionDeadlineMillis = DEFAULT_ACTION_DEADLINE;
+
+  /**
+  * The time (milliseconds since the epoch) of the last successful status read, or 0 if
+  * no read has succeeded yet, and whether the last status read succeeded
+  */
+  private long lastGoodReadMillis = 0;
+  private boolean lastReadSucceeded = true;
+  private boolean lastActionSucceeded = true; // whether the last action invocation was performed
+
+  /**
+  * Whether the action space includes composite actions that set several devices at once
+  */
+  private boolean compositeActionsEnabled = false;
+
+  /**
+  * The recorder of the interactions with the lab, or null if interactions are not recorded
+  */
+  private LabTrace.Recorder recorder;
+
+  private StatusDecoder statusDecoder; // built from the schema of the Status property at the first read
+  private final StatusDecoder.Status status = new StatusDecoder.Status(); // the last decoded status, reused by every read
+
   private static final Logger LOGGER = Logger.getLogger(Lab.class.getName());
 
   static {
@@ -141,6 +217,10 @@ public class Lab extends LearningEnvironment {
     */
     public Lab(String url) {
 
+      this.readLimiter = RateLimiter.forEndpoint(url, "read", DEFAULT_READ_RATE, DEFAULT_READ_BURST);
+      this.actionLimiter = RateLimiter.forEndpoint(url, "action", DEFAULT_ACTION_RATE, DEFAULT_ACTION_BURST);
+      this.breaker = CircuitBreaker.forEndpoint(url, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME);
+
       try {
 
         // Read the Thing Description from the URL
@@ -151,15 +231,19 @@ public class Lab extends LearningEnvironment {
         LOGGER.info("The lab has a state space of n="+ stateSpace.size());
 
         // Print the states of the state space
-        LOGGER.info(String.valueOf(stateSpace));
+        if (LOGGER.isLoggable(Level.FINE)) {
+          LOGGER.fine(String.valueOf(stateSpace));
+        }
 
         // Create the action space
         createActionSpace();
         LOGGER.info("The lab has an action space of m=" + actionSpace.size());
 
         // Print the actions of the action space
-        for (Action action : actionSpace.values()) {
-          LOGGER.info(action.toString());
+        if (LOGGER.isLoggable(Level.FINE)) {
+          for (Action action : actionSpace.values()) {
+            LOGGER.fine(action.toString());
+          }
         }
 
         // Read the current state
@@ -171,6 +255,174 @@ public class Lab extends LearningEnvironment {
       }
     }
 
+    /**
+    * Constructs a {@link Lab} instance with the state space of the lab, but without a
+    * W3C Web of Things Thing Description. Subclasses that do not interact with a lab
+    * over HTTP (e.g. local stand-ins of the lab) create their own action space.
+    */
+    protected Lab() {
+      createStateSpace();
+    }
+
+    /**
+    * Creates the action space of a lab without a W3C Web of Things Thing Description,
+    * with the same actions (and keys) as the action space of a lab with a Thing
+    * Description, but without requests
+    */
+    protected void createLocalActionSpace() {
+      this.affordanceTypes = DEVICE_AFFORDANCE_TYPES;
+      for (int i = 0; i < DEVICE_AFFORDANCE_TYPES.size(); i++) {
+        for (boolean value : Arrays.asList(false, true)) {
+          Action action = new Action(DEVICE_AFFORDANCE_TYPES.get(i), new Object[]{DEVICE_PROPERTIES[i]},
+            new Object[]{value}, null);
+          actionSpace.put(actionSpace.size(), action);
+        }
+      }
+      setApplicableActions();
+    }
+
+    /**
+    * Returns the lights and blinds of a state as the bits z1Light, z2Light, z1Blinds,
+    * z2Blinds (from the most to the least significant bit)
+    */
+    protected int getDeviceBits(int state) {
+      List<Integer> st = getStateVector(state);
+      return (st.get(2) << 3) | (st.get(3) << 2) | (st.get(4) << 1) | st.get(5);
+    }
+
+    /**
+    * Sets the rate limits of the requests to the lab. The limits apply to all
+    * {@link Lab} instances of the same Thing Description, and back off automatically
+    * when requests fail or their latency rises.
+    *
+    * @param readRate the rate of status reads in requests per second
+    * @param readBurst the maximum number of status reads issued at once
+    * @param actionRate the rate of action invocations in requests per second
+    * @param actionBurst the maximum number of action invocations issued at once
+    */
+    public void configureRateLimits(double readRate, double readBurst, double actionRate, double actionBurst) {
+      if (readLimiter != null && actionLimiter != null) {
+        readLimiter.configure(readRate, readBurst);
+        actionLimiter.configure(actionRate, actionBurst);
+      }
+    }
+
+    /**
+    * Sets the deadlines of the requests to the lab, and the circuit breaker shared by all
+    * labs of the same Thing Description. Labs without a Thing Description ignore them.
+    *
+    * @param readDeadline the time in milliseconds a status read is waited for
+    * @param actionDeadline the time in milliseconds an action invocation is waited for
+    * @param failureThreshold the number of consecutive failed requests that open the breaker
+    * @param openTime the time in milliseconds the breaker stays open before a trial request
+    */
+    public void configureDeadlines(long readDeadline, long actionDeadline, int failureThreshold, long openTime) {
+      if (readDeadline <= 0 || actionDeadline <= 0) {
+        throw new IllegalArgumentException("Invalid deadlines: read=" + readDeadline + "ms, action=" + actionDeadline + "ms");
+      }
+      if (breaker != null) {
+        breaker.configure(failureThreshold, openTime);
+        this.readDeadlineMillis = readDeadline;
+        this.actionDeadlineMillis = actionDeadline;
+      }
+    }
+
+    /**
+    * Returns whether the state of the lab may be outdated, because the last status read
+    * failed or the circuit breaker of the lab does not let requests through
+    */
+    public boolean isDegraded() {
+      return breaker != null && (!lastReadSucceeded || breaker.getState() == CircuitBreaker.State.OPEN);
+    }
+
+    /**
+    * Returns whether the last action was not performed, because its invocation failed or
+    * the circuit breaker of the lab did not let it through
+    */
+    public boolean isActionFailed() {
+      return breaker != null && !lastActionSucceeded;
+    }
+
+    /**
+    * Returns the time in milliseconds until the circuit breaker of the lab lets a trial
+    * request through, or 0 if the breaker lets requests through
+    */
+    public long getRetryDelay() {
+      return breaker != null ? breaker.getRetryDelay() : 0;
+    }
+
+    /**
+    * Returns the age in milliseconds of the last known state of the lab, i.e. the time
+    * since the last successful status read (0 for labs without a Thing Description, whose
+    * state is always current), or {@link Long#MAX_VALUE} if no read has succeeded yet
+    */
+    public long getStateAge() {
+      if (breaker == null) {
+        return 0;
+      }
+      return lastGoodReadMillis == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - lastGoodReadMillis;
+    }
+
+    /**
+    * Starts recording every status read, action invocation and reset of the lab to a
+    * trace file (see {@link LabTrace}). Records are appended to existing traces.
+    *
+    * @param file the trace file
+    */
+    public void startRecording(File file) throws IOException {
+      stopRecording();
+      this.recorder = new LabTrace.Recorder(file);
+      LOGGER.info("Recording the interactions with the lab to " + file);
+    }
+
+    /**
+    * Stops recording the interactions with the lab
+    */
+    public void stopRecording() {
+      if (recorder != null) {
+        try {
+          recorder.close();
+        } catch (IOException e) {
+          LOGGER.severe(e.getMessage());
+        }
+        recorder = null;
+      }
+    }
+
+    private void recordRead(long latency, boolean success, double z1Lux, double z2Lux, int devices,
+        double sunshineLux, int state) {
+      if (recorder != null) {
+        try {
+          recorder.recordRead(latency, success, z1Lux, z2Lux, devices, sunshineLux, state);
+        } catch (IOException e) {
+          LOGGER.severe("Stopped recording the lab: " + e.getMessage());
+          stopRecording();
+        }
+      }
+    }
+
+    private void recordAction(long latency, boolean success, int action) {
+      if (recorder != null) {
+        try {
+          recorder.recordAction(latency, success, action);
+        } catch (IOException e) {
+          LOGGER.severe("Stopped recording the lab: " + e.getMessage());
+          stopRecording();
+        }
+      }
+    }
+
+    private void recordReset(long latency, boolean success, int state) {
+      if (recorder != null) {
+        try {
+          recorder.recordReset(latency, success, state);
+        } catch (IOException e) {
+          LOGGER.severe("Stopped recording the lab: " + e.getMessage());
+          stopRecording();
+        }
+      }
+    }
+
     /**
     * @see {@link LearningEnvironment#getCompatibleStates(List)}
     */
@@ -195,12 +447,72 @@ public class Lab extends LearningEnvironment {
 
         if (Collections.indexOfSubList(substates, stateDescription) != -1){
           compatibleStates.add(i);
-          System.out.println(state);
+          if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Compatible state " + state);
+          }
         };
       }
       return compatibleStates;
     }
 
+    /**
+    * Returns the state that corresponds to an observation of the lab, as perceived
+    * by agents through a ThingArtifact, e.g. [396.3, 473.1, false, true, true, false, 640.1].
+    *
+    * <p> Light levels and sunshine are given either as lux values, which are discretized,
+    * or as already discretized values in [0, 3]. The status of lights and blinds is given
+    * as boolean values.
+    * </p>
+    *
+    * @param observation the observed values of the 7 substates
+    * @return the position of the state in the state space, or -1 if the observation
+    * cannot be interpreted
+    */
+    public int getStateFromObservation(Object[] observation) {
+      if (observation.length != 7) {
+        return -1;
+      }
+
+      try {
+        List<Integer> state = Arrays.asList(
+          toLevel(observation[0], false),
+          toLevel(observation[1], false),
+          toBinary(observation[2]),
+          toBinary(observation[3]),
+          toBinary(observation[4]),
+          toBinary(observation[5]),
+          toLevel(observation[6], true));
+
+        return getStateList().indexOf(state);
+      } catch (IllegalArgumentException e) {
+        return -1;
+      }
+    }
+
+    /**
+    * Returns the discretized level of an observed light or sunshine value
+    */
+    private int toLevel(Object value, boolean isSunshine) {
+      double v = Double.parseDouble(value.toString());
+      if (v == Math.rint(v) && v >= 0 && v <= 3) {
+        return (int) v;
+      }
+      return isSunshine ? discretizeSunshine(v) : discretizeLightLevel(v);
+    }
+
+    /**
+    * Returns the key (0 or 1) of an observed status of lights or blinds
+    */
+    private int toBinary(Object value) {
+      String v = value.toString();
+      if ("true".equals(v) || "1".equals(v)) {
+        return 1;
+      } else if ("false".equals(v) || "0".equals(v)) {
+        return 0;
+      }
+      throw new IllegalArgumentException("Not a boolean value: " + v);
+    }
+
     /**
     * @see {@link LearningEnvironment#readCurrentState()}
     */
@@ -217,37 +529,56 @@ public class Lab extends LearningEnvironment {
 
           TDHttpRequest request = new TDHttpRequest(f.get(), TD.readProperty);
 
-          try {
-            TDHttpResponse response = request.execute();
-            Map<String, Object> status = response.getPayloadAsObject((ObjectSchema) ds);
-
-            int z1Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z1Level"));
-            int z2Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z2Level"));
-
-            boolean z1Light = (Boolean) status.get("http://example.org/was#Z1Light");
-            boolean z2Light = (Boolean) status.get("http://example.org/was#Z2Light");
-
-            boolean z1Blinds = (Boolean) status.get("http://example.org/was#Z1Blinds");
-            boolean z2Blinds = (Boolean) status.get("http://example.org/was#Z2Blinds");
+          // the last known state is kept while the lab does not respond
+          if (!breaker.allowRequest()) {
+            lastReadSucceeded = false;
+            LOGGER.fine("Circuit breaker open, keeping the state of " + getStateAge() + "ms ago");
+            return getStateList().indexOf(this.currentState);
+          }
 
-            int sunshine = discretizeSunshine((Double) status.get("http://example.org/was#Sunshine"));
+          readLimiter.acquire();
+          long start = System.nanoTime();
 
-            currentState.set(0, z1Level);
-            currentState.set(1, z2Level);
-            currentState.set(2, z1Light ? 1 : 0);
-            currentState.set(3, z2Light ? 1 : 0);
-            currentState.set(4, z1Blinds ? 1 : 0);
-            currentState.set(5, z2Blinds ? 1 : 0);
-            currentState.set(6, sunshine);
+          try {
+            TDHttpResponse response = breaker.call(request::execute, readDeadlineMillis);
+            long latency = System.nanoTime() - start;
+            readLimiter.onSuccess(latency);
+            if (statusDecoder == null) {
+              statusDecoder = new StatusDecoder((ObjectSchema) ds);
+            }
+            Optional<String> payload = response.getPayload();
+            if (!payload.isPresent()) {
+              throw new IOException("The Status response has no payload");
+            }
+            statusDecoder.decode(payload.get(), status);
+
+            lastSunshineLux = status.sunshineLux;
+
+            currentState.set(0, discretizeLightLevel(status.z1Lux));
+            currentState.set(1, discretizeLightLevel(status.z2Lux));
+            currentState.set(2, status.z1Light ? 1 : 0);
+            currentState.set(3, status.z2Light ? 1 : 0);
+            currentState.set(4, status.z1Blinds ? 1 : 0);
+            currentState.set(5, status.z2Blinds ? 1 : 0);
+            currentState.set(6, discretizeSunshine(lastSunshineLux));
+            lastGoodReadMillis = System.currentTimeMillis();
+            lastReadSucceeded = true;
+
+            if (recorder != null) {
+              recordRead(latency, true, status.z1Lux, status.z2Lux, status.getDevices(),
+                lastSunshineLux, getStateList().indexOf(this.currentState));
+            }
 
           } catch (IOException e) {
+            lastReadSucceeded = false;
+            readLimiter.onError();
+            recordRead(System.nanoTime() - start, false, 0, 0, 0, 0, -1);
             LOGGER.severe(e.getMessage());
           }
         }
       }
 
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-      return stateList.indexOf(this.currentState);
+      return getStateList().indexOf(this.currentState);
     }
 
     /**
@@ -257,17 +588,13 @@ public class Lab extends LearningEnvironment {
     public List<Integer> getApplicableActions(int state) {
 
       List<Integer> applicableActions = new ArrayList<>();
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-      List<Integer> st = stateList.get(state);
+      List<Integer> st = getStateVector(state);
 
       for (int action : actionSpace.keySet()) {
 
         Action a = actionSpace.get(action);
 
-        int stateAxis = a.getApplicableOnStateAxis();
-        int stateValue = a.getApplicableOnStateValue();
-
-        if (st.get(stateAxis) == stateValue) {
+        if (a.isApplicableOn(st)) {
           applicableActions.add(action);
         }
       }
@@ -282,13 +609,243 @@ public class Lab extends LearningEnvironment {
     public void performAction(int action) {
       Action a = actionSpace.get(action);
 
+      if (!breaker.allowRequest()) {
+        lastActionSucceeded = false;
+        recordAction(0, false, action);
+        LOGGER.warning("Circuit breaker open, action " + a.getActionTag() + " not performed");
+        return;
+      }
+
+      actionLimiter.acquire();
+      long start = System.nanoTime();
+
+      try {
+        breaker.call(a.getRequest()::execute, actionDeadlineMillis);
+        lastActionSucceeded = true;
+        actionLimiter.onSuccess(System.nanoTime() - start);
+        recordAction(System.nanoTime() - start, true, action);
+        if (LOGGER.isLoggable(Level.FINE)) {
+          LOGGER.fine(a.getRequest().toString());
+        }
+      } catch (IOException e) {
+        lastActionSucceeded = false;
+        actionLimiter.onError();
+        recordAction(System.nanoTime() - start, false, action);
+        LOGGER.severe(e.getMessage());
+      }
+
+    }
+
+    /**
+    * Sets the lights and blinds of the lab to the values of a given state with a single
+    * request, if the actions of the lab share the same target. The light levels and the
+    * sunshine of the lab cannot be set, and follow from the lights, the blinds and the
+    * sunshine out of the lab.
+    *
+    * @see {@link LearningEnvironment#resetState(int)}
+    */
+    @Override
+    public boolean resetState(int state) {
+      List<Integer> st = getStateVector(state);
+      TDHttpRequest request = createDevicesRequest(new int[]{0, 1, 2, 3},
+        new boolean[]{st.get(2) == 1, st.get(3) == 1, st.get(4) == 1, st.get(5) == 1}, new ArrayList<>());
+
+      if (request == null || !breaker.allowRequest()) {
+        return false;
+      }
+
+      actionLimiter.acquire();
+      long start = System.nanoTime();
+
       try {
-        a.getRequest().execute();
-        LOGGER.info(a.getRequest().toString());
+        breaker.call(request::execute, actionDeadlineMillis);
+        actionLimiter.onSuccess(System.nanoTime() - start);
+        recordReset(System.nanoTime() - start, true, state);
+        return true;
       } catch (IOException e) {
+        actionLimiter.onError();
+        recordReset(System.nanoTime() - start, false, state);
         LOGGER.severe(e.getMessage());
+        return false;
       }
+    }
 
+    /**
+    * Creates a single request that sets several lights and blinds of the lab, if the
+    * actions of these devices share the same target. The payload schema of the request
+    * merges the input schemas of the actions.
+    *
+    * @param devices the devices, as positions in {@link #DEVICE_AFFORDANCE_TYPES}
+    * @param values the value of each device
+    * @param payloadTags the (returned) names of the payload properties of the devices
+    * @return the request, or null if the devices cannot be set with a single request
+    */
+    private TDHttpRequest createDevicesRequest(int[] devices, boolean[] values, List<Object> payloadTags) {
+      Form form = null;
+      ObjectSchema.Builder schema = new ObjectSchema.Builder();
+      Map<String, Object> payload = new HashMap<>();
+
+      for (int i = 0; i < devices.length; i++) {
+        Optional<ActionAffordance> a = this.td.getFirstActionBySemanticType(DEVICE_AFFORDANCE_TYPES.get(devices[i]));
+        if (!a.isPresent()) {
+          return null;
+        }
+
+        Optional<Form> f = a.get().getFirstFormForOperationType(TD.invokeAction);
+        Optional<DataSchema> ds = a.get().getInputSchema();
+        if (!f.isPresent() || !ds.isPresent() || !(ds.get() instanceof ObjectSchema)
+            || (form != null && !form.getTarget().equals(f.get().getTarget()))) {
+          return null;
+        }
+        form = f.get();
+
+        for (Map.Entry<String, DataSchema> prop : ((ObjectSchema) ds.get()).getProperties().entrySet()) {
+          if (prop.getValue() instanceof BooleanSchema) {
+            schema.addProperty(prop.getKey(), prop.getValue());
+            payload.put(prop.getKey(), values[i]);
+            payloadTags.add(prop.getKey());
+          }
+        }
+      }
+
+      TDHttpRequest request = new TDHttpRequest(form, TD.invokeAction);
+      request.setObjectPayload(schema.build(), payload);
+      return request;
+    }
+
+    /**
+    * Extends the action space with composite actions that set several lights and blinds
+    * of the lab with a single request, if the input schemas of the lab allow it. For
+    * every set of at least 2 devices and every assignment of values to them, a composite
+    * action is added that is applicable on the states where all these devices have the
+    * opposite values. The actions of the original action space keep their keys.
+    *
+    * <p> A composite action has the action tag of its first device, and its payload sets
+    * all its devices. The lab performs it with the single request that targets all of
+    * them. Agents that invoke the action affordances instead (e.g. with a ThingArtifact)
+    * must invoke one device action per device (see {@link QLearner#getDeviceActions}),
+    * since the input schema of an affordance only has the property of its own device.
+    * </p>
+    *
+    * @return the number of composite actions added to the action space
+    */
+    public int enableCompositeActions() {
+      if (compositeActionsEnabled) {
+        return 0;
+      }
+
+      List<Action> compositeActions = new ArrayList<>();
+      for (int subset = 1; subset < 16; subset++) {
+        if (Integer.bitCount(subset) < 2) {
+          continue;
+        }
+        for (int assignment = 0; assignment < 16; assignment++) {
+          if ((assignment & ~subset) != 0) {
+            continue;
+          }
+
+          int[] devices = new int[Integer.bitCount(subset)];
+          boolean[] values = new boolean[devices.length];
+          int[] axes = new int[devices.length];
+          int[] applicableValues = new int[devices.length];
+          int n = 0;
+          for (int device = 0; device < 4; device++) {
+            if ((subset & (1 << device)) != 0) {
+              devices[n] = device;
+              values[n] = (assignment & (1 << device)) != 0;
+              axes[n] = 2 + device;
+              applicableValues[n] = values[n] ? 0 : 1;
+              n++;
+            }
+          }
+
+          Action action = createCompositeAction(devices, values);
+          if (action == null) {
+            LOGGER.warning("The lab does not allow setting several devices with a single request");
+            return 0;
+          }
+          action.setApplicableOn(axes, applicableValues);
+          compositeActions.add(action);
+        }
+      }
+
+      for (Action action : compositeActions) {
+        actionSpace.put(actionSpace.size(), action);
+      }
+      compositeActionsEnabled = true;
+      LOGGER.info("The lab has an action space of m=" + actionSpace.size() + " with composite actions");
+      return compositeActions.size();
+    }
+
+    /**
+    * Creates a composite action that sets several devices with a single request
+    *
+    * @param devices the devices, as positions in {@link #DEVICE_AFFORDANCE_TYPES}
+    * @param values the value of each device
+    * @return the action, or null if the devices cannot be set with a single request
+    */
+    protected Action createCompositeAction(int[] devices, boolean[] values) {
+      Object[] payload = new Object[values.length];
+      for (int i = 0; i < values.length; i++) {
+        payload[i] = values[i];
+      }
+
+      if (this.td == null) {
+        Object[] payloadTags = new Object[devices.length];
+        for (int i = 0; i < devices.length; i++) {
+          payloadTags[i] = DEVICE_PROPERTIES[devices[i]];
+        }
+        return new Action(DEVICE_AFFORDANCE_TYPES.get(devices[0]), payloadTags, payload, null);
+      }
+
+      List<Object> payloadTags = new ArrayList<>();
+      TDHttpRequest request = createDevicesRequest(devices, values, payloadTags);
+      if (request == null || payloadTags.size() != devices.length) {
+        return null;
+      }
+      return new Action(DEVICE_AFFORDANCE_TYPES.get(devices[0]), payloadTags.toArray(), payload, request);
+    }
+
+    /**
+    * Returns the states that are expected after setting the lights and blinds of the lab
+    * to each of their 16 combinations, given the last sunshine read from the lab.
+    *
+    * @see {@link LearningEnvironment#getResetStates()}
+    */
+    @Override
+    public List<Integer> getResetStates() {
+      List<Integer> resetStates = new ArrayList<>();
+      for (int devices = 0; devices < 16; devices++) {
+        resetStates.add(predictState(devices, lastSunshineLux));
+      }
+      return resetStates;
+    }
+
+    /**
+    * Returns the state that the lab reaches once the illuminance has settled, given the
+    * lights and blinds (as the bits z1Light, z2Light, z1Blinds, z2Blinds from the most
+    * to the least significant bit) and the sunshine out of the lab, following the model
+    * of the simulated lab:
+    * <ul>
+    * <li> lights contribute 300 lux to their own zone and 50 lux to the other zone
+    * <li> blinds contribute 50% of the sunshine to their own zone and 25% to the other zone
+    * </ul>
+    */
+    protected int predictState(int devices, double sunshineLux) {
+      boolean z1Light = (devices & 8) != 0;
+      boolean z2Light = (devices & 4) != 0;
+      boolean z1Blinds = (devices & 2) != 0;
+      boolean z2Blinds = (devices & 1) != 0;
+
+      double z1Lux = (z1Light ? 300 : 0) + (z2Light ? 50 : 0)
+        + (z1Blinds ? sunshineLux * 0.5 : 0) + (z2Blinds ? sunshineLux * 0.25 : 0);
+      double z2Lux = (z1Light ? 50 : 0) + (z2Light ? 300 : 0)
+        + (z1Blinds ? sunshineLux * 0.25 : 0) + (z2Blinds ? sunshineLux * 0.5 : 0);
+
+      return getStateList().indexOf(Arrays.asList(
+        discretizeLightLevel(z1Lux), discretizeLightLevel(z2Lux),
+        z1Light ? 1 : 0, z2Light ? 1 : 0, z1Blinds ? 1 : 0, z2Blinds ? 1 : 0,
+        discretizeSunshine(sunshineLux)));
     }
 
     /**
@@ -296,12 +853,7 @@ public class Lab extends LearningEnvironment {
     */
     private void createActionSpace() {
 
-      this.affordanceTypes = Arrays.asList(
-      "http://example.org/was#SetZ1Light",
-      "http://example.org/was#SetZ2Light",
-      "http://example.org/was#SetZ1Blinds",
-      "http://example.org/was#SetZ2Blinds"
-      );
+      this.affordanceTypes = DEVICE_AFFORDANCE_TYPES;
 
       for (String affType : affordanceTypes) {
 
@@ -344,7 +896,7 @@ public class Lab extends LearningEnvironment {
     * lux in [100,300) -> level 2
     * lux >= 300 -> level 3
     */
-    private int discretizeLightLevel(Double value) {
+    protected static int discretizeLightLevel(double value) {
       if (value < 50) {
         return 0;
       } else if (value < 100) {
@@ -362,7 +914,7 @@ public class Lab extends LearningEnvironment {
     * lux in [200,700) -> level 2
     * lux >= 700 -> level 3
     */
-    private int discretizeSunshine(Double value) {
+    protected static int discretizeSunshine(double value) {
       if (value < 50) {
         return 0;
       } else if (value < 200) {
@@ -403,7 +955,7 @@ public class Lab extends LearningEnvironment {
     /**
     * Set the applicable actions for each substate
     */
-    private void setApplicableActions() {
+    protected void setApplicableActions() {
 
       Action z1LightOnValidAction = getApplicableAction("http://example.org/was#SetZ1Light", true);
       Action z1LightOffValidAction = getApplicableAction("http://example.org/was#SetZ1Light", false);
@@ -0,0 +1,275 @@
+package tools;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import java.util.regex.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+* An embedded HTTP server that stands in for the simulated lab (see
+* simulator/simulator_flow.json) within the JVM.
+*
+* <p> The server serves a W3C Web of Things Thing Description of the lab at
+* /was/rl, the status of the lab at /was/rl/status, and accepts actions at
+* /was/rl/action, with the semantics of the simulated lab. A {@link Lab} can
+* be created against the server with {@code new Lab(server.getThingDescriptionURL())}.
+* </p>
+* <p> Like the simulated lab, the server updates the environment periodically (by
+* default every second). With an update interval of 0, the environment is updated
+* on every status read instead, so that the illuminance settles immediately after
+* each action.
+* </p>
+*/
+public class LabServer {
+
+  private static final String[] DEVICES = {"Z1Light", "Z2Light", "Z1Blinds", "Z2Blinds"};
+  private static final Pattern DEVICE_VALUE = Pattern.compile("\"(Z1Light|Z2Light|Z1Blinds|Z2Blinds)\"\\s*:\\s*(true|false)");
+
+  private static final Logger LOGGER = Logger.getLogger(LabServer.class.getName());
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final ScheduledExecutorService updater;
+  private final long updateIntervalMillis;
+  private final Random random;
+  private final String thingDescription;
+
+  // the state of the lab, as in the flow of the simulated lab
+  private double z1Level = 0;
+  private double z2Level = 0;
+  private final boolean[] devices = new boolean[4];
+  private double sunshine = 0;
+  private double totalEnergyCost = 0;
+  private double energyCost = 0;
+  private double hour = 0;
+
+  private long statusRequests = 0;
+  private long actionRequests = 0;
+
+  /**
+  * Creates a server for the lab. The server does not accept requests before it is started.
+  *
+  * @param port the port, or 0 for any free port
+  * @param threads the number of threads handling requests
+  * @param updateIntervalMillis the interval of environment updates, or 0 for updates on every status read
+  * @param seed the seed of the random sunshine
+  */
+  public LabServer(int port, int threads, long updateIntervalMillis, long seed) throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    this.executor = Executors.newFixedThreadPool(threads);
+    this.updater = updateIntervalMillis > 0 ? Executors.newSingleThreadScheduledExecutor() : null;
+    this.updateIntervalMillis = updateIntervalMillis;
+    this.random = new Random(seed);
+    this.thingDescription = createThingDescription("http://localhost:" + server.getAddress().getPort());
+
+    server.createContext("/was/rl/status", this::handleStatus);
+    server.createContext("/was/rl/action", this::handleAction);
+    server.createContext("/was/rl", this::handleThingDescription);
+    server.setExecutor(executor);
+  }
+
+  public void start() {
+    server.start();
+    if (updater != null) {
+      updater.scheduleAtFixedRate(this::updateEnvironment, updateIntervalMillis, updateIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    LOGGER.info("Lab server started at " + getThingDescriptionURL());
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+    if (updater != null) {
+      updater.shutdownNow();
+    }
+  }
+
+  /**
+  * Returns the URL of the W3C Web of Things Thing Description of the lab
+  */
+  public String getThingDescriptionURL() {
+    return "http://localhost:" + server.getAddress().getPort() + "/was/rl";
+  }
+
+  public synchronized long getStatusRequests() {
+    return this.statusRequests;
+  }
+
+  public synchronized long getActionRequests() {
+    return this.actionRequests;
+  }
+
+  /**
+  * Updates the environment as the "Update environment" node of the simulated lab, which
+  * computes the light levels with the sunshine of the previous update
+  */
+  private synchronized void updateEnvironment() {
+    double previousSunshine = sunshine;
+    hour = hour >= 24 ? 0.1 : hour + 0.1;
+    sunshine = 600 + 50 * random.nextDouble();
+
+    z1Level = (devices[0] ? 300 : 0) + (devices[1] ? 50 : 0) + (devices[2] ? previousSunshine * 0.5 : 0)
+      + (devices[3] ? previousSunshine * 0.25 : 0);
+    z2Level = (devices[0] ? 50 : 0) + (devices[1] ? 300 : 0) + (devices[2] ? previousSunshine * 0.25 : 0)
+      + (devices[3] ? previousSunshine * 0.5 : 0);
+
+    totalEnergyCost += (devices[0] ? 1 : 0) + (devices[1] ? 1 : 0);
+  }
+
+  private void handleStatus(HttpExchange exchange) throws IOException {
+    if (!"GET".equals(exchange.getRequestMethod())) {
+      respond(exchange, 405, "text/plain", "");
+      return;
+    }
+
+    String status;
+    synchronized (this) {
+      statusRequests++;
+      if (updater == null) {
+        updateEnvironment();
+      }
+      status = "{\"Z1Level\":" + z1Level + ",\"Z2Level\":" + z2Level
+        + ",\"Z1Light\":" + devices[0] + ",\"Z2Light\":" + devices[1]
+        + ",\"Z1Blinds\":" + devices[2] + ",\"Z2Blinds\":" + devices[3]
+        + ",\"Sunshine\":" + sunshine + ",\"TotalEnergyCost\":" + totalEnergyCost
+        + ",\"EnergyCost\":" + energyCost + ",\"Hour\":" + hour + "}";
+    }
+    respond(exchange, 200, "application/json", status);
+  }
+
+  /**
+  * Applies an action as the "Update action" node of the simulated lab: switching on
+  * a light costs 100, raising blinds costs 5
+  */
+  private void handleAction(HttpExchange exchange) throws IOException {
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      respond(exchange, 405, "text/plain", "");
+      return;
+    }
+
+    String body;
+    try (InputStream in = exchange.getRequestBody()) {
+      body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    StringBuilder response = new StringBuilder("{");
+    synchronized (this) {
+      actionRequests++;
+      double cost = 0;
+      Matcher matcher = DEVICE_VALUE.matcher(body);
+      while (matcher.find()) {
+        int device = Arrays.asList(DEVICES).indexOf(matcher.group(1));
+        boolean value = Boolean.parseBoolean(matcher.group(2));
+        if (!devices[device] && value) {
+          cost = device < 2 ? 100 : 5;
+          energyCost = cost;
+        }
+        devices[device] = value;
+        response.append('"').append(DEVICES[device]).append("\":").append(value).append(',');
+      }
+      response.append("\"cost\":").append(cost).append('}');
+    }
+    respond(exchange, 200, "application/json", response.toString());
+  }
+
+  private void handleThingDescription(HttpExchange exchange) throws IOException {
+    respond(exchange, 200, "text/turtle", thingDescription);
+  }
+
+  private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+    if (bytes.length > 0) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+    exchange.close();
+  }
+
+  /**
+  * Creates the Thing Description of the lab in Turtle, with the affordances used by
+  * {@link Lab}: the Status property and the SetZ1Light, SetZ2Light, SetZ1Blinds and
+  * SetZ2Blinds actions
+  */
+  private static String createThingDescription(String base) {
+    StringBuilder td = new StringBuilder();
+    td.append("@prefix td: <https://www.w3.org/2019/wot/td#> .\n")
+      .append("@prefix htv: <http://www.w3.org/2011/http#> .\n")
+      .append("@prefix hctl: <https://www.w3.org/2019/wot/hypermedia#> .\n")
+      .append("@prefix wotsec: <https://www.w3.org/2019/wot/security#> .\n")
+      .append("@prefix js: <https://www.w3.org/2019/wot/json-schema#> .\n")
+      .append("@prefix was: <http://example.org/was#> .\n\n")
+      .append("<").append(base).append("/was/rl> a td:Thing ;\n")
+      .append("  td:title \"Interactions Lab (embedded stand-in)\" ;\n")
+      .append("  td:hasSecurityConfiguration [ a wotsec:NoSecurityScheme ] ;\n")
+      .append("  td:hasBase <").append(base).append("/> ;\n")
+      .append("  td:hasPropertyAffordance [\n")
+      .append("    a td:PropertyAffordance, js:ObjectSchema, <https://example.org/was#Status> ;\n")
+      .append("    td:name \"status\" ;\n")
+      .append("    td:isObservable false ;\n")
+      .append("    td:hasForm [\n")
+      .append("      htv:methodName \"GET\" ;\n")
+      .append("      hctl:hasTarget <").append(base).append("/was/rl/status> ;\n")
+      .append("      hctl:forContentType \"application/json\" ;\n")
+      .append("      hctl:hasOperationType td:readProperty\n")
+      .append("    ] ;\n")
+      .append("    js:properties\n");
+
+    String[][] statusProperties = {
+      {"Z1Level", "js:NumberSchema"}, {"Z2Level", "js:NumberSchema"},
+      {"Z1Light", "js:BooleanSchema"}, {"Z2Light", "js:BooleanSchema"},
+      {"Z1Blinds", "js:BooleanSchema"}, {"Z2Blinds", "js:BooleanSchema"},
+      {"Sunshine", "js:NumberSchema"}, {"TotalEnergyCost", "js:NumberSchema"},
+      {"EnergyCost", "js:NumberSchema"}, {"Hour", "js:NumberSchema"}
+    };
+    for (int i = 0; i < statusProperties.length; i++) {
+      td.append("      [ a ").append(statusProperties[i][1]).append(", was:").append(statusProperties[i][0])
+        .append(" ; js:propertyName \"").append(statusProperties[i][0]).append("\" ]")
+        .append(i < statusProperties.length - 1 ? " ,\n" : "\n");
+    }
+    td.append("  ]");
+
+    for (String device : DEVICES) {
+      td.append(" ;\n")
+        .append("  td:hasActionAffordance [\n")
+        .append("    a td:ActionAffordance, was:Set").append(device).append(" ;\n")
+        .append("    td:name \"set").append(device).append("\" ;\n")
+        .append("    td:hasForm [\n")
+        .append("      htv:methodName \"POST\" ;\n")
+        .append("      hctl:hasTarget <").append(base).append("/was/rl/action> ;\n")
+        .append("      hctl:forContentType \"application/json\" ;\n")
+        .append("      hctl:hasOperationType td:invokeAction\n")
+        .append("    ] ;\n")
+        .append("    td:hasInputSchema [\n")
+        .append("      a js:ObjectSchema ;\n")
+        .append("      js:properties [ a js:BooleanSchema, was:").append(device)
+        .append(" ; js:propertyName \"").append(device).append("\" ] ;\n")
+        .append("      js:required \"").append(device).append("\"\n")
+        .append("    ]\n")
+        .append("  ]");
+    }
+    td.append(" .\n");
+    return td.toString();
+  }
+
+  /**
+  * Runs a lab server until the JVM is stopped
+  *
+  * @param args the port (default 1880) and the update interval in milliseconds (default 1000)
+  */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 1880;
+    long updateInterval = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+
+    LabServer labServer = new LabServer(port, 4, updateInterval, System.nanoTime());
+    labServer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(labServer::stop));
+  }
+}
@@ -0,0 +1,182 @@
+package tools;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* A compact, append-only binary log of the interactions with a lab.
+*
+* <p> A trace starts with a header (the magic number "LABT" and a format version),
+* followed by one record per interaction:
+* <ul>
+* <li> type (byte): {@link #READ}, {@link #ACTION} or {@link #RESET}
+* <li> timestamp (long): the time of the interaction in milliseconds since the epoch
+* <li> latency (int): the latency of the interaction in microseconds
+* <li> success (boolean): whether the interaction succeeded
+* <li> for reads: the lux of Zone 1 and Zone 2 (double), the lights and blinds as bits
+* (byte), the sunshine lux (double), and the discretized state (short)
+* <li> for actions: the action key (short)
+* <li> for resets: the requested state (short)
+* </ul>
+* </p>
+*/
+public class LabTrace {
+
+  public static final byte READ = 1;
+  public static final byte ACTION = 2;
+  public static final byte RESET = 3;
+
+  private static final int MAGIC = 0x4C414254; // "LABT"
+  private static final short VERSION = 1;
+  private static final int FLUSH_INTERVAL = 64; // the number of records buffered before flushing
+
+  /**
+  * A record of an interaction with a lab
+  */
+  public static class Record {
+    public final byte type;
+    public final long timestamp;
+    public final int latencyMicros;
+    public final boolean success;
+    public final double z1Lux;
+    public final double z2Lux;
+    public final int devices; // the bits z1Light, z2Light, z1Blinds, z2Blinds (most to least significant)
+    public final double sunshineLux;
+    public final int state; // the discretized state of reads, the requested state of resets
+    public final int action;
+
+    Record(byte type, long timestamp, int latencyMicros, boolean success, double z1Lux, double z2Lux,
+        int devices, double sunshineLux, int state, int action) {
+      this.type = type;
+      this.timestamp = timestamp;
+      this.latencyMicros = latencyMicros;
+      this.success = success;
+      this.z1Lux = z1Lux;
+      this.z2Lux = z2Lux;
+      this.devices = devices;
+      this.sunshineLux = sunshineLux;
+      this.state = state;
+      this.action = action;
+    }
+  }
+
+  /**
+  * Appends records of interactions with a lab to a trace file
+  */
+  public static class Recorder implements Closeable {
+
+    private final DataOutputStream out;
+    private int unflushed = 0;
+
+    /**
+    * Opens a trace file for appending, writing the header if the file is new
+    *
+    * @param file the trace file
+    */
+    public Recorder(File file) throws IOException {
+      boolean isNew = !file.exists() || file.length() == 0;
+      this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+      if (isNew) {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+      }
+    }
+
+    public synchronized void recordRead(long latencyNanos, boolean success, double z1Lux, double z2Lux,
+        int devices, double sunshineLux, int state) throws IOException {
+      writeHeader(READ, latencyNanos, success);
+      out.writeDouble(z1Lux);
+      out.writeDouble(z2Lux);
+      out.writeByte(devices);
+      out.writeDouble(sunshineLux);
+      out.writeShort(state);
+      recorded();
+    }
+
+    public synchronized void recordAction(long latencyNanos, boolean success, int action) throws IOException {
+      writeHeader(ACTION, latencyNanos, success);
+      out.writeShort(action);
+      recorded();
+    }
+
+    public synchronized void recordReset(long latencyNanos, boolean success, int state) throws IOException {
+      writeHeader(RESET, latencyNanos, success);
+      out.writeShort(state);
+      recorded();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+    }
+
+    private void writeHeader(byte type, long latencyNanos, boolean success) throws IOException {
+      out.writeByte(type);
+      out.writeLong(System.currentTimeMillis());
+      out.writeInt((int) Math.min(Integer.MAX_VALUE, latencyNanos / 1000));
+      out.writeBoolean(success);
+    }
+
+    private void recorded() throws IOException {
+      if (++unflushed >= FLUSH_INTERVAL) {
+        out.flush();
+        unflushed = 0;
+      }
+    }
+  }
+
+  /**
+  * Reads all records of a trace file. A record that was cut short (e.g. by a crash
+  * while recording) ends the trace.
+  *
+  * @param file the trace file
+  * @return the records in the order they were recorded
+  */
+  public static List<Record> read(File file) throws IOException {
+    List<Record> records = new ArrayList<>();
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a lab trace: " + file);
+      }
+      short version = in.readShort();
+      if (version != VERSION) {
+        throw new IOException("Unsupported lab trace version " + version + ": " + file);
+      }
+
+      while (true) {
+        int type = in.read();
+        if (type == -1) {
+          break;
+        }
+
+        try {
+          long timestamp = in.readLong();
+          int latency = in.readInt();
+          boolean success = in.readBoolean();
+
+          if (type == READ) {
+            double z1Lux = in.readDouble();
+            double z2Lux = in.readDouble();
+            int devices = in.readByte();
+            double sunshineLux = in.readDouble();
+            int state = in.readShort();
+            records.add(new Record(READ, timestamp, latency, success, z1Lux, z2Lux, devices, sunshineLux, state, -1));
+          } else if (type == ACTION) {
+            int action = in.readShort();
+            records.add(new Record(ACTION, timestamp, latency, success, 0, 0, 0, 0, -1, action));
+          } else if (type == RESET) {
+            int state = in.readShort();
+            records.add(new Record(RESET, timestamp, latency, success, 0, 0, 0, 0, state, -1));
+          } else {
+            throw new IOException("Unknown record type " + type + " in lab trace: " + file);
+          }
+        } catch (EOFException e) {
+          break;
+        }
+      }
+    }
+
+    return records;
+  }
+}
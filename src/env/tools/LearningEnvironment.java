@@ -1,5 +1,8 @@
 package tools;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 /**
@@ -34,6 +37,11 @@ public abstract class LearningEnvironment {
    */
   protected List<String> affordanceTypes = new ArrayList<>();
 
+  /**
+   * The states of the state space in the order of their positions
+   */
+  private List<List<Integer>> stateList;
+
   /**
    * Returns the size of the state space
    *
@@ -52,6 +60,29 @@ public abstract class LearningEnvironment {
     return actionSpace.size();
   }
 
+  /**
+   * Returns the list of integer values that describes a state of the state
+   * space, e.g., [0,1,0,1,0,0,2].
+   *
+   * @param state the position of the state in the state space
+   * @return the description of the state
+   */
+  public List<Integer> getStateVector(int state) {
+    return getStateList().get(state);
+  }
+
+  /**
+   * Returns the states of the state space in the order of their positions
+   *
+   * @return the list of states
+   */
+  protected List<List<Integer>> getStateList() {
+    if (stateList == null || stateList.size() != stateSpace.size()) {
+      stateList = new ArrayList<>(stateSpace);
+    }
+    return stateList;
+  }
+
   /**
    * Returns an {@link Action} instance from the action space based on the given
    * key
@@ -62,6 +93,73 @@ public abstract class LearningEnvironment {
     return actionSpace.get(action);
   }
 
+  /**
+   * Returns the key of the action of the action space with the given tag and
+   * payload, e.g. the action returned by {@link QLearner#getActionFromState}
+   *
+   * @param actionTag the tag of the action
+   * @param payloadTags the tags of the payload of the action
+   * @param payload the payload of the action
+   * @return the action key, or -1 if there is no such action
+   */
+  public int getActionKey(String actionTag, Object[] payloadTags, Object[] payload) {
+    for (Map.Entry<Integer, Action> entry : actionSpace.entrySet()) {
+      Action action = entry.getValue();
+      if (action.getActionTag().equals(actionTag) && Arrays.equals(action.getPayloadTags(), payloadTags)
+          && Arrays.equals(action.getPayload(), payload)) {
+        return entry.getKey();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns a fingerprint of the structure of the environment, e.g. "3f9a0c1d2b4e5f60".
+   * <p>
+   * Environments with the same fingerprint have the same states at the same
+   * positions and the same actions under the same keys, so that they can share
+   * Q-tables. The fingerprint does not depend on how the environment is reached,
+   * so that a local stand-in of a lab and the lab described by a Thing Description
+   * have the same fingerprint.
+   * </p>
+   *
+   * @return the fingerprint as 16 hexadecimal digits
+   */
+  public String getFingerprint() {
+    StringBuilder structure = new StringBuilder();
+    describeStructure(structure);
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(structure.toString().getBytes(StandardCharsets.UTF_8));
+      StringBuilder fingerprint = new StringBuilder();
+      for (int i = 0; i < 8; i++) {
+        fingerprint.append(String.format("%02x", digest[i]));
+      }
+      return fingerprint.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Appends a canonical description of the structure of the environment, from
+   * which its fingerprint is computed: the affordance types, the states in the
+   * order of their positions and the actions in the order of their keys.
+   *
+   * @param structure the description to append to
+   */
+  protected void describeStructure(StringBuilder structure) {
+    structure.append("affordances ").append(affordanceTypes).append('\n');
+    for (List<Integer> state : getStateList()) {
+      structure.append("state ").append(state).append('\n');
+    }
+    for (int key = 0; key < actionSpace.size(); key++) {
+      Action action = actionSpace.get(key);
+      structure.append("action ").append(key).append(' ').append(action.getActionTag()).append(' ')
+        .append(Arrays.toString(action.getPayloadTags())).append(' ').append(Arrays.toString(action.getPayload()))
+        .append('\n');
+    }
+  }
+
   /**
    * Returns the states that are compatible to a given substate description.
    * <p>
@@ -121,4 +219,32 @@ public abstract class LearningEnvironment {
    */
   public abstract void performAction(int action);
 
+  /**
+   * Sets the environment to a given state in a single interaction, e.g. for
+   * starting a training episode from a chosen state.
+   * <p>
+   * Environments that cannot be reset return false, and are left unchanged. The
+   * default implementation does not support resets.
+   * </p>
+   *
+   * @param state the state
+   * @return true if the environment was reset
+   */
+  public boolean resetState(int state) {
+    return false;
+  }
+
+  /**
+   * Returns the states that the environment can be set to by
+   * {@link #resetState(int)}.
+   * <p>
+   * The default implementation returns no states.
+   * </p>
+   *
+   * @return the states
+   */
+  public List<Integer> getResetStates() {
+    return Collections.emptyList();
+  }
+
 }
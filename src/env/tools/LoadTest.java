@@ -0,0 +1,294 @@
+package tools;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+* A load test of many controller agents sharing one learner and one lab.
+*
+* <p> Each simulated agent runs in its own thread with its own goal, and repeatedly
+* reads the status of the lab, gets the next action from the shared {@link QLearning}, and
+* invokes the action on the lab, as the illuminance controller agent does. Like the
+* operations of a CArtAgO artifact, the operations of the shared learner and of the
+* shared lab are queued, and executed one at a time by a single thread, in the order
+* they were requested. When an agent reaches its goal, it resets the lab to a random
+* setting of the lights and blinds and continues.
+* </p>
+* <p> The lab is an embedded {@link LabServer}, so that status reads and actions
+* are real HTTP requests, and the learner is trained against the same lab. Every
+* operation is timestamped when it is queued, when the thread of the artifact takes it
+* from the queue and when it completes. The test reports, per agent, the decision
+* latency (the time to get an action from the learner, including the time queued
+* behind other agents), the time queued for and spent in the learner and the lab, and
+* the total throughput.
+* </p>
+* <p> The load test of the JaCaMo platform itself is configured in load_test.jcm.
+* </p>
+*/
+public class LoadTest {
+
+  private final QLearning learning;
+  private final Lab lab;
+
+  /**
+  * Queues the operations on a shared object, and executes them one at a time on a single
+  * thread, in the order they were queued
+  */
+  private static class QueuedArtifact {
+
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(runnable -> {
+      Thread t = new Thread(runnable, "load-test-artifact");
+      t.setDaemon(true);
+      return t;
+    });
+
+    /**
+    * Queues an operation and waits for its result
+    *
+    * @param timings the (returned) [queued, dequeued, completed] timestamps of the operation in nanoseconds
+    */
+    <T> T execute(Callable<T> operation, List<long[]> timings) throws InterruptedException {
+      long[] timing = new long[3];
+      timing[0] = System.nanoTime();
+      Future<T> result = thread.submit(() -> {
+        timing[1] = System.nanoTime();
+        try {
+          return operation.call();
+        } finally {
+          timing[2] = System.nanoTime();
+        }
+      });
+      try {
+        // the timestamps of the artifact thread are visible once the result is
+        return result.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Operation failed", e.getCause());
+      } finally {
+        timings.add(timing);
+      }
+    }
+
+    void shutdown() {
+      thread.shutdownNow();
+    }
+  }
+
+  private final QueuedArtifact learnerArtifact = new QueuedArtifact();
+  private final QueuedArtifact labArtifact = new QueuedArtifact();
+
+  /**
+  * The measurements of a simulated agent
+  */
+  static class AgentStats {
+    final String name;
+    final Object[] goal;
+    final List<Long> decisionNanos = new ArrayList<>();
+    final List<long[]> learnerOperations = new ArrayList<>(); // the timestamps of the operations on the learner
+    final List<long[]> labOperations = new ArrayList<>(); // the timestamps of the operations on the lab
+    int goalsReached = 0;
+
+    AgentStats(String name, Object[] goal) {
+      this.name = name;
+      this.goal = goal;
+    }
+  }
+
+  /**
+  * @param learning the learning shared by all agents, with Q tables for their goals
+  * @param lab the lab shared by all agents
+  */
+  public LoadTest(QLearning learning, Lab lab) {
+    this.learning = learning;
+    this.lab = lab;
+  }
+
+  /**
+  * Runs the simulated agents concurrently until each has taken a number of decisions
+  *
+  * @param goals the goals of the agents, one per agent
+  * @param decisions the number of decisions of each agent
+  * @param thinkMillis the time an agent waits after each action, as the agent waits for the lab to settle
+  * @return the measurements of the agents and the duration of the test in nanoseconds
+  */
+  Map.Entry<List<AgentStats>, Long> run(List<Object[]> goals, int decisions, long thinkMillis) throws InterruptedException {
+    List<AgentStats> agents = new ArrayList<>();
+    for (int i = 0; i < goals.size(); i++) {
+      agents.add(new AgentStats("controller_" + (i + 1), goals.get(i)));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(agents.size());
+    CountDownLatch ready = new CountDownLatch(agents.size());
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (AgentStats agent : agents) {
+      futures.add(executor.submit(() -> {
+        ready.countDown();
+        start.await();
+        runAgent(agent, decisions, thinkMillis);
+        return null;
+      }));
+    }
+
+    ready.await();
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Agent failed", e.getCause());
+      }
+    }
+    long duration = System.nanoTime() - begin;
+    executor.shutdown();
+    learnerArtifact.shutdown();
+    labArtifact.shutdown();
+
+    return new AbstractMap.SimpleEntry<>(agents, duration);
+  }
+
+  private void runAgent(AgentStats agent, int decisions, long thinkMillis) throws InterruptedException {
+    Random random = new Random(agent.name.hashCode());
+    List<Integer> resetStates = lab.getResetStates();
+    int goalZ1 = Integer.parseInt(agent.goal[0].toString());
+    int goalZ2 = Integer.parseInt(agent.goal[1].toString());
+
+    while (agent.decisionNanos.size() < decisions) {
+      List<Integer> st = labArtifact.execute(() -> lab.getStateVector(lab.readCurrentState()), agent.labOperations);
+
+      if (st.get(0) == goalZ1 && st.get(1) == goalZ2) {
+        agent.goalsReached++;
+        int reset = resetStates.get(random.nextInt(resetStates.size()));
+        labArtifact.execute(() -> lab.resetState(reset), agent.labOperations);
+        continue;
+      }
+
+      Object[] observation = {st.get(0), st.get(1), st.get(2) == 1, st.get(3) == 1, st.get(4) == 1, st.get(5) == 1, st.get(6)};
+      long requested = System.nanoTime();
+      QLearning.Decision decision = learnerArtifact.execute(
+        () -> learning.decide(agent.goal, observation, Long.MAX_VALUE), agent.learnerOperations);
+      agent.decisionNanos.add(System.nanoTime() - requested);
+      if (decision.action == null) {
+        throw new IllegalStateException("No action for goal " + Arrays.toString(agent.goal) + ": " + decision.reason);
+      }
+
+      int action = lab.getActionKey(decision.action.getActionTag(), decision.action.getPayloadTags(),
+        decision.action.getPayload());
+      labArtifact.execute(() -> {
+        lab.performAction(action);
+        return null;
+      }, agent.labOperations);
+
+      if (thinkMillis > 0) {
+        Thread.sleep(thinkMillis);
+      }
+    }
+  }
+
+  /**
+  * Writes the measurements of every agent as a line of a CSV file
+  */
+  static void writeCsv(List<AgentStats> agents, long durationNanos, File file) throws IOException {
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      out.println("agent,goal,decisions,goals_reached,decisions_per_s,decision_p50_ms,decision_p99_ms,"
+        + "learner_queue_mean_ms,learner_queue_p99_ms,learner_service_mean_ms,"
+        + "lab_queue_mean_ms,lab_queue_p99_ms,lab_service_mean_ms");
+      for (AgentStats agent : agents) {
+        double[] decision = toSortedMillis(agent.decisionNanos);
+        double[] learnerQueue = toSortedMillis(agent.learnerOperations, 0, 1);
+        double[] labQueue = toSortedMillis(agent.labOperations, 0, 1);
+        out.println(agent.name + "," + agent.goal[0] + "-" + agent.goal[1] + "," + agent.decisionNanos.size() + ","
+          + agent.goalsReached + "," + agent.decisionNanos.size() / (durationNanos / 1e9) + ","
+          + PolicyBenchmark.percentile(decision, 50) + "," + PolicyBenchmark.percentile(decision, 99) + ","
+          + mean(learnerQueue) + "," + PolicyBenchmark.percentile(learnerQueue, 99) + ","
+          + mean(toSortedMillis(agent.learnerOperations, 1, 2)) + ","
+          + mean(labQueue) + "," + PolicyBenchmark.percentile(labQueue, 99) + ","
+          + mean(toSortedMillis(agent.labOperations, 1, 2)));
+      }
+    }
+  }
+
+  private static double[] toSortedMillis(List<Long> nanos) {
+    return nanos.stream().mapToDouble(n -> n / 1e6).sorted().toArray();
+  }
+
+  /**
+  * Returns the sorted times between two timestamps of operations, e.g. the time queued
+  * from timestamp 0 (queued) to timestamp 1 (dequeued), in milliseconds
+  */
+  private static double[] toSortedMillis(List<long[]> timings, int from, int to) {
+    return timings.stream().mapToDouble(t -> (t[to] - t[from]) / 1e6).sorted().toArray();
+  }
+
+  private static double mean(double[] values) {
+    return Arrays.stream(values).average().orElse(0);
+  }
+
+  /**
+  * Runs a load test against an embedded lab server
+  *
+  * @param args the number of agents (default 16), the number of decisions per agent
+  * (default 50), the think time in milliseconds (default 0), and the output directory
+  * (default "build/load_test")
+  */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int agentCount = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    int decisions = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    long thinkMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+    File outputDir = new File(args.length > 3 ? args[3] : "build/load_test");
+    outputDir.mkdirs();
+
+    LabServer server = new LabServer(0, Math.max(4, Runtime.getRuntime().availableProcessors()), 0, 42);
+    server.start();
+
+    try {
+      // the agents have different goals, cycling through the 16 goals
+      List<Object[]> goals = new ArrayList<>();
+      for (int i = 0; i < agentCount; i++) {
+        goals.add(new Object[]{(i / 4) % 4, i % 4});
+      }
+
+      Lab lab = new Lab(server.getThingDescriptionURL());
+      lab.configureRateLimits(1e6, 1e6, 1e6, 1e6); // the load test measures the lab, not the rate limits
+
+      // the learner is trained against the lab the agents control
+      QLearning learning = new QLearning(lab);
+      long trainingStart = System.nanoTime();
+      Object[] options = {new Object[]{"start_states", "stratified"}};
+      for (Object[] goal : goals.subList(0, Math.min(16, goals.size()))) {
+        learning.train(goal, 200, 0.2, 0.8, 0.3, 100.0, options);
+      }
+      long trainingNanos = System.nanoTime() - trainingStart;
+      long labRequests = server.getStatusRequests() + server.getActionRequests();
+
+      Map.Entry<List<AgentStats>, Long> result = new LoadTest(learning, lab).run(goals, decisions, thinkMillis);
+      List<AgentStats> agents = result.getKey();
+      long duration = result.getValue();
+
+      writeCsv(agents, duration, new File(outputDir, "load_test.csv"));
+
+      List<Long> allDecisions = new ArrayList<>();
+      List<long[]> allLearnerOperations = new ArrayList<>();
+      for (AgentStats agent : agents) {
+        allDecisions.addAll(agent.decisionNanos);
+        allLearnerOperations.addAll(agent.learnerOperations);
+      }
+      double[] decision = toSortedMillis(allDecisions);
+      double[] learnerQueue = toSortedMillis(allLearnerOperations, 0, 1);
+
+      System.out.println("Agents: " + agentCount + ", decisions: " + allDecisions.size()
+        + ", training: " + trainingNanos / 1000000 + "ms, test: " + duration / 1000000 + "ms");
+      System.out.println("Throughput: " + allDecisions.size() / (duration / 1e9) + " decisions/s, "
+        + (server.getStatusRequests() + server.getActionRequests() - labRequests) / (duration / 1e9) + " lab requests/s");
+      System.out.println("Decision latency: p50 " + PolicyBenchmark.percentile(decision, 50) + "ms, p99 "
+        + PolicyBenchmark.percentile(decision, 99) + "ms; learner queueing: mean " + mean(learnerQueue) + "ms, p99 "
+        + PolicyBenchmark.percentile(learnerQueue, 99) + "ms; learner service: mean "
+        + mean(toSortedMillis(allLearnerOperations, 1, 2)) + "ms");
+      System.out.println("Results written to " + outputDir);
+    } finally {
+      server.stop();
+    }
+  }
+}
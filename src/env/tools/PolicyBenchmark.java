@@ -0,0 +1,221 @@
+package tools;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+* A benchmark of how well and how fast learned policies control the lab.
+*
+* <p> The benchmark trains the {@link QLearning} of a {@link SimulatedLab} for each of
+* the 16 goals, and then, for every goal and every start state the lab can be reset to,
+* follows the greedy policy decided by {@link QLearning#decide}, as the
+* {@link QLearner} artifact does for agents, until the goal is reached or a step limit is
+* hit. For every run it records the steps to the goal, the wall-clock time, the
+* decision latency, the actions issued and the energy cost. The runs are written
+* as CSV, and a summary with percentiles is written as JSON.
+* </p>
+*/
+public class PolicyBenchmark {
+
+  private static final double[] PERCENTILES = {50, 90, 99};
+
+  private final QLearning learning;
+  private final SimulatedLab lab;
+  private final int maxSteps;
+
+  private final List<Run> runs = new ArrayList<>();
+
+  /**
+  * The result of following a policy from a start state
+  */
+  private static class Run {
+    String goal;
+    int startState;
+    boolean reached;
+    int steps;
+    long actions;
+    double energyCost;
+    double wallClockMillis;
+    double decisionMicros; // the mean latency of the decisions of the run
+  }
+
+  /**
+  * @param learning the learning whose policies are benchmarked
+  * @param lab the lab the policies control
+  * @param maxSteps the maximum number of steps of a run
+  */
+  public PolicyBenchmark(QLearning learning, SimulatedLab lab, int maxSteps) {
+    this.learning = learning;
+    this.lab = lab;
+    this.maxSteps = maxSteps;
+  }
+
+  /**
+  * Follows the greedy policy of a goal from every start state the lab can be reset to
+  */
+  public void run(Object[] goal) {
+    for (int startState : new LinkedHashSet<>(lab.getResetStates())) {
+      lab.resetState(startState);
+      runs.add(runFrom(goal, startState));
+    }
+  }
+
+  /**
+  * Returns the share of the runs so far that reached their goal
+  */
+  public double getSuccessRate() {
+    return runs.isEmpty() ? 0 : (double) runs.stream().filter(r -> r.reached).count() / runs.size();
+  }
+
+  /**
+  * Returns the mean number of steps of the runs so far, where runs that did not
+  * reach their goal count with the step limit
+  */
+  public double getMeanSteps() {
+    return runs.stream().mapToInt(r -> r.steps).average().orElse(0);
+  }
+
+  private Run runFrom(Object[] goal, int startState) {
+    Run run = new Run();
+    run.goal = goal[0] + "-" + goal[1];
+    run.startState = startState;
+
+    long actionsBefore = lab.getActionsPerformed();
+    double energyBefore = lab.getTotalEnergyCost();
+    long decisionNanos = 0;
+    long start = System.nanoTime();
+
+    while (true) {
+      int state = lab.readCurrentState();
+      List<Integer> st = lab.getStateVector(state);
+
+      if (st.get(0) == Integer.parseInt(goal[0].toString()) && st.get(1) == Integer.parseInt(goal[1].toString())) {
+        run.reached = true;
+        break;
+      }
+      if (run.steps >= maxSteps) {
+        break;
+      }
+
+      Object[] observation = {st.get(0), st.get(1), st.get(2) == 1, st.get(3) == 1, st.get(4) == 1, st.get(5) == 1, st.get(6)};
+      long decisionStart = System.nanoTime();
+      QLearning.Decision decision = learning.decide(goal, observation, Long.MAX_VALUE);
+      decisionNanos += System.nanoTime() - decisionStart;
+      if (decision.action == null) {
+        break;
+      }
+
+      Action action = decision.action;
+      lab.performAction(lab.getActionKey(action.getActionTag(), action.getPayloadTags(), action.getPayload()));
+      run.steps++;
+    }
+
+    run.wallClockMillis = (System.nanoTime() - start) / 1e6;
+    run.decisionMicros = run.steps > 0 ? decisionNanos / 1e3 / run.steps : 0;
+    run.actions = lab.getActionsPerformed() - actionsBefore;
+    run.energyCost = lab.getTotalEnergyCost() - energyBefore;
+    return run;
+  }
+
+  /**
+  * Writes every run as a line of a CSV file
+  */
+  public void writeCsv(File file) throws IOException {
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      out.println("goal,start_state,reached,steps,actions,energy_cost,wall_clock_ms,decision_latency_us");
+      for (Run run : runs) {
+        out.println(run.goal + "," + run.startState + "," + run.reached + "," + run.steps + "," + run.actions + ","
+          + run.energyCost + "," + run.wallClockMillis + "," + run.decisionMicros);
+      }
+    }
+  }
+
+  /**
+  * Writes a summary of the runs of every goal, and of all runs, as a JSON file
+  */
+  public void writeJson(File file) throws IOException {
+    Map<String, List<Run>> byGoal = new LinkedHashMap<>();
+    for (Run run : runs) {
+      byGoal.computeIfAbsent(run.goal, g -> new ArrayList<>()).add(run);
+    }
+
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      out.println("{");
+      out.println("  \"max_steps\": " + maxSteps + ",");
+      out.println("  \"goals\": {");
+      int n = 0;
+      for (Map.Entry<String, List<Run>> entry : byGoal.entrySet()) {
+        out.println("    \"" + entry.getKey() + "\": " + summarize(entry.getValue(), "    ")
+          + (++n < byGoal.size() ? "," : ""));
+      }
+      out.println("  },");
+      out.println("  \"all\": " + summarize(runs, "  "));
+      out.println("}");
+    }
+  }
+
+  private String summarize(List<Run> goalRuns, String indent) {
+    long reached = goalRuns.stream().filter(r -> r.reached).count();
+    StringBuilder json = new StringBuilder("{\n");
+    json.append(indent).append("  \"runs\": ").append(goalRuns.size()).append(",\n");
+    json.append(indent).append("  \"success_rate\": ").append((double) reached / goalRuns.size()).append(",\n");
+    json.append(indent).append("  \"steps\": ").append(percentiles(goalRuns, r -> r.steps)).append(",\n");
+    json.append(indent).append("  \"actions\": ").append(percentiles(goalRuns, r -> r.actions)).append(",\n");
+    json.append(indent).append("  \"energy_cost\": ").append(percentiles(goalRuns, r -> r.energyCost)).append(",\n");
+    json.append(indent).append("  \"wall_clock_ms\": ").append(percentiles(goalRuns, r -> r.wallClockMillis)).append(",\n");
+    json.append(indent).append("  \"decision_latency_us\": ").append(percentiles(goalRuns, r -> r.decisionMicros)).append("\n");
+    json.append(indent).append("}");
+    return json.toString();
+  }
+
+  private static String percentiles(List<Run> goalRuns, java.util.function.ToDoubleFunction<Run> metric) {
+    double[] values = goalRuns.stream().mapToDouble(metric).sorted().toArray();
+    StringBuilder json = new StringBuilder("{\"mean\": ").append(Arrays.stream(values).average().orElse(0));
+    for (double p : PERCENTILES) {
+      json.append(", \"p").append((int) p).append("\": ").append(percentile(values, p));
+    }
+    return json.append("}").toString();
+  }
+
+  /**
+  * Returns a percentile of sorted values, with the nearest-rank method
+  */
+  static double percentile(double[] sortedValues, double percentile) {
+    if (sortedValues.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percentile / 100 * sortedValues.length);
+    return sortedValues[Math.max(0, Math.min(sortedValues.length - 1, rank - 1))];
+  }
+
+  /**
+  * Trains all 16 goals against a local stand-in of the lab and benchmarks their policies
+  *
+  * @param args the number of training episodes per goal (default 200), the output
+  * directory (default "build/benchmark") and the maximum steps per run (default 20)
+  */
+  public static void main(String[] args) throws IOException {
+    int episodes = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    File outputDir = new File(args.length > 1 ? args[1] : "build/benchmark");
+    int maxSteps = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    outputDir.mkdirs();
+
+    QLearning learning = new QLearning(new SimulatedLab());
+    PolicyBenchmark benchmark = new PolicyBenchmark(learning, new SimulatedLab(42), maxSteps);
+
+    Object[] options = {new Object[]{"start_states", "stratified"}};
+    for (int z1 = 0; z1 < 4; z1++) {
+      for (int z2 = 0; z2 < 4; z2++) {
+        Object[] goal = {z1, z2};
+        learning.train(goal, episodes, 0.2, 0.8, 0.3, 100.0, options);
+        benchmark.run(goal);
+      }
+    }
+
+    benchmark.writeCsv(new File(outputDir, "policy_benchmark.csv"));
+    benchmark.writeJson(new File(outputDir, "policy_benchmark.json"));
+    TrainingTelemetry.getInstance().close();
+    System.out.println("Benchmark results written to " + outputDir);
+  }
+}
@@ -0,0 +1,247 @@
+package tools;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+* Prioritized sweeping over the transitions observed in a learning environment.
+*
+* <p> The sweeper keeps a model of the observed transitions (successor counts and
+* the mean reward of every state-action pair) and the predecessor lists of every
+* state. States are queued by the Bellman error of their observed actions, and
+* the planning budget is spent on the states with the largest errors: a state is
+* backed up with the expected value of its observed successors, and its
+* predecessors are queued with their own Bellman errors. Goal states are terminal:
+* no future value is bootstrapped from them, as in the updates of the learner.
+* </p>
+*/
+public class PrioritizedSweeper {
+
+  private final int actionCount;
+  private final double gamma; // the discount factor
+  private final double threshold; // states with a smaller Bellman error are not queued
+  private final int[][] applicableActions; // the applicable actions of every state
+  private final boolean[] goalStates; // the terminal states, whose future value is 0
+
+  private final int[] visits; // the number of observations of every state-action pair
+  private final double[] rewardSum; // the sum of the observed rewards of every state-action pair
+  private final int[][] successors; // the observed successor states of every state-action pair
+  private final int[][] successorCounts; // the number of observations of every successor
+  private final int[] successorSize;
+
+  private final int[][] predecessors; // the observed state-action pairs leading to every state
+  private final int[] predecessorSize;
+
+  private final StatePriorityQueue queue;
+  private long backups = 0;
+
+  /**
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  * @param applicableActions the applicable actions of every state
+  * @param goalStates which states are goal states, the terminal states of an episode
+  * @param gamma the discount factor
+  * @param threshold states with a smaller Bellman error are not queued
+  */
+  public PrioritizedSweeper(int stateCount, int actionCount, int[][] applicableActions, boolean[] goalStates,
+                            double gamma, double threshold) {
+    this.actionCount = actionCount;
+    this.gamma = gamma;
+    this.threshold = threshold;
+    this.applicableActions = applicableActions;
+    this.goalStates = goalStates;
+    this.visits = new int[stateCount * actionCount];
+    this.rewardSum = new double[stateCount * actionCount];
+    this.successors = new int[stateCount * actionCount][];
+    this.successorCounts = new int[stateCount * actionCount][];
+    this.successorSize = new int[stateCount * actionCount];
+    this.predecessors = new int[stateCount][];
+    this.predecessorSize = new int[stateCount];
+    this.queue = new StatePriorityQueue(stateCount);
+  }
+
+  /**
+  * Records an observed transition in the model, and queues its source state
+  * by its Bellman error
+  */
+  public void observe(QTensor q, int goal, int state, int action, double reward, int nextState) {
+    int sa = state * actionCount + action;
+    visits[sa]++;
+    rewardSum[sa] += reward;
+
+    int i = indexOf(successors[sa], successorSize[sa], nextState);
+    if (i == -1) {
+      successors[sa] = append(successors[sa], successorSize[sa], nextState);
+      successorCounts[sa] = append(successorCounts[sa], successorSize[sa], 1);
+      successorSize[sa]++;
+
+      if (indexOf(predecessors[nextState], predecessorSize[nextState], sa) == -1) {
+        predecessors[nextState] = append(predecessors[nextState], predecessorSize[nextState], sa);
+        predecessorSize[nextState]++;
+      }
+    } else {
+      successorCounts[sa][i]++;
+    }
+
+    queueState(q, goal, state);
+  }
+
+  /**
+  * Performs up to a given number of prioritized backups
+  *
+  * @param q the Q values to update
+  * @param goal the goal whose Q matrix is updated
+  * @param steps the maximum number of backups
+  * @param listener a listener that receives every applied update, or null
+  */
+  void sweep(QTensor q, int goal, int steps, QUpdateListener listener) {
+    for (int n = 0; n < steps && !queue.isEmpty(); n++) {
+      int state = queue.poll();
+
+      for (int action : applicableActions[state]) {
+        int sa = state * actionCount + action;
+        if (visits[sa] > 0) {
+          double target = expectedValue(q, goal, sa);
+          double delta = target - q.get(goal, state, action);
+          q.set(goal, state, action, target);
+          backups++;
+          if (listener != null && delta != 0.0) {
+            listener.updated(state, delta);
+          }
+        }
+      }
+
+      for (int p = 0; p < predecessorSize[state]; p++) {
+        queueState(q, goal, predecessors[state][p] / actionCount);
+      }
+    }
+  }
+
+  /**
+  * Clears the queue, e.g. when the Q matrix is replaced
+  */
+  public void clearQueue() {
+    queue.clear();
+  }
+
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  public long getBackups() {
+    return this.backups;
+  }
+
+  /**
+  * Returns the model, the predecessor lists and the queue of the sweeper, for checkpoints
+  */
+  public byte[] saveState() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(visits.length);
+    for (int sa = 0; sa < visits.length; sa++) {
+      out.writeInt(visits[sa]);
+      out.writeDouble(rewardSum[sa]);
+      out.writeInt(successorSize[sa]);
+      for (int i = 0; i < successorSize[sa]; i++) {
+        out.writeInt(successors[sa][i]);
+        out.writeInt(successorCounts[sa][i]);
+      }
+    }
+    out.writeInt(predecessors.length);
+    for (int state = 0; state < predecessors.length; state++) {
+      out.writeInt(predecessorSize[state]);
+      for (int p = 0; p < predecessorSize[state]; p++) {
+        out.writeInt(predecessors[state][p]);
+      }
+    }
+    queue.writeState(out);
+    out.writeLong(backups);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+  * Restores a state returned by {@link #saveState()}
+  *
+  * @throws IOException if the state is of a sweeper with another state or action space
+  */
+  public void restoreState(byte[] state) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+    if (in.readInt() != visits.length) {
+      throw new IOException("The checkpoint was taken with another state or action space");
+    }
+    for (int sa = 0; sa < visits.length; sa++) {
+      visits[sa] = in.readInt();
+      rewardSum[sa] = in.readDouble();
+      int size = in.readInt();
+      successors[sa] = size > 0 ? new int[size] : null;
+      successorCounts[sa] = size > 0 ? new int[size] : null;
+      successorSize[sa] = size;
+      for (int i = 0; i < size; i++) {
+        successors[sa][i] = in.readInt();
+        successorCounts[sa][i] = in.readInt();
+      }
+    }
+    if (in.readInt() != predecessors.length) {
+      throw new IOException("The checkpoint was taken with another state space");
+    }
+    for (int s = 0; s < predecessors.length; s++) {
+      int size = in.readInt();
+      predecessors[s] = size > 0 ? new int[size] : null;
+      predecessorSize[s] = size;
+      for (int p = 0; p < size; p++) {
+        predecessors[s][p] = in.readInt();
+      }
+    }
+    queue.readState(in);
+    backups = in.readLong();
+  }
+
+  private void queueState(QTensor q, int goal, int state) {
+    double error = 0.0;
+    for (int action : applicableActions[state]) {
+      int sa = state * actionCount + action;
+      if (visits[sa] > 0) {
+        error = Math.max(error, Math.abs(expectedValue(q, goal, sa) - q.get(goal, state, action)));
+      }
+    }
+    if (error > threshold) {
+      queue.add(state, error);
+    }
+  }
+
+  /**
+  * Returns the expected one-step return of a state-action pair under the model
+  */
+  private double expectedValue(QTensor q, int goal, int sa) {
+    double future = 0.0;
+    for (int i = 0; i < successorSize[sa]; i++) {
+      int next = successors[sa][i];
+      if (goalStates[next]) {
+        continue;
+      }
+      future += (double) successorCounts[sa][i] / visits[sa] * q.max(goal, next, applicableActions[next]);
+    }
+    return rewardSum[sa] / visits[sa] + gamma * future;
+  }
+
+  private static int indexOf(int[] values, int size, int value) {
+    for (int i = 0; i < size; i++) {
+      if (values[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int[] append(int[] values, int size, int value) {
+    if (values == null) {
+      values = new int[2];
+    } else if (size == values.length) {
+      values = Arrays.copyOf(values, size * 2);
+    }
+    values[size] = value;
+    return values;
+  }
+}
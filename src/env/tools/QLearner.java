@@ -1,38 +1,41 @@
 package tools;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.logging.*;
 import cartago.Artifact;
 import cartago.OPERATION;
 import cartago.OpFeedbackParam;
 
+/**
+* A CArtAgO artifact that learns the Q-tables of the goals of a lab (or of a fleet of labs),
+* and returns the actions, plans and policies of the goals to agents. The learning itself is
+* done by a {@link QLearning} per lab; the operations parse the arguments of agents, and
+* report the errors of the learning as failed operations.
+*/
 public class QLearner extends Artifact {
 
-  private Lab lab; // the lab environment that will be learnt 
-  private int stateCount; // the number of possible states in the lab environment
-  private int actionCount; // the number of possible actions in the lab environment
-  private HashMap<Integer, double[][]> qTables; // a map for storing the qTables computed for different goals
-  private Map<String, Integer> previousIlluminanceLevels;
-  private Map<Integer, String> goalDescriptions; // Store goal descriptions for logging
+  private QLearning learning; // the learning of the lab the operations currently apply to
 
-  private static final Logger LOGGER = Logger.getLogger(QLearner.class.getName());
+  private Map<String, FleetLab> fleet = new LinkedHashMap<>(); // the labs managed by the learner, by environment id
+  private Map<String, QLearning.Model> models = new HashMap<>(); // the Q-tables of the labs, by environment fingerprint
 
-  public void init(String environmentURL) {
+  private static final String DEFAULT_ENVIRONMENT = "default"; // the id of the lab the learner is initialized with
 
-    // the URL of the W3C Thing Description of the lab Thing
-    this.lab = new Lab(environmentURL);
+  private long decisions = 0; // the number of getActionFromState operations executed
+  private long decisionNanos = 0; // the total time spent executing them, from their start to their end
+  private long maxDecisionNanos = 0;
 
-    this.stateCount = this.lab.getStateCount();
-    LOGGER.info("Initialized with a state space of n="+ stateCount);
+  private static final Logger LOGGER = Logger.getLogger(QLearner.class.getName());
 
-    this.actionCount = this.lab.getActionCount();
-    LOGGER.info("Initialized with an action space of m="+ actionCount);
+  public void init(String environmentURL) {
+
+    // the lab the learner is initialized with is the "default" environment of the fleet
+    this.learning = registerEnvironment(DEFAULT_ENVIRONMENT, environmentURL).learning;
 
-    qTables = new HashMap<>();
-    goalDescriptions = new HashMap<>();
-    previousIlluminanceLevels = new HashMap<>();
-    previousIlluminanceLevels.put("Z1", 0);
-    previousIlluminanceLevels.put("Z2", 0);
+    LOGGER.info("Initialized with a state space of n="+ learning.getStateCount());
+    LOGGER.info("Initialized with an action space of m="+ learning.getActionCount());
   }
 /**
 * Computes a Q matrix for the state space and action space of the lab, and against
@@ -59,127 +62,70 @@ public class QLearner extends Artifact {
 **/
 @OPERATION
 public void calculateQ(Object[] goalDescription, Object episodesObj, Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj) {
-    int totalEpisodes = Integer.parseInt(episodesObj.toString());
-    double learningRate = Double.parseDouble(alphaObj.toString());
-    double discountFactor = Double.parseDouble(gammaObj.toString());
-    double explorationRate = Double.parseDouble(epsilonObj.toString());
-    double goalReward = Double.parseDouble(rewardObj.toString());
-  
-    LOGGER.info("Starting Q-Learning training with " + totalEpisodes + " episodes");
-    LOGGER.info("Learning parameters: α=" + learningRate + ", γ=" + discountFactor + ", ε=" + explorationRate);
-
-    double[][] qMatrix = createQTable();
-    int goalHash = generateGoalKey(goalDescription);
-    goalDescriptions.put(goalHash, Arrays.toString(goalDescription));
-
-    int targetZ1 = Integer.parseInt(goalDescription[0].toString());
-    int targetZ2 = Integer.parseInt(goalDescription[1].toString());
-    
-    LOGGER.info("Target goal: Z1=" + targetZ1 + ", Z2=" + targetZ2);
-
-    // Enhanced training with convergence tracking
-    int successfulEpisodes = 0;
-    int consecutiveSuccesses = 0;
-    double totalRewardLastHundred = 0.0;
-    Queue<Double> recentEpisodeRewards = new LinkedList<>();
-
-    for (int episodeNum = 0; episodeNum < totalEpisodes; episodeNum++) {
-        initializeRandomState();
-        int currentStateIdx = lab.readCurrentState();
-        
-        final int MAX_EPISODE_STEPS = 50; 
-        boolean goalReached = false;
-        double episodeReward = 0.0;
-        
-        for (int stepCount = 0; stepCount < MAX_EPISODE_STEPS; stepCount++) {
-            List<Integer> validActions = lab.getApplicableActions(currentStateIdx);
-            
-            if (validActions.isEmpty()) {
-                LOGGER.fine("No valid actions available at state " + currentStateIdx);
-                break;
-            }
-            
-            // Decay exploration rate over time for better convergence
-            double currentEpsilon = explorationRate * Math.pow(0.995, episodeNum);
-            int selectedAction = selectActionEpsilonGreedy(qMatrix, currentStateIdx, validActions, currentEpsilon);
-            
-            lab.performAction(selectedAction);
-            int nextStateIdx = lab.readCurrentState();
-            
-            goalReached = isGoalState(goalDescription);
-            
-            double stepReward = computeRewardValue(goalDescription, null, goalReward);
-            episodeReward += stepReward;
-            
-            double maxFutureQ = findMaxQValue(qMatrix, nextStateIdx, lab.getApplicableActions(nextStateIdx));
-            double currentQValue = qMatrix[currentStateIdx][selectedAction];
-            double updatedQValue = currentQValue + learningRate * (stepReward + discountFactor * maxFutureQ - currentQValue);
-            qMatrix[currentStateIdx][selectedAction] = updatedQValue;
-
-            currentStateIdx = nextStateIdx;
-
-            if (goalReached) {
-                successfulEpisodes++;
-                consecutiveSuccesses++;
-                LOGGER.fine("Goal reached in episode " + episodeNum + " at step " + stepCount);
-                break;
-            }
-        }
-
-        if (!goalReached) {
-            consecutiveSuccesses = 0;
-        }
-
-        // Track recent performance
-        recentEpisodeRewards.add(episodeReward);
-        if (recentEpisodeRewards.size() > 100) {
-            totalRewardLastHundred -= recentEpisodeRewards.poll();
-        }
-        totalRewardLastHundred += episodeReward;
-
-        // Enhanced progress reporting
-        if ((episodeNum + 1) % 50 == 0) {
-            double successRate = (double) successfulEpisodes / (episodeNum + 1) * 100;
-            double avgRecentReward = recentEpisodeRewards.size() > 0 ? totalRewardLastHundred / recentEpisodeRewards.size() : 0;
-            
-            LOGGER.info("Training progress: " + (episodeNum + 1) + "/" + totalEpisodes + 
-                       " episodes | Success rate: " + String.format("%.1f%%", successRate) +
-                       " | Avg recent reward: " + String.format("%.2f", avgRecentReward) +
-                       " | Consecutive successes: " + consecutiveSuccesses);
-            
-            int currentState = lab.readCurrentState();
-            lab.readCurrentState();
-            if (lab.currentState != null && lab.currentState.size() >= 2) {
-                LOGGER.info("Current state: Z1=" + lab.currentState.get(0) + ", Z2=" + lab.currentState.get(1));
-            }
-        }
-        
-        if (consecutiveSuccesses >= 10 && episodeNum > totalEpisodes / 4) {
-            LOGGER.info("Early convergence detected after " + (episodeNum + 1) + " episodes");
-            LOGGER.info("Achieved " + consecutiveSuccesses + " consecutive successes");
-            break;
-        }
+    calculateQ(goalDescription, episodesObj, alphaObj, gammaObj, epsilonObj, rewardObj, new Object[0],
+        new OpFeedbackParam<>());
+}
 
-        if (episodeNum > 0 && episodeNum % 100 == 0) {
-            try {
-                Thread.sleep(100); 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
-        }
+/**
+* Computes a Q matrix against a goal description like {@link #calculateQ(Object[], Object, Object, Object, Object, Object)},
+* with additional training options, and returns a summary of the training run.
+*
+* <p>
+* Supported options (given as [Name, Value] pairs):
+* <ul>
+* <li> convergence_window: the number of episodes of the sliding window used for detecting convergence (default 20)
+* <li> q_tolerance: the max-norm of Q value change tolerated within the window (default 1% of the goal reward)
+* <li> policy_tolerance: the number of greedy policy changes tolerated within the window (default 0)
+* <li> min_episodes: the minimum number of episodes before training may stop (default 1/4 of the episodes)
+* <li> lambda: the trace decay of Watkins's Q(lambda) with replacing traces; 0 selects one-step Q-learning (default 0)
+* <li> trace_threshold: eligibility traces below this value are dropped (default 0.01)
+* <li> planning_steps: the number of prioritized sweeping backups over the observed transitions per lab step; 0 disables sweeping (default 0)
+* <li> priority_threshold: states with a smaller Bellman error are not queued for sweeping (default 0.01)
+* <li> warm_start: how the Q matrix is initialized; "none" starts from zeros, "nearest" copies the Q matrix of the
+* closest trained goal (averaging ties), "blend" averages all trained goals weighted by their closeness (default "none")
+* <li> warm_start_scale: the factor applied to the warm start Q values (default 1.0)
+* <li> start_states: how episodes start; "random" performs 1-3 random actions, "stratified" resets the lab to the
+* least visited of the states it can be reset to, falling back to "random" if the lab cannot be reset (default "random")
+* <li> checkpoint: the file the training state (Q matrix, episode, exploration rate, statistics, planning model) is saved to
+* periodically; the file is deleted when training completes (default none)
+* <li> checkpoint_interval: the number of episodes between checkpoints (default 10)
+* <li> resume: whether training continues from the checkpoint file, if it exists (default false)
+* <li> exploration: how actions are explored; "epsilon_greedy" takes a random action with the (decaying) exploration
+* probability, "ucb" takes the action with the largest Q value plus a bonus that shrinks with the visits of the
+* state-action pair, trying untaken actions first (default "epsilon_greedy")
+* <li> ucb_scale: the scale of the "ucb" exploration bonus, in units of Q values (default 10% of the goal reward)
+* <li> lab_timeout: the time in milliseconds a failing lab is waited for; the episodes it interrupts are repeated
+* without learning from the failed steps, and training fails if the lab fails for longer (default 60000)
+* </ul>
+*</p>
+* @param  goalDescription  the desired goal against the which the Q matrix is calculated (e.g., [2,3])
+* @param  episodesObj the number of episodes used for calculating the Q matrix
+* @param  alphaObj the learning rate with range [0,1].
+* @param  gammaObj the discount factor [0,1]
+* @param epsilonObj the exploration probability [0,1]
+* @param rewardObj the reward assigned when reaching the goal state
+* @param optionsObj the training options, e.g. [["q_tolerance", 0.5], ["convergence_window", 30]]
+* @param results the (returned) summary of the training run as [Name, Value] pairs, e.g. [["episodes", 120], ["converged", true], ...]
+**/
+@OPERATION
+public void calculateQ(Object[] goalDescription, Object episodesObj, Object alphaObj, Object gammaObj, Object epsilonObj,
+                       Object rewardObj, Object[] optionsObj, OpFeedbackParam<Object[]> results) {
+    Map<String, Object> summary;
+    try {
+        summary = learning.train(goalDescription, Integer.parseInt(episodesObj.toString()),
+            Double.parseDouble(alphaObj.toString()), Double.parseDouble(gammaObj.toString()),
+            Double.parseDouble(epsilonObj.toString()), Double.parseDouble(rewardObj.toString()), optionsObj);
+    } catch (IllegalArgumentException | IllegalStateException | IOException e) {
+        failed(e.getMessage());
+        return;
     }
 
-    qTables.put(goalHash, qMatrix);
-    
-    double finalSuccessRate = (double) successfulEpisodes / totalEpisodes * 100;
-    LOGGER.info("Goal: " + Arrays.toString(goalDescription));
-    LOGGER.info("Final success rate: " + String.format("%.1f%%", finalSuccessRate));
-    LOGGER.info("Total successful episodes: " + successfulEpisodes + "/" + totalEpisodes);
-    
-    displayQTableSample(qMatrix, goalDescription);
-    
-    logBestPolicy(qMatrix, goalDescription);
+    Object[] pairs = new Object[summary.size()];
+    int i = 0;
+    for (Map.Entry<String, Object> entry : summary.entrySet()) {
+        pairs[i++] = new Object[]{entry.getKey(), entry.getValue()};
+    }
+    results.set(pairs);
 }
 
 /**
@@ -187,6 +133,12 @@ public void calculateQ(Object[] goalDescription, Object episodesObj, Object alph
 * a goal description. The returned information can be used by agents to invoke an action 
 * using a ThingArtifact.
 *
+* <p>
+* The operation fails, instead of returning an action, if no action can be decided: if there
+* is no Q-table for the goal, or if the state description is not valid and the last known state
+* of the lab is unknown or older than {@link QLearning#DEFAULT_MAX_STATE_AGE} milliseconds (see
+* {@link #getActionFromState(Object[], Object[], Object, OpFeedbackParam, OpFeedbackParam, OpFeedbackParam, OpFeedbackParam)}).
+* </p>
 * @param  goalDescription  the desired goal against the which the Q matrix is calculated (e.g., [2,3])
 * @param  currentStateDescription the current state e.g. [2,2,true,false,true,true,2]
 * @param  nextBestActionTag the (returned) semantic annotation of the next best action, e.g. "http://example.org/was#SetZ1Light"
@@ -197,432 +149,610 @@ public void calculateQ(Object[] goalDescription, Object episodesObj, Object alph
 public void getActionFromState(Object[] goalDescription, Object[] currentStateDescription,
       OpFeedbackParam<String> nextBestActionTag, OpFeedbackParam<Object[]> nextBestActionPayloadTags,
       OpFeedbackParam<Object[]> nextBestActionPayload) {
-         
-    int goalKey = generateGoalKey(goalDescription);
-
-    if (!qTables.containsKey(goalKey)) {
-        LOGGER.severe("Q-table not found for goal: " + Arrays.toString(goalDescription));
-        LOGGER.severe("Available goals: " + goalDescriptions.keySet());
-        setFallbackAction(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
+    long started = System.nanoTime();
+    QLearning.Decision decision;
+    try {
+        decision = learning.decide(goalDescription, currentStateDescription, QLearning.DEFAULT_MAX_STATE_AGE);
+    } catch (IllegalArgumentException e) {
+        failed(e.getMessage());
         return;
+    } finally {
+        recordDecision(started);
     }
 
-    double[][] qMatrix = qTables.get(goalKey);
-    int currentStateIdx = parseStateDescription(currentStateDescription);
-    
-    if (currentStateIdx < 0) {
-        LOGGER.warning("Invalid state description: " + Arrays.toString(currentStateDescription));
-        setFallbackAction(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
+    if (decision.action == null) {
+        failed("No action for goal " + Arrays.toString(goalDescription) + ": " + decision.reason);
         return;
     }
 
-    List<Integer> applicableActions = lab.getApplicableActions(currentStateIdx);
-    
-    if (applicableActions.isEmpty()) {
-        LOGGER.warning("No applicable actions for current state " + currentStateIdx);
-        setFallbackAction(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
+    nextBestActionTag.set(decision.action.getActionTag());
+    nextBestActionPayloadTags.set(decision.action.getPayloadTags());
+    nextBestActionPayload.set(decision.action.getPayload());
+}
+
+/**
+* Returns information about the next best action like
+* {@link #getActionFromState(Object[], Object[], OpFeedbackParam, OpFeedbackParam, OpFeedbackParam)},
+* together with the status of the decision, so that agents never act on an outdated state
+* of the lab without knowing it.
+*
+* <p>
+* If the state description is valid, the action is decided on it, with status "ok". Otherwise
+* the action is decided on the last known state of the lab (read within the deadline of the
+* lab, see {@link #setLabDeadlines}), with status "last_known_state", if that state is not
+* older than the maximum state age. If no action can be decided, the status is "degraded",
+* the action tag is "none" and the payload is empty, and the reason is one of "no_q_table",
+* "state_unavailable", "no_applicable_action" and "q_table_unavailable" (the shared Q-tables
+* are being published for too long, see {@link #useSharedQTables}).
+* </p>
+* @param  goalDescription  the desired goal against the which the Q matrix is calculated (e.g., [2,3])
+* @param  currentStateDescription the current state e.g. [2,2,true,false,true,true,2]
+* @param  maxStateAgeObj the maximum age in milliseconds of a last known state of the lab an action may be decided on
+* @param  nextBestActionTag the (returned) semantic annotation of the next best action, or "none"
+* @param  nextBestActionPayloadTags the (returned) semantic annotations of the payload of the next best action
+* @param  nextBestActionPayload the (returned) payload of the next best action
+* @param  decisionStatus the (returned) status of the decision as [Status, Reason, StateAge], e.g. ["ok", "", 0]
+* or ["degraded", "state_unavailable", 12500], where StateAge is the age in milliseconds of the state the action
+* was decided on, or of the last known state of the lab (-1 if the lab state has never been read)
+**/
+@OPERATION
+public void getActionFromState(Object[] goalDescription, Object[] currentStateDescription, Object maxStateAgeObj,
+      OpFeedbackParam<String> nextBestActionTag, OpFeedbackParam<Object[]> nextBestActionPayloadTags,
+      OpFeedbackParam<Object[]> nextBestActionPayload, OpFeedbackParam<Object[]> decisionStatus) {
+    long started = System.nanoTime();
+    QLearning.Decision decision;
+    try {
+        decision = learning.decide(goalDescription, currentStateDescription, Long.parseLong(maxStateAgeObj.toString()));
+    } catch (IllegalArgumentException e) {
+        failed(e.getMessage());
         return;
+    } finally {
+        recordDecision(started);
     }
 
-    int bestActionIdx = findBestAction(qMatrix, currentStateIdx, applicableActions);
-    Action bestAction = lab.getAction(bestActionIdx);
-    
-    if (bestAction == null) {
-        LOGGER.severe("Action object not found for index: " + bestActionIdx);
-        setFallbackAction(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-        return;
+    if (decision.action == null) {
+        nextBestActionTag.set("none");
+        nextBestActionPayloadTags.set(new Object[0]);
+        nextBestActionPayload.set(new Object[0]);
+    } else {
+        nextBestActionTag.set(decision.action.getActionTag());
+        nextBestActionPayloadTags.set(decision.action.getPayloadTags());
+        nextBestActionPayload.set(decision.action.getPayload());
     }
+    decisionStatus.set(new Object[]{decision.status, decision.reason,
+        decision.stateAge == Long.MAX_VALUE ? -1L : decision.stateAge});
+}
 
-    nextBestActionTag.set(bestAction.getActionTag());
-    nextBestActionPayloadTags.set(bestAction.getPayloadTags());
-    nextBestActionPayload.set(bestAction.getPayload());
-    
-    LOGGER.info("FOR REAL LAB");
-    LOGGER.info("Goal: " + Arrays.toString(goalDescription));
-    LOGGER.info("Current state: " + Arrays.toString(currentStateDescription));
-    LOGGER.info("State index: " + currentStateIdx);
-    LOGGER.info("Selected action: " + bestAction.getActionTag());
-    LOGGER.info("Action Q-value: " + String.format("%.3f", qMatrix[currentStateIdx][bestActionIdx]));
-    LOGGER.info("Payload tags: " + Arrays.toString(bestAction.getPayloadTags()));
-    LOGGER.info("Payload values: " + Arrays.toString(bestAction.getPayload()));
-
-    LOGGER.info("Alternative actions and their Q-values:");
-    for (int actionIdx : applicableActions) {
-        if (actionIdx != bestActionIdx) {
-            Action altAction = lab.getAction(actionIdx);
-            if (altAction != null) {
-                LOGGER.info("  " + altAction.getActionTag() + " -> Q=" + 
-                           String.format("%.3f", qMatrix[currentStateIdx][actionIdx]));
-            }
-        }
+/**
+* Exports the greedy policy of a goal, so that agents can choose actions with a belief
+* lookup instead of calling {@link #getActionFromState} at every step. The policy has an
+* entry for every state that is not already at the goal and whose Q values have been
+* learned; agents should fall back to {@link #getActionFromState} for other states.
+* Exported policies do not follow later updates of the Q-table (e.g. online learning).
+*
+* @param  goalDescription  the goal of the policy (e.g., [2,3])
+* @param  policy the (returned) policy as [State, ActionTag, PayloadTags, Payload] entries, where State is the
+* discretized state e.g. [2,2,true,false,true,true,2], and PayloadTags and Payload are the keys and values of
+* the payload of the action, e.g. ["http://example.org/was#SetZ1Light", ["Z1Light"], [true]]
+**/
+@OPERATION
+public void exportPolicy(Object[] goalDescription, OpFeedbackParam<Object[]> policy) {
+    try {
+        policy.set(learning.exportPolicy(goalDescription).toArray());
+    } catch (IllegalArgumentException | IllegalStateException e) {
+        failed(e.getMessage());
     }
 }
 
-private boolean isGoalState(Object[] goalDescription) {
+/**
+* Returns the greedy action sequence from a state to a goal, predicted by rolling out
+* the greedy policy of the goal over a model of the transitions observed in the lab
+* (during training and online learning). Every action comes with the state it is
+* expected to lead to, so that agents can perform the whole sequence and only ask for
+* a new plan when an observed state differs from the expected one.
+*
+* <p>
+* The rollout stops when the goal is reached, after the maximum number of steps, when
+* the model has not observed the greedy action in the predicted state, or when the
+* predicted states would loop.
+* </p>
+* @param  goalDescription  the goal of the plan (e.g., [2,3])
+* @param  currentStateDescription the current state e.g. [2,2,true,false,true,true,2]
+* @param  maxStepsObj the maximum number of actions of the plan
+* @param  plan the (returned) plan as [ActionTag, PayloadTags, Payload, ExpectedState] steps, where ExpectedState
+* is the discretized state the action is expected to lead to, e.g.
+* [["http://example.org/was#SetZ1Light", ["Z1Light"], [true], [3,2,true,false,true,true,2]], ...]
+* @param  reachesGoal the (returned) whether the expected state of the last step is at the goal
+**/
+@OPERATION
+public void getPlanFromState(Object[] goalDescription, Object[] currentStateDescription, Object maxStepsObj,
+      OpFeedbackParam<Object[]> plan, OpFeedbackParam<Boolean> reachesGoal) {
+    QLearning.Plan result;
     try {
-        int targetZ1Level = Integer.parseInt(goalDescription[0].toString());
-        int targetZ2Level = Integer.parseInt(goalDescription[1].toString());
+        result = learning.plan(goalDescription, currentStateDescription, Integer.parseInt(maxStepsObj.toString()));
+    } catch (IllegalArgumentException | IllegalStateException e) {
+        failed(e.getMessage());
+        return;
+    }
+    plan.set(result.steps.toArray());
+    reachesGoal.set(result.reachesGoal);
+}
 
-        lab.readCurrentState();
-        List<Integer> stateVector = lab.currentState;
+/**
+* Extends the action space of the lab with composite actions that set several lights
+* and blinds with a single request, if the lab allows it. The Q-tables are sized to the
+* extended action space, so composite actions must be enabled before any Q-table is
+* calculated. The extended lab has another environment fingerprint, and shares its
+* Q-tables with the labs of the fleet that have been extended in the same way; the
+* Q-tables it had remain with the other labs of its former fingerprint, if any.
+*
+* @param  actionCountParam the (returned) number of actions of the extended action space
+**/
+@OPERATION
+public void useCompositeActions(OpFeedbackParam<Integer> actionCountParam) {
+    if (learning.isShared()) {
+        failed("Composite actions must be enabled before Q-tables are shared");
+        return;
+    }
+    // the Q-tables of the lab are left to the other labs of the fleet with the same fingerprint, if any
+    FleetLab environment = getActiveEnvironment();
+    boolean sharedInFleet = fleet.values().stream()
+        .anyMatch(other -> other != environment && other.fingerprint.equals(environment.fingerprint));
+    if (!sharedInFleet && !learning.isEmpty()) {
+        failed("Composite actions must be enabled before any Q-table is calculated");
+        return;
+    }
 
-        if (stateVector == null || stateVector.size() < 2) {
-            return false;
-        }
+    // the extended lab has another structure, and shares the Q-tables of the labs with the same extension
+    Lab lab = environment.learning.getLab();
+    int added = lab.enableCompositeActions();
+    environment.fingerprint = lab.getFingerprint();
+    QLearning.Model model = models.computeIfAbsent(environment.fingerprint, fingerprint -> new QLearning.Model(lab));
+    QLearning extended = new QLearning(lab, model);
+    extended.copyOnlineLearning(environment.learning);
+    environment.learning = extended;
+    learning = extended;
+    LOGGER.info("Added " + added + " composite actions, action space of m=" + learning.getActionCount());
+    actionCountParam.set(learning.getActionCount());
+}
 
-        int actualZ1Level = stateVector.get(0);
-        int actualZ2Level = stateVector.get(1);
+/**
+* Returns the action that sets each device of the lab, e.g. to invoke composite actions
+* with a ThingArtifact: the action affordance of a device only accepts the payload property
+* of that device, so a composite action is invoked as one action per device.
+*
+* @param  deviceActions the (returned) [PayloadTag, ActionTag] pair of every device, e.g.
+* [["Z1Light", "http://example.org/was#SetZ1Light"], ...]
+**/
+@OPERATION
+public void getDeviceActions(OpFeedbackParam<Object[]> deviceActions) {
+    deviceActions.set(learning.getDeviceActions().toArray());
+}
 
-        boolean goalAchieved = (actualZ1Level == targetZ1Level && actualZ2Level == targetZ2Level);
-        
-        if (goalAchieved) {
-            LOGGER.fine("Goal state detected: Z1=" + actualZ1Level + ", Z2=" + actualZ2Level);
-        }
-        
-        return goalAchieved;
-    } catch (Exception e) {
-        LOGGER.warning("Error checking goal state: " + e.getMessage());
-        return false;
+/**
+* Adds a lab to the fleet of labs managed by the learner. Labs are identified by an
+* environment id, which is passed to the operations that take one (e.g.
+* {@link #calculateQ(Object, Object[], Object, Object, Object, Object, Object)}); the
+* operations without an environment id apply to the lab the learner was initialized with.
+*
+* <p>
+* Q-tables are kept per environment fingerprint, which is derived from the structure
+* of the lab (its Thing Description's affordances and Status schema, and the resulting
+* state and action spaces): labs with the same structure share their Q-tables, so that
+* a goal trained on one lab can be used on all of them, while labs with another
+* structure keep Q-tables of their own.
+* </p>
+* @param  environmentIdObj the id of the lab, e.g. "room_2_14"
+* @param  environmentURL the URL of the Thing Description of the lab (or a "local:" or "replay:" URL)
+* @param  fingerprint the (returned) environment fingerprint of the lab
+**/
+@OPERATION
+public void addEnvironment(Object environmentIdObj, Object environmentURL, OpFeedbackParam<String> fingerprint) {
+    String environmentId = environmentIdObj.toString();
+    if (fleet.containsKey(environmentId)) {
+        failed("The environment " + environmentId + " already exists");
+        return;
+    }
+    if (learning.isShared()) {
+        failed("Environments cannot be added once the Q-tables are shared");
+        return;
     }
+
+    FleetLab environment = registerEnvironment(environmentId, environmentURL.toString());
+    long sharing = fleet.values().stream().filter(e -> e.fingerprint.equals(environment.fingerprint)).count() - 1;
+    LOGGER.info("Added the environment " + environmentId + " with fingerprint " + environment.fingerprint
+        + (sharing > 0 ? ", sharing its Q-tables with " + sharing + " other environments" : ""));
+    fingerprint.set(environment.fingerprint);
 }
 
-private double computeRewardValue(Object[] goalDescription, List<Integer> goalStates, double goalReward) {
-    try {
-        int targetZ1Level = Integer.parseInt(goalDescription[0].toString());
-        int targetZ2Level = Integer.parseInt(goalDescription[1].toString());
+/**
+* Computes a Q matrix like {@link #calculateQ(Object[], Object, Object, Object, Object, Object)},
+* against a lab of the fleet (see {@link #addEnvironment}).
+*
+* @param  environmentId the id of the lab
+**/
+@OPERATION
+public void calculateQ(Object environmentId, Object[] goalDescription, Object episodesObj, Object alphaObj, Object gammaObj,
+                       Object epsilonObj, Object rewardObj) {
+    inEnvironment(environmentId, () -> calculateQ(goalDescription, episodesObj, alphaObj, gammaObj, epsilonObj, rewardObj));
+}
 
-        lab.readCurrentState();
-        List<Integer> stateVector = lab.currentState;
+/**
+* Computes a Q matrix with training options like
+* {@link #calculateQ(Object[], Object, Object, Object, Object, Object, Object[], OpFeedbackParam)},
+* against a lab of the fleet (see {@link #addEnvironment}).
+*
+* @param  environmentId the id of the lab
+**/
+@OPERATION
+public void calculateQ(Object environmentId, Object[] goalDescription, Object episodesObj, Object alphaObj, Object gammaObj,
+                       Object epsilonObj, Object rewardObj, Object[] optionsObj, OpFeedbackParam<Object[]> results) {
+    inEnvironment(environmentId, () -> calculateQ(goalDescription, episodesObj, alphaObj, gammaObj, epsilonObj, rewardObj,
+        optionsObj, results));
+}
 
-        if (stateVector == null || stateVector.size() < 7) {
-            return -1.0; 
-        }
+/**
+* Returns the next best action like {@link #getActionFromState(Object[], Object[], OpFeedbackParam, OpFeedbackParam, OpFeedbackParam)},
+* for a lab of the fleet (see {@link #addEnvironment}).
+*
+* @param  environmentId the id of the lab
+**/
+@OPERATION
+public void getActionFromState(Object environmentId, Object[] goalDescription, Object[] currentStateDescription,
+      OpFeedbackParam<String> nextBestActionTag, OpFeedbackParam<Object[]> nextBestActionPayloadTags,
+      OpFeedbackParam<Object[]> nextBestActionPayload) {
+    inEnvironment(environmentId, () -> getActionFromState(goalDescription, currentStateDescription, nextBestActionTag,
+        nextBestActionPayloadTags, nextBestActionPayload));
+}
 
-        int actualZ1Level = stateVector.get(0);
-        int actualZ2Level = stateVector.get(1);
-        boolean zone1LightOn = stateVector.get(2) == 1;
-        boolean zone2LightOn = stateVector.get(3) == 1;
-        boolean zone1BlindsUp = stateVector.get(4) == 1;
-        boolean zone2BlindsUp = stateVector.get(5) == 1;
-        int sunshineLevel = stateVector.get(6);
-
-        int prevZ1 = previousIlluminanceLevels.getOrDefault("Z1", actualZ1Level);
-        int prevZ2 = previousIlluminanceLevels.getOrDefault("Z2", actualZ2Level);
-
-        previousIlluminanceLevels.put("Z1", actualZ1Level);
-        previousIlluminanceLevels.put("Z2", actualZ2Level);
-
-        double totalReward = -0.01;
-
-        boolean goalAchieved = (actualZ1Level == targetZ1Level && actualZ2Level == targetZ2Level);
-        
-        if (goalAchieved) {
-            totalReward += goalReward;
-            LOGGER.fine("GOAL ACHIEVED! Z1=" + actualZ1Level + ", Z2=" + actualZ2Level + 
-                       " matches target [" + targetZ1Level + "," + targetZ2Level + "]");
-            return totalReward; 
-        }
-        int z1Distance = Math.abs(actualZ1Level - targetZ1Level);
-        int z2Distance = Math.abs(actualZ2Level - targetZ2Level);
-        double totalDistance = z1Distance + z2Distance;
-        
-        if (totalDistance > 0) {
-            double proximityReward = goalReward * 0.2 / (1 + totalDistance);
-            totalReward += proximityReward;
-        }
+/**
+* Returns the next best action and the status of the decision like
+* {@link #getActionFromState(Object[], Object[], Object, OpFeedbackParam, OpFeedbackParam, OpFeedbackParam, OpFeedbackParam)},
+* for a lab of the fleet (see {@link #addEnvironment}).
+*
+* @param  environmentId the id of the lab
+**/
+@OPERATION
+public void getActionFromState(Object environmentId, Object[] goalDescription, Object[] currentStateDescription,
+      Object maxStateAgeObj, OpFeedbackParam<String> nextBestActionTag, OpFeedbackParam<Object[]> nextBestActionPayloadTags,
+      OpFeedbackParam<Object[]> nextBestActionPayload, OpFeedbackParam<Object[]> decisionStatus) {
+    inEnvironment(environmentId, () -> getActionFromState(goalDescription, currentStateDescription, maxStateAgeObj,
+        nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload, decisionStatus));
+}
 
-        if (zone1LightOn) totalReward -= 0.5;
-        if (zone2LightOn) totalReward -= 0.5;
-        if (zone1BlindsUp) totalReward -= 0.01;
-        if (zone2BlindsUp) totalReward -= 0.01;
-    
-        int z1Change = Math.abs(actualZ1Level - prevZ1);
-        int z2Change = Math.abs(actualZ2Level - prevZ2);
-        totalReward -= 0.05 * (z1Change + z2Change);
-      
-        if (sunshineLevel >= 2) {
-            if (zone1BlindsUp && zone1LightOn) {
-                totalReward -= 0.3; 
-            }
-            if (zone2BlindsUp && zone2LightOn) {
-                totalReward -= 0.3;
-            }
-        }
+/**
+* Returns the greedy action sequence to a goal like
+* {@link #getPlanFromState(Object[], Object[], Object, OpFeedbackParam, OpFeedbackParam)},
+* for a lab of the fleet (see {@link #addEnvironment}).
+*
+* @param  environmentId the id of the lab
+**/
+@OPERATION
+public void getPlanFromState(Object environmentId, Object[] goalDescription, Object[] currentStateDescription,
+      Object maxStepsObj, OpFeedbackParam<Object[]> plan, OpFeedbackParam<Boolean> reachesGoal) {
+    inEnvironment(environmentId, () -> getPlanFromState(goalDescription, currentStateDescription, maxStepsObj, plan,
+        reachesGoal));
+}
 
-        return totalReward;
-        
-    } catch (Exception e) {
-        LOGGER.warning("Error computing reward: " + e.getMessage());
-        return -1.0;
-    }
+/**
+* Exports the greedy policy of a goal like {@link #exportPolicy(Object[], OpFeedbackParam)},
+* for a lab of the fleet (see {@link #addEnvironment}).
+*
+* @param  environmentId the id of the lab
+**/
+@OPERATION
+public void exportPolicy(Object environmentId, Object[] goalDescription, OpFeedbackParam<Object[]> policy) {
+    inEnvironment(environmentId, () -> exportPolicy(goalDescription, policy));
 }
 
-private void logBestPolicy(double[][] qMatrix, Object[] goalDescription) {
-    
-    List<StateActionPair> bestPairs = new ArrayList<>();
-    for (int state = 0; state < qMatrix.length; state++) {
-        for (int action = 0; action < qMatrix[state].length; action++) {
-            if (qMatrix[state][action] > 0) {
-                bestPairs.add(new StateActionPair(state, action, qMatrix[state][action]));
-            }
-        }
-    }
-    
-    bestPairs.sort((a, b) -> Double.compare(b.qValue, a.qValue));
-    
-    LOGGER.info("Top 5 state-action pairs for goal " + Arrays.toString(goalDescription) + ":");
-    
-    for (int i = 0; i < Math.min(5, bestPairs.size()); i++) {
-        StateActionPair pair = bestPairs.get(i);
-        Action action = lab.getAction(pair.actionIndex);
-        if (action != null) {
-            LOGGER.info("  State " + pair.stateIndex + " -> " + action.getActionTag() + 
-                       " (Q=" + String.format("%.3f", pair.qValue) + ")");
-        }
-    }
+/**
+* Feeds an observed state back like {@link #observeOutcome(Object[], Object[])}, for a
+* lab of the fleet (see {@link #addEnvironment}).
+*
+* @param  environmentId the id of the lab
+**/
+@OPERATION
+public void observeOutcome(Object environmentId, Object[] goalDescription, Object[] currentStateDescription) {
+    inEnvironment(environmentId, () -> observeOutcome(goalDescription, currentStateDescription));
 }
 
-private static class StateActionPair {
-    int stateIndex;
-    int actionIndex;
-    double qValue;
-    
-    StateActionPair(int state, int action, double q) {
-        this.stateIndex = state;
-        this.actionIndex = action;
-        this.qValue = q;
-    }
+/**
+* Returns the status of the Q-table of a goal like {@link #getQTableStatus(Object[], OpFeedbackParam)},
+* for a lab of the fleet (see {@link #addEnvironment}).
+*
+* @param  environmentId the id of the lab
+**/
+@OPERATION
+public void getQTableStatus(Object environmentId, Object[] goalDescription, OpFeedbackParam<String> status) {
+    inEnvironment(environmentId, () -> getQTableStatus(goalDescription, status));
 }
 
-    /**
-    * Print the Q matrix
-    *
-    * @param qTable the Q matrix
-    */
-void printQTable(double[][] qTable) {
-    System.out.println("Q-MATRIX SUMMARY");
-    int statesToShow = Math.min(10, qTable.length);
-    
-    for (int i = 0; i < statesToShow; i++) {
-        System.out.print("State " + String.format("%3d", i) + ": [");
-        for (int j = 0; j < qTable[i].length; j++) {
-            if (qTable[i][j] != 0.0) {
-                System.out.printf("%6.2f", qTable[i][j]);
-            } else {
-                System.out.print("  0.00");
-            }
-            if (j < qTable[i].length - 1) System.out.print(", ");
-        }
-        System.out.println("]");
-    }
-    
-    if (qTable.length > 10) {
-        System.out.println("... (" + (qTable.length - 10) + " more states not shown)");
+/**
+* Extends the action space of a lab of the fleet like {@link #useCompositeActions(OpFeedbackParam)}.
+*
+* @param  environmentId the id of the lab
+**/
+@OPERATION
+public void useCompositeActions(Object environmentId, OpFeedbackParam<Integer> actionCountParam) {
+    inEnvironment(environmentId, () -> useCompositeActions(actionCountParam));
+}
+
+/**
+* Creates a lab from the URL of its Thing Description, of a local stand-in of the lab
+* (e.g. "local:simulator") or of a trace of a lab to be replayed (e.g. "replay:traces/lab.trace"),
+* and adds it to the fleet with the Q-tables of its fingerprint.
+*/
+private FleetLab registerEnvironment(String environmentId, String environmentURL) {
+    Lab lab = QLearning.createLab(environmentURL);
+    QLearning.Model model = models.computeIfAbsent(lab.getFingerprint(), fingerprint -> new QLearning.Model(lab));
+    FleetLab environment = new FleetLab(environmentId, new QLearning(lab, model));
+    if (learning != null) {
+        // online learning applies to every lab of the fleet
+        environment.learning.copyOnlineLearning(learning);
     }
-    int nonZeroCount = 0;
-    double maxQ = Double.NEGATIVE_INFINITY;
-    double minQ = Double.POSITIVE_INFINITY;
-    double sumQ = 0.0;
-    
-    for (int i = 0; i < qTable.length; i++) {
-        for (int j = 0; j < qTable[i].length; j++) {
-            if (qTable[i][j] != 0.0) {
-                nonZeroCount++;
-                maxQ = Math.max(maxQ, qTable[i][j]);
-                minQ = Math.min(minQ, qTable[i][j]);
-                sumQ += qTable[i][j];
-            }
-        }
+    fleet.put(environmentId, environment);
+    return environment;
+}
+
+/**
+* Runs an operation against a lab of the fleet, and then switches back to the lab the
+* learner was initialized with
+*/
+private void inEnvironment(Object environmentIdObj, Runnable operation) {
+    FleetLab environment = fleet.get(environmentIdObj.toString());
+    if (environment == null) {
+        failed("Unknown environment " + environmentIdObj + ", expected one of " + fleet.keySet());
+        return;
     }
-    
-    if (nonZeroCount > 0) {
-        System.out.println("Q-Table Statistics:");
-        System.out.println("  Non-zero entries: " + nonZeroCount + "/" + (qTable.length * qTable[0].length));
-        System.out.println("  Max Q-value: " + String.format("%.3f", maxQ));
-        System.out.println("  Min Q-value: " + String.format("%.3f", minQ));
-        System.out.println("  Average Q-value: " + String.format("%.3f", sumQ / nonZeroCount));
+
+    learning = environment.learning;
+    try {
+        operation.run();
+    } finally {
+        learning = fleet.get(DEFAULT_ENVIRONMENT).learning;
     }
 }
 
-private double[][] createQTable() {
-    double[][] qMatrix = new double[this.stateCount][this.actionCount];
-    for (int stateIdx = 0; stateIdx < stateCount; stateIdx++){
-        for(int actionIdx = 0; actionIdx < actionCount; actionIdx++){
-            qMatrix[stateIdx][actionIdx] = 0.0;
+private FleetLab getActiveEnvironment() {
+    for (FleetLab environment : fleet.values()) {
+        if (environment.learning == learning) {
+            return environment;
         }
     }
-    return qMatrix;
+    throw new IllegalStateException("The active lab is not part of the fleet");
 }
 
-private void initializeRandomState() {
-    try {
-        Random rng = new Random();
-        int numRandomActions = rng.nextInt(3) + 1;
-        
-        for (int i = 0; i < numRandomActions; i++) {
-            int currentState = lab.readCurrentState();
-            List<Integer> availableActions = lab.getApplicableActions(currentState);
-            if (!availableActions.isEmpty()) {
-                int randomActionIdx = rng.nextInt(availableActions.size());
-                lab.performAction(availableActions.get(randomActionIdx));
-                
-                Thread.sleep(10);
-            }
-        }
-    } catch (Exception e) {
-        LOGGER.warning("Error initializing random state: " + e.getMessage());
+/**
+* A lab of the fleet
+*/
+private static class FleetLab {
+    final String id;
+    QLearning learning; // the learning of the lab, which is replaced when composite actions are enabled
+    String fingerprint; // the environment fingerprint of the lab, which changes with composite actions
+
+    FleetLab(String id, QLearning learning) {
+        this.id = id;
+        this.learning = learning;
+        this.fingerprint = learning.getLab().getFingerprint();
     }
 }
 
-private int selectActionEpsilonGreedy(double[][] qMatrix, int state, List<Integer> validActions, double epsilon) {
-    Random rng = new Random();
+/**
+* Shares the Q-tables with other processes on the same host through a memory-mapped file.
+*
+* <p>
+* A writer keeps training Q-tables in memory, and publishes the Q-table of a goal to
+* the file whenever it has been calculated (including the Q-tables calculated so far).
+* Only one writer can use a file at a time. A reader maps the file read-only and uses the
+* published Q-tables in place for {@link #getActionFromState}, picking up Q-tables
+* published later without copying them; readers cannot calculate Q-tables nor learn online.
+* Writers and readers must use environments with the same fingerprint (see
+* {@link LearningEnvironment#getFingerprint()}), which is recorded in the file.
+* </p>
+* @param  pathObj the path of the file of the shared Q-tables, created by the writer if needed
+* @param  roleObj "writer" or "reader"
+**/
+@OPERATION
+public void useSharedQTables(Object pathObj, Object roleObj) {
+    if (fleet.size() > 1) {
+        failed("The Q-tables of a fleet of environments cannot be shared");
+        return;
+    }
 
-    if (rng.nextDouble() < epsilon) {
-        return validActions.get(rng.nextInt(validActions.size()));
+    File file = new File(pathObj.toString());
+    try {
+        learning.useSharedQTables(file, roleObj.toString());
+    } catch (IllegalArgumentException | IllegalStateException e) {
+        failed(e.getMessage());
+    } catch (IOException e) {
+        failed("Cannot share the Q-tables with " + file + ": " + e.getMessage());
     }
+}
 
-    return findBestAction(qMatrix, state, validActions);
+/**
+* Saves the Q-tables to a file, in the format of shared Q-tables (see {@link #useSharedQTables}).
+* Q-tables of other goals that the file already holds are kept.
+*
+* @param  pathObj the path of the file, created if needed
+**/
+@OPERATION
+public void saveQTables(Object pathObj) {
+    File file = new File(pathObj.toString());
+    try {
+        learning.saveQTables(file);
+    } catch (IOException e) {
+        failed("Cannot save the Q-tables to " + file + ": " + e.getMessage());
+    }
 }
 
-private int findBestAction(double[][] qMatrix, int state, List<Integer> validActions) {
-    int optimalAction = validActions.get(0);
-    double maxQValue = qMatrix[state][optimalAction];
+/**
+* Loads the Q-tables saved to a file by {@link #saveQTables} (e.g. by a {@link QTableTrainer}
+* run) or published by a writer of shared Q-tables. The loaded Q-tables replace the Q-tables
+* of the same goals, and can be used and trained further like calculated Q-tables. The
+* operation fails if the Q-tables were trained in an environment with another fingerprint
+* (see {@link LearningEnvironment#getFingerprint()}), e.g. a lab with other actions.
+*
+* @param  pathObj the path of the file
+* @param  goals the (returned) goals of the loaded Q-tables, e.g. [[2,3], [1,1]]
+**/
+@OPERATION
+public void loadQTables(Object pathObj, OpFeedbackParam<Object[]> goals) {
+    File file = new File(pathObj.toString());
+    try {
+        goals.set(learning.loadQTables(file).toArray());
+    } catch (IllegalStateException e) {
+        failed(e.getMessage());
+    } catch (IOException e) {
+        failed("Cannot load the Q-tables from " + file + ": " + e.getMessage());
+    }
+}
 
-    for (int actionIdx : validActions) {
-        if (qMatrix[state][actionIdx] > maxQValue) {
-            maxQValue = qMatrix[state][actionIdx];
-            optimalAction = actionIdx;
-        }
+/**
+* Starts recording every status read, action invocation and reset of the lab to a
+* compact binary trace file, which can be replayed by initializing a QLearner with
+* the URL "replay:" followed by the path of the file.
+*
+* @param  pathObj the path of the trace file; records are appended to existing traces
+**/
+@OPERATION
+public void startRecording(Object pathObj) {
+    try {
+        learning.getLab().startRecording(new File(pathObj.toString()));
+    } catch (IOException e) {
+        failed("Cannot record the lab to " + pathObj + ": " + e.getMessage());
     }
+}
 
-    return optimalAction;
+/**
+* Stops recording the interactions with the lab.
+**/
+@OPERATION
+public void stopRecording() {
+    learning.getLab().stopRecording();
 }
 
-private double findMaxQValue(double[][] qMatrix, int state, List<Integer> validActions) {
-    if (validActions.isEmpty()) {
-        return 0.0;
+/**
+* Sets the rate limits of the requests to the lab. The limits are shared by all
+* learners of the same lab, and back off automatically when requests fail or
+* their latency rises.
+*
+* @param  readRateObj the rate of status reads in requests per second
+* @param  readBurstObj the maximum number of status reads issued at once
+* @param  actionRateObj the rate of action invocations in requests per second
+* @param  actionBurstObj the maximum number of action invocations issued at once
+**/
+@OPERATION
+public void setRateLimits(Object readRateObj, Object readBurstObj, Object actionRateObj, Object actionBurstObj) {
+    try {
+        learning.getLab().configureRateLimits(Double.parseDouble(readRateObj.toString()), Double.parseDouble(readBurstObj.toString()),
+            Double.parseDouble(actionRateObj.toString()), Double.parseDouble(actionBurstObj.toString()));
+    } catch (IllegalArgumentException e) {
+        failed(e.getMessage());
     }
+}
 
-    double maxValue = Double.NEGATIVE_INFINITY;
-    for (int actionIdx : validActions) {
-        maxValue = Math.max(maxValue, qMatrix[state][actionIdx]);
+/**
+* Sets the deadlines of the requests to the lab and its circuit breaker, which is shared
+* by all learners of the same lab: after a number of consecutive failed or late requests,
+* requests are refused without reaching the lab for a while, and decisions are made on
+* the last known state of the lab or are reported as degraded (see
+* {@link #getActionFromState(Object[], Object[], Object, OpFeedbackParam, OpFeedbackParam, OpFeedbackParam, OpFeedbackParam)}).
+*
+* @param  readDeadlineObj the time in milliseconds a status read is waited for
+* @param  actionDeadlineObj the time in milliseconds an action invocation is waited for
+* @param  failureThresholdObj the number of consecutive failed requests that open the circuit breaker
+* @param  openTimeObj the time in milliseconds the circuit breaker stays open before a trial request
+**/
+@OPERATION
+public void setLabDeadlines(Object readDeadlineObj, Object actionDeadlineObj, Object failureThresholdObj, Object openTimeObj) {
+    try {
+        learning.getLab().configureDeadlines((long) Double.parseDouble(readDeadlineObj.toString()),
+            (long) Double.parseDouble(actionDeadlineObj.toString()),
+            (int) Double.parseDouble(failureThresholdObj.toString()), (long) Double.parseDouble(openTimeObj.toString()));
+    } catch (IllegalArgumentException e) {
+        failed(e.getMessage());
     }
+}
 
-    return maxValue;
+/**
+* Returns the time spent executing {@link #getActionFromState} operations, measured inside the
+* artifact from the moment an operation starts to the moment it ends. CArtAgO executes the
+* operations of an artifact one at a time, so the time an agent waits for a decision beyond
+* this time is the time its operation was queued behind the operations of other agents.
+*
+* @param  decisionTimes the (returned) times as [Decisions, MeanMillis, MaxMillis]
+**/
+@OPERATION
+public void getDecisionTimes(OpFeedbackParam<Object[]> decisionTimes) {
+    decisionTimes.set(new Object[]{decisions, decisions == 0 ? 0.0 : decisionNanos / 1e6 / decisions,
+        maxDecisionNanos / 1e6});
 }
 
-private int generateGoalKey(Object[] goalDescription) {
-    return Arrays.hashCode(goalDescription);
+private void recordDecision(long started) {
+    long duration = System.nanoTime() - started;
+    decisions++;
+    decisionNanos += duration;
+    maxDecisionNanos = Math.max(maxDecisionNanos, duration);
 }
 
-private int parseStateDescription(Object[] stateDescription) {
+/**
+* Enables online learning: every decision returned by {@link #getActionFromState} is
+* remembered, and the state observed at the next decision (or passed to
+* {@link #observeOutcome}) is used to update the Q-table of the goal with a
+* one-step Q-learning update.
+*
+* <p>
+* Online updates are bounded for safety: the change of a single Q value is clipped
+* to [-maxDelta, maxDelta], Q values are kept within +/- goalReward / (1 - gamma), and
+* transitions older than the maximum transition age are dropped.
+* </p>
+* @param  alphaObj the (small) learning rate used for online updates, e.g. 0.05
+* @param  gammaObj the discount factor [0,1)
+* @param  rewardObj the reward assigned when reaching the goal state
+* @param  maxDeltaObj the maximum change applied to a Q value by a single update
+**/
+@OPERATION
+public void enableOnlineLearning(Object alphaObj, Object gammaObj, Object rewardObj, Object maxDeltaObj) {
     try {
-        if (stateDescription.length == 7) {
-            List<Object> stateList = Arrays.asList(stateDescription);
-            List<Integer> compatibleStates = lab.getCompatibleStates(stateList);
-            
-            if (!compatibleStates.isEmpty()) {
-                return compatibleStates.get(0);
-            }
+        double alpha = Double.parseDouble(alphaObj.toString());
+        double gamma = Double.parseDouble(gammaObj.toString());
+        double reward = Double.parseDouble(rewardObj.toString());
+        double maxDelta = Double.parseDouble(maxDeltaObj.toString());
+        for (FleetLab environment : fleet.values()) {
+            environment.learning.enableOnlineLearning(alpha, gamma, reward, maxDelta);
         }
-        
-        return lab.readCurrentState();
-        
-    } catch (Exception e) {
-        LOGGER.warning("Error parsing state description: " + e.getMessage());
-        return lab.readCurrentState();
+        LOGGER.info("Online learning enabled: alpha=" + alpha + ", gamma=" + gamma + ", max delta=" + maxDelta);
+    } catch (IllegalArgumentException | IllegalStateException e) {
+        failed(e.getMessage());
     }
 }
 
-private void setFallbackAction(OpFeedbackParam<String> actionTag, 
-                             OpFeedbackParam<Object[]> payloadTags,
-                             OpFeedbackParam<Object[]> payload) {
-    LOGGER.warning("Using fallback action due to error");
-    actionTag.set("http://example.org/was#SetZ1Light");
-    payloadTags.set(new Object[]{"Z1Light"});
-    payload.set(new Object[]{true});
-}
-
-private void displayQTableSample(double[][] qMatrix, Object[] goalDescription) {
-    LOGGER.info("Q-TABLE TRAINING RESULTS");
-    LOGGER.info("Goal: " + Arrays.toString(goalDescription));
-    
-    int samplesToShow = Math.min(5, qMatrix.length);
-    for (int i = 0; i < samplesToShow; i++) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("State ").append(String.format("%3d", i)).append(": [");
-        for (int j = 0; j < qMatrix[i].length; j++) {
-            sb.append(String.format("%6.2f", qMatrix[i][j]));
-            if (j < qMatrix[i].length - 1) sb.append(", ");
-        }
-        sb.append("]");
-        LOGGER.info(sb.toString());
-    }
-    
-    // Find and display best Q-values
-    double maxQ = Double.NEGATIVE_INFINITY;
-    int bestState = -1, bestAction = -1;
-    int positiveQCount = 0;
-    
-    for (int i = 0; i < qMatrix.length; i++) {
-        for (int j = 0; j < qMatrix[i].length; j++) {
-            if (qMatrix[i][j] > maxQ) {
-                maxQ = qMatrix[i][j];
-                bestState = i;
-                bestAction = j;
-            }
-            if (qMatrix[i][j] > 0) {
-                positiveQCount++;
-            }
-        }
-    }
-    
-    if (bestState >= 0) {
-        Action bestActionObj = lab.getAction(bestAction);
-        String actionName = bestActionObj != null ? bestActionObj.getActionTag() : "Unknown";
-        
-        LOGGER.info("Training Results Summary:");
-        LOGGER.info("  Highest Q-value: " + String.format("%.3f", maxQ));
-        LOGGER.info("  Best state-action: State " + bestState + " -> " + actionName);
-        LOGGER.info("  Positive Q-values: " + positiveQCount + "/" + 
-                   (qMatrix.length * qMatrix[0].length) + " entries");
-        
-        if (maxQ > 50.0) {
-            LOGGER.info("  STATUS: Good convergence achieved!");
-        } else if (maxQ > 10.0) {
-            LOGGER.info("  STATUS: Moderate convergence - consider more episodes");
-        } else {
-            LOGGER.warning("  STATUS: Poor convergence - check reward function and parameters");
-        }
-    }
+/**
+* Disables online learning and drops any pending transitions.
+**/
+@OPERATION
+public void disableOnlineLearning() {
+    fleet.values().forEach(environment -> environment.learning.disableOnlineLearning());
+    LOGGER.info("Online learning disabled");
+}
+
+/**
+* Feeds an observed state back to the Q-table of a goal without asking for a new
+* action, e.g. when the agent observes that the goal has been reached. The pending
+* transition of the goal (if any) is completed with the observed state.
+*
+* @param  goalDescription  the goal of the pending transition (e.g., [2,3])
+* @param  currentStateDescription the observed state e.g. [2,2,true,false,true,true,2]
+**/
+@OPERATION
+public void observeOutcome(Object[] goalDescription, Object[] currentStateDescription) {
+    learning.observeOutcome(goalDescription, currentStateDescription);
 }
 
 @OPERATION
 public void getQTableStatus(Object[] goalDescription, OpFeedbackParam<String> status) {
-    int goalKey = generateGoalKey(goalDescription);
-    
-    if (!qTables.containsKey(goalKey)) {
-        status.set("No Q-table found for goal " + Arrays.toString(goalDescription));
-        return;
-    }
-    
-    double[][] qMatrix = qTables.get(goalKey);
-    
-    double maxQ = Double.NEGATIVE_INFINITY;
-    int positiveCount = 0;
-    
-    for (int i = 0; i < qMatrix.length; i++) {
-        for (int j = 0; j < qMatrix[i].length; j++) {
-            maxQ = Math.max(maxQ, qMatrix[i][j]);
-            if (qMatrix[i][j] > 0) positiveCount++;
-        }
-    }
-    
-    String statusMsg = String.format("Goal %s: Max Q=%.3f, Positive entries=%d, Ready for real lab: %s",
-        Arrays.toString(goalDescription), maxQ, positiveCount, 
-        maxQ > 10.0 ? "YES" : "RECOMMEND MORE TRAINING");
-    
+    String statusMsg = learning.getQTableStatus(goalDescription);
     status.set(statusMsg);
     LOGGER.info("Q-Table Status: " + statusMsg);
 }
-}
\ No newline at end of file
+}
@@ -0,0 +1,1401 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+* The Q-learning of a lab: the training of the Q-tables of goals, and the decisions,
+* plans and policies taken from them.
+*
+* <p> This is the logic of the {@link QLearner} artifact without CArtAgO, so that tools
+* running outside the JaCaMo platform (e.g. {@link PolicyBenchmark}, {@link QTableTrainer})
+* train and decide exactly as the artifact does. Invalid requests are reported with an
+* {@link IllegalArgumentException}, requests that cannot be served in the current state
+* (e.g. training by a reader of shared Q-tables) with an {@link IllegalStateException},
+* and failed file operations with an {@link IOException}; the artifact reports them as
+* failed operations.
+* </p>
+* <p> The Q-tables live in a {@link Model}, which several instances share when their labs
+* have the same environment fingerprint (see {@link LearningEnvironment#getFingerprint()}).
+* Like the operations of an artifact, the methods of an instance are not meant to be
+* called concurrently.
+* </p>
+*/
+public class QLearning {
+
+  public static final int GOAL_LEVELS = 4; // the light levels a goal can require in each zone
+
+  private static final int MAX_EPISODE_STEPS = 50; // the maximum number of steps of a training episode
+  // the maximum age in milliseconds of a last known state of the lab a decision is made on, unless given
+  public static final long DEFAULT_MAX_STATE_AGE = 10000;
+
+  private static final Logger LOGGER = Logger.getLogger(QLearning.class.getName());
+
+  private final Lab lab; // the lab environment that is learnt
+  private final Model model; // the Q-tables of the lab, shared with the labs of the same fingerprint
+  private final int stateCount;
+  private final int actionCount;
+  private final int[][] applicableActionTable;
+  private final Random random; // the random numbers of exploration, start states and visit count ties
+  private SharedQTables sharedQTables; // the Q-tables shared with other processes, or null
+
+  private boolean onlineLearningEnabled = false; // whether control decisions are fed back into the Q-tables
+  private double onlineAlpha; // the (small) learning rate used for online updates
+  private double onlineGamma; // the discount factor used for online updates
+  private double onlineGoalReward; // the reward assigned when an online transition reaches the goal
+  private double onlineMaxDelta; // the maximum change applied to a Q value by a single online update
+  private long onlineMaxTransitionAgeMs = 60000; // transitions older than this are considered stale and dropped
+  private final Map<Integer, PendingTransition> pendingTransitions = new HashMap<>(); // the last decision per goal
+
+  /**
+  * The Q-tables (and the transition model) shared by the labs of an environment fingerprint
+  */
+  static class Model {
+    final int stateCount;
+    final int actionCount;
+    final int[][] applicableActionTable; // the applicable actions of every state of the lab
+    final TransitionModel transitionModel; // the transitions observed in the lab, for planning
+    QTensor qTensor; // the Q matrices of the goals, by dense goal id (see getGoalKey)
+    final Map<Integer, String> goalDescriptions = new HashMap<>(); // the descriptions of the goals, for logging
+    final Map<Integer, int[]> trainedGoalLevels = new HashMap<>(); // the [z1Level, z2Level] of every trained goal
+    final List<Integer> coldStartEpisodes = new ArrayList<>(); // the episodes run by training runs without warm start
+
+    Model(Lab lab) {
+      this.stateCount = lab.getStateCount();
+      this.actionCount = lab.getActionCount();
+      this.applicableActionTable = createApplicableActionTable(lab);
+      this.transitionModel = new TransitionModel(stateCount, actionCount);
+      this.qTensor = new QTensor(GOAL_LEVELS * GOAL_LEVELS, stateCount, actionCount);
+    }
+  }
+
+  /**
+  * A decision of the next best action, and the status of the decision
+  */
+  public static class Decision {
+    public final String status; // "ok", "last_known_state" or "degraded"
+    public final String reason; // why no action could be decided, or ""
+    public final long stateAge; // the age in milliseconds of the state of the lab the decision was made on
+    public final Action action; // the decided action, or null
+
+    Decision(String status, String reason, long stateAge, Action action) {
+      this.status = status;
+      this.reason = reason;
+      this.stateAge = stateAge;
+      this.action = action;
+    }
+
+    static Decision degraded(String reason, long stateAge) {
+      return new Decision("degraded", reason, stateAge, null);
+    }
+  }
+
+  /**
+  * A greedy action sequence to a goal
+  */
+  public static class Plan {
+    public final List<Object[]> steps; // [ActionTag, PayloadTags, Payload, ExpectedState] steps
+    public final boolean reachesGoal; // whether the expected state of the last step is at the goal
+
+    Plan(List<Object[]> steps, boolean reachesGoal) {
+      this.steps = steps;
+      this.reachesGoal = reachesGoal;
+    }
+  }
+
+  private static class PendingTransition {
+    int stateIndex;
+    int actionIndex;
+    long timestamp;
+
+    PendingTransition(int state, int action, long timestamp) {
+      this.stateIndex = state;
+      this.actionIndex = action;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private static class StateActionPair {
+    int stateIndex;
+    int actionIndex;
+    double qValue;
+
+    StateActionPair(int state, int action, double q) {
+      this.stateIndex = state;
+      this.actionIndex = action;
+      this.qValue = q;
+    }
+  }
+
+  /**
+  * Creates the Q-learning of a lab, with Q-tables of its own
+  */
+  public QLearning(Lab lab) {
+    this(lab, new Model(lab), new Random());
+  }
+
+  /**
+  * Creates the Q-learning of a lab, with Q-tables of its own and a seeded exploration,
+  * so that training runs can be repeated
+  */
+  public QLearning(Lab lab, long seed) {
+    this(lab, new Model(lab), new Random(seed));
+  }
+
+  /**
+  * Creates the Q-learning of a lab, with the Q-tables of a model of its fingerprint
+  */
+  QLearning(Lab lab, Model model) {
+    this(lab, model, new Random());
+  }
+
+  private QLearning(Lab lab, Model model, Random random) {
+    this.lab = lab;
+    this.model = model;
+    this.stateCount = model.stateCount;
+    this.actionCount = model.actionCount;
+    this.applicableActionTable = model.applicableActionTable;
+    this.random = random;
+  }
+
+  /**
+  * Creates a lab from the URL of its Thing Description, of a local stand-in of the lab
+  * (e.g. "local:simulator") or of a trace of a lab to be replayed (e.g. "replay:traces/lab.trace")
+  */
+  public static Lab createLab(String environmentURL) {
+    return createLab(environmentURL, System.nanoTime());
+  }
+
+  /**
+  * Creates a lab like {@link #createLab(String)}, seeding the sunshine of a local stand-in of the lab
+  */
+  public static Lab createLab(String environmentURL, long seed) {
+    if (environmentURL.startsWith(SimulatedLab.URL_PREFIX)) {
+      return new SimulatedLab(seed);
+    } else if (environmentURL.startsWith(ReplayLab.URL_PREFIX)) {
+      return new ReplayLab(new File(environmentURL.substring(ReplayLab.URL_PREFIX.length())));
+    }
+    return new Lab(environmentURL);
+  }
+
+  public Lab getLab() {
+    return this.lab;
+  }
+
+  Model getModel() {
+    return this.model;
+  }
+
+  public int getStateCount() {
+    return this.stateCount;
+  }
+
+  public int getActionCount() {
+    return this.actionCount;
+  }
+
+  /**
+  * Returns whether the lab has a Q-table for a goal
+  */
+  public boolean hasQTable(Object[] goalDescription) {
+    int goalKey = getGoalKey(goalDescription);
+    if (isSharedReader()) {
+      sharedQTables.refresh();
+    }
+    return goalKey >= 0 && model.qTensor.has(goalKey);
+  }
+
+  /**
+  * Returns whether no Q-table has been calculated or loaded
+  */
+  public boolean isEmpty() {
+    return model.qTensor.isEmpty();
+  }
+
+  /**
+  * Calculates the Q-table of a goal. The training options are described by
+  * {@link QLearner#calculateQ(Object[], Object, Object, Object, Object, Object, Object[], cartago.OpFeedbackParam)}.
+  *
+  * @param goalDescription the goal, e.g. [2,3]
+  * @param totalEpisodes the number of episodes
+  * @param learningRate the learning rate [0,1]
+  * @param discountFactor the discount factor [0,1]
+  * @param explorationRate the exploration probability [0,1]
+  * @param goalReward the reward assigned when reaching the goal state
+  * @param optionPairs the training options as [Name, Value] pairs
+  * @return the summary of the training run, by name
+  * @throws IllegalArgumentException if the goal or an option is invalid
+  * @throws IllegalStateException if the Q-tables are read from shared Q-tables
+  * @throws IOException if the run cannot resume from its checkpoint, or the lab fails for longer than its timeout
+  */
+  public Map<String, Object> train(Object[] goalDescription, int totalEpisodes, double learningRate,
+      double discountFactor, double explorationRate, double goalReward, Object[] optionPairs) throws IOException {
+    int goal = requireGoalKey(goalDescription);
+    if (isSharedReader()) {
+      throw new IllegalStateException("Q-tables cannot be calculated by a reader of shared Q-tables");
+    }
+
+    // options are checked before the run starts, so that a malformed option never fails a run halfway
+    TrainingOptions options = new TrainingOptions(optionPairs);
+    options.requireNumbers("convergence_window", "q_tolerance", "policy_tolerance", "min_episodes", "lambda",
+      "trace_threshold", "planning_steps", "priority_threshold", "warm_start_scale", "checkpoint_interval",
+      "ucb_scale", "lab_timeout");
+    options.requireBooleans("resume");
+    options.requireChoice("warm_start", "none", "nearest", "blend");
+    options.requireChoice("start_states", "random", "stratified");
+    options.requireChoice("exploration", "epsilon_greedy", "ucb");
+
+    TrainingCheckpoint checkpoint = null;
+    if (options.has("checkpoint") && options.getBoolean("resume", false)) {
+      File checkpointFile = new File(options.getString("checkpoint", null));
+      if (checkpointFile.exists()) {
+        try {
+          checkpoint = TrainingCheckpoint.read(checkpointFile);
+        } catch (IOException e) {
+          throw new IOException("Cannot resume from " + checkpointFile + ": " + e.getMessage(), e);
+        }
+        if (checkpoint.goal != goal || checkpoint.stateCount != stateCount || checkpoint.actionCount != actionCount) {
+          throw new IOException("The checkpoint " + checkpointFile + " was taken for another goal or lab");
+        }
+      } else {
+        LOGGER.info("No checkpoint found at " + checkpointFile + ", training from scratch");
+      }
+    }
+
+    return train(goal, goalDescription, totalEpisodes, learningRate, discountFactor, explorationRate, goalReward,
+      options, checkpoint);
+  }
+
+  private Map<String, Object> train(int goal, Object[] goalDescription, int totalEpisodes, double learningRate,
+      double discountFactor, double explorationRate, double goalReward, TrainingOptions options,
+      TrainingCheckpoint checkpoint) throws IOException {
+    QTensor qTensor = model.qTensor;
+
+    LOGGER.info("Starting Q-Learning training with " + totalEpisodes + " episodes");
+    LOGGER.info("Learning parameters: α=" + learningRate + ", γ=" + discountFactor + ", ε=" + explorationRate);
+
+    model.goalDescriptions.put(goal, Arrays.toString(goalDescription));
+
+    int targetZ1 = goal / GOAL_LEVELS;
+    int targetZ2 = goal % GOAL_LEVELS;
+
+    LOGGER.info("Target goal: Z1=" + targetZ1 + ", Z2=" + targetZ2);
+
+    String warmStart = options.getString("warm_start", "none");
+    List<String> warmStartSources = new ArrayList<>();
+    if (checkpoint != null) {
+      qTensor.setSlice(goal, checkpoint.qValues);
+    } else {
+      initializeQTable(goal, targetZ1, targetZ2, warmStart, options.getDouble("warm_start_scale", 1.0), warmStartSources);
+    }
+
+    // Convergence is detected from the change of Q values and of the greedy policy
+    ConvergenceTracker convergence = new ConvergenceTracker(stateCount,
+      options.getInt("convergence_window", 20),
+      options.getDouble("q_tolerance", 0.01 * Math.abs(goalReward)),
+      options.getInt("policy_tolerance", 0));
+    int minEpisodes = options.getInt("min_episodes", totalEpisodes / 4);
+    boolean converged = false;
+
+    // Q(lambda) propagates the reward back along the visited state-action pairs of an episode
+    double lambda = options.getDouble("lambda", 0.0);
+    EligibilityTraces traces = lambda > 0
+      ? new EligibilityTraces(stateCount, actionCount, discountFactor, lambda, options.getDouble("trace_threshold", 0.01))
+      : null;
+    // prioritized sweeping spends additional backups on the observed transitions with the largest Bellman errors
+    int planningSteps = options.getInt("planning_steps", 0);
+    PrioritizedSweeper sweeper = planningSteps > 0
+      ? new PrioritizedSweeper(stateCount, actionCount, applicableActionTable, goalStates(goal), discountFactor,
+        options.getDouble("priority_threshold", 0.01))
+      : null;
+
+    // stratified start states spread the episodes over the least visited states the lab can be reset to
+    StartStateScheduler startStates = "stratified".equals(options.getString("start_states", "random"))
+      ? new StartStateScheduler(lab.getResetStates(), stateCount, random)
+      : null;
+    int resets = 0;
+
+    // visits of the state-action pairs are counted in every run; count-based exploration also selects actions by them
+    boolean ucb = "ucb".equals(options.getString("exploration", "epsilon_greedy"));
+    VisitCounts visitCounts = new VisitCounts(stateCount, actionCount,
+      options.getDouble("ucb_scale", 0.1 * Math.abs(goalReward)), random);
+
+    // training events are recorded asynchronously, so that telemetry does not slow down training
+    TrainingTelemetry telemetry = TrainingTelemetry.getInstance();
+    boolean episodeTelemetry = telemetry.isEpisodeEnabled();
+    boolean stepTelemetry = telemetry.isStepEnabled();
+    long run = episodeTelemetry ? telemetry.newRun() : 0;
+    String goalName = targetZ1 + "-" + targetZ2;
+
+    QUpdateListener updateListener = (state, delta) ->
+      convergence.recordUpdate(state, delta, qTensor.argmax(goal, state, applicableActionTable[state]));
+
+    int successfulEpisodes = 0;
+    int firstEpisode = 0;
+
+    // checkpoints are taken between episodes, when eligibility traces are empty
+    File checkpointFile = options.has("checkpoint") ? new File(options.getString("checkpoint", null)) : null;
+    int checkpointInterval = Math.max(1, options.getInt("checkpoint_interval", 10));
+
+    // the episodes interrupted by a failing lab are repeated, until the lab fails for longer than the timeout
+    long labTimeout = options.getInt("lab_timeout", 60000);
+    long labFailingSince = 0;
+
+    if (checkpoint != null) {
+      try {
+        convergence.restoreState(checkpoint.convergenceState);
+        if (startStates != null && checkpoint.startStateState != null) {
+          startStates.restoreState(checkpoint.startStateState);
+        }
+        if (checkpoint.visitState != null) {
+          visitCounts.restoreState(checkpoint.visitState);
+        }
+        if (sweeper != null) {
+          if (checkpoint.sweeperState != null) {
+            sweeper.restoreState(checkpoint.sweeperState);
+          } else {
+            LOGGER.warning("The checkpoint has no planning model, planning restarts from the transitions observed from now on");
+          }
+        }
+        if (checkpoint.transitionState != null) {
+          model.transitionModel.restoreState(checkpoint.transitionState);
+        }
+      } catch (IOException e) {
+        throw new IOException("Cannot resume from the checkpoint: " + e.getMessage(), e);
+      }
+      firstEpisode = checkpoint.nextEpisode;
+      successfulEpisodes = checkpoint.successfulEpisodes;
+      resets = checkpoint.resets;
+      if (checkpoint.alpha != learningRate || checkpoint.gamma != discountFactor
+        || checkpoint.epsilon != explorationRate || checkpoint.reward != goalReward) {
+        LOGGER.warning("Resuming a checkpoint taken with other learning parameters");
+      }
+      LOGGER.info("Resuming training from episode " + firstEpisode);
+    }
+
+    for (int episodeNum = firstEpisode; episodeNum < totalEpisodes; episodeNum++) {
+      if (startStates != null && !startStates.isEmpty() && lab.resetState(startStates.next())) {
+        resets++;
+      } else {
+        initializeRandomState();
+      }
+      int currentStateIdx = lab.readCurrentState();
+      if (traces != null) {
+        traces.reset();
+      }
+
+      boolean goalReached = false;
+      boolean labFailed = false;
+      double episodeReward = 0.0;
+      int episodeSteps = 0;
+      long actionNanos = 0;
+      long readNanos = 0;
+      // Decay exploration rate over time for better convergence
+      double currentEpsilon = explorationRate * Math.pow(0.995, episodeNum);
+
+      int selectedAction = selectTrainingAction(goal, currentStateIdx, currentEpsilon, ucb, visitCounts);
+
+      for (int stepCount = 0; stepCount < MAX_EPISODE_STEPS; stepCount++) {
+        int[] validActions = applicableActionTable[currentStateIdx];
+
+        if (selectedAction < 0) {
+          LOGGER.fine("No valid actions available at state " + currentStateIdx);
+          break;
+        }
+
+        long actionStart = System.nanoTime();
+        lab.performAction(selectedAction);
+        long readStart = System.nanoTime();
+        int nextStateIdx = lab.readCurrentState();
+        long readEnd = System.nanoTime();
+        // a step whose action or status read failed observed no transition, so nothing is learnt from it
+        if (lab.isActionFailed() || lab.isDegraded()) {
+          labFailed = true;
+          break;
+        }
+        actionNanos += readStart - actionStart;
+        readNanos += readEnd - readStart;
+        episodeSteps++;
+
+        // the goal and the reward are those of the state read after the action, the one bootstrapped from
+        goalReached = isGoalLevel(goal, nextStateIdx);
+        double stepReward = computeRewardValue(goalDescription, lab.getStateVector(nextStateIdx),
+          lab.getStateVector(currentStateIdx), goalReward);
+        episodeReward += stepReward;
+
+        if (stepTelemetry) {
+          telemetry.step(run, goalName, episodeNum, stepCount, currentStateIdx, selectedAction, stepReward,
+            currentEpsilon, goalReached, readStart - actionStart, readEnd - readStart);
+        }
+
+        // the goal is terminal, as for online updates, so no future value is bootstrapped from it
+        double maxFutureQ = goalReached ? 0.0 : qTensor.max(goal, nextStateIdx, applicableActionTable[nextStateIdx]);
+        double currentQValue = qTensor.get(goal, currentStateIdx, selectedAction);
+
+        // the next action is selected before the update, since Watkins's Q(lambda) cuts the traces
+        // when the action the exploration actually takes next is not greedy
+        int nextAction = !goalReached && stepCount + 1 < MAX_EPISODE_STEPS
+          ? selectTrainingAction(goal, nextStateIdx, currentEpsilon, ucb, visitCounts)
+          : -1;
+
+        if (traces != null) {
+          boolean nextGreedy = nextAction < 0 || qTensor.get(goal, nextStateIdx, nextAction) >= maxFutureQ;
+          traces.visit(currentStateIdx, selectedAction);
+          traces.update(qTensor, goal, learningRate, stepReward + discountFactor * maxFutureQ - currentQValue,
+            nextGreedy, updateListener);
+        } else {
+          double updatedQValue = currentQValue + learningRate * (stepReward + discountFactor * maxFutureQ - currentQValue);
+          qTensor.set(goal, currentStateIdx, selectedAction, updatedQValue);
+          convergence.recordUpdate(currentStateIdx, updatedQValue - currentQValue,
+            qTensor.argmax(goal, currentStateIdx, validActions));
+        }
+
+        if (sweeper != null) {
+          sweeper.observe(qTensor, goal, currentStateIdx, selectedAction, stepReward, nextStateIdx);
+          sweeper.sweep(qTensor, goal, planningSteps, updateListener);
+        }
+
+        model.transitionModel.observe(currentStateIdx, selectedAction, nextStateIdx);
+        currentStateIdx = nextStateIdx;
+        selectedAction = nextAction;
+        if (startStates != null) {
+          startStates.recordVisit(currentStateIdx);
+        }
+
+        if (goalReached) {
+          successfulEpisodes++;
+          break;
+        }
+      }
+
+      if (labFailed) {
+        labFailingSince = awaitLab(labFailingSince, labTimeout, episodeNum);
+        episodeNum--;
+        continue;
+      }
+      labFailingSince = 0;
+
+      if (episodeTelemetry) {
+        telemetry.episode(run, goalName, episodeNum, episodeSteps, currentStateIdx, episodeReward,
+          currentEpsilon, goalReached, actionNanos, readNanos);
+      }
+
+      if (convergence.endEpisode() && episodeNum + 1 >= minEpisodes) {
+        converged = true;
+        LOGGER.info("Convergence detected after " + (episodeNum + 1) + " episodes");
+        LOGGER.info("Max Q change within window: " + convergence.getWindowMaxDelta() +
+          ", greedy policy changes within window: " + convergence.getWindowPolicyChanges());
+        break;
+      }
+
+      if (checkpointFile != null && (episodeNum + 1) % checkpointInterval == 0 && episodeNum + 1 < totalEpisodes) {
+        try {
+          new TrainingCheckpoint(goal, stateCount, actionCount, learningRate, discountFactor, explorationRate,
+            goalReward, episodeNum + 1, successfulEpisodes, resets, qTensor.copySlice(goal),
+            convergence.saveState(), startStates != null ? startStates.saveState() : null,
+            visitCounts.saveState(), sweeper != null ? sweeper.saveState() : null,
+            model.transitionModel.saveState()).write(checkpointFile);
+        } catch (IOException e) {
+          LOGGER.warning("Cannot write the checkpoint " + checkpointFile + ": " + e.getMessage());
+        }
+      }
+    }
+
+    if (checkpointFile != null && checkpointFile.delete()) {
+      LOGGER.fine("Deleted the checkpoint " + checkpointFile);
+    }
+
+    model.trainedGoalLevels.put(goal, new int[]{targetZ1, targetZ2});
+    if (sharedQTables != null) {
+      sharedQTables.publish(goal, qTensor);
+    }
+
+    int episodesRun = convergence.getEpisodes();
+    double finalSuccessRate = episodesRun > 0 ? (double) successfulEpisodes / episodesRun * 100 : 0;
+    LOGGER.info("Goal " + Arrays.toString(goalDescription) + ": " + successfulEpisodes + "/" + episodesRun
+      + " successful episodes");
+
+    if (LOGGER.isLoggable(Level.FINE)) {
+      displayQTableSample(goal, goalDescription);
+      logBestPolicy(goal, goalDescription);
+    }
+
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("episodes", episodesRun);
+    summary.put("warm_start_sources", warmStartSources.toArray());
+    summary.put("episodes_saved", estimateEpisodesSaved(warmStartSources, converged, episodesRun, totalEpisodes));
+    summary.put("converged", converged);
+    summary.put("successful_episodes", successfulEpisodes);
+    summary.put("success_rate", finalSuccessRate / 100);
+    summary.put("max_q_change", convergence.getWindowMaxDelta());
+    summary.put("policy_changes", convergence.getWindowPolicyChanges());
+    summary.put("start_state_resets", resets);
+    summary.put("planning_backups", sweeper != null ? sweeper.getBackups() : 0L);
+    summary.put("visited_pairs", visitCounts.getVisitedPairs());
+    return summary;
+  }
+
+  /**
+  * Decides the next best action of a goal, on a state description or, if the description
+  * is not valid, on the last known state of the lab
+  *
+  * @param goalDescription the goal, e.g. [2,3]
+  * @param currentStateDescription the current state e.g. [2,2,true,false,true,true,2]
+  * @param maxStateAge the maximum age in milliseconds of a last known state of the lab
+  * @return the decision, whose action is null if its status is "degraded"
+  * @throws IllegalArgumentException if the goal is invalid
+  */
+  public Decision decide(Object[] goalDescription, Object[] currentStateDescription, long maxStateAge) {
+    int goalKey = requireGoalKey(goalDescription);
+    QTensor qTensor = model.qTensor;
+
+    if (isSharedReader()) {
+      sharedQTables.refresh();
+    }
+
+    if (!qTensor.has(goalKey)) {
+      LOGGER.severe("Q-table not found for goal: " + Arrays.toString(goalDescription));
+      LOGGER.severe("Available goals: " + model.goalDescriptions.keySet());
+      return Decision.degraded("no_q_table", 0);
+    }
+
+    String status = "ok";
+    long stateAge = 0;
+    int currentStateIdx = parseObservedState(currentStateDescription);
+
+    if (currentStateIdx < 0) {
+      // the state of the lab is only read when the agent could not describe it, within the deadline of the lab
+      int labState = lab.readCurrentState();
+      stateAge = lab.getStateAge();
+      if (lab.isDegraded() || stateAge > maxStateAge || labState < 0) {
+        LOGGER.warning("Invalid state description " + Arrays.toString(currentStateDescription)
+          + ", and no recent state of the lab (" + (stateAge == Long.MAX_VALUE ? "never read" : stateAge + "ms old") + ")");
+        return Decision.degraded("state_unavailable", stateAge);
+      }
+      currentStateIdx = labState;
+      status = "last_known_state";
+    }
+
+    int[] applicableActions = applicableActionTable[currentStateIdx];
+
+    if (applicableActions.length == 0) {
+      LOGGER.warning("No applicable actions for current state " + currentStateIdx);
+      return Decision.degraded("no_applicable_action", stateAge);
+    }
+
+    if (onlineLearningEnabled) {
+      applyOnlineUpdate(goalKey, goalDescription, currentStateIdx, currentStateDescription);
+    }
+
+    int stateIdx = currentStateIdx;
+    int bestActionIdx;
+    try {
+      bestActionIdx = isSharedReader()
+        ? sharedQTables.read(() -> qTensor.argmax(goalKey, stateIdx, applicableActions))
+        : qTensor.argmax(goalKey, currentStateIdx, applicableActions);
+    } catch (IllegalStateException e) {
+      LOGGER.warning(e.getMessage());
+      return Decision.degraded("q_table_unavailable", stateAge);
+    }
+    Action bestAction = lab.getAction(bestActionIdx);
+
+    if (bestAction == null) {
+      LOGGER.severe("Action object not found for index: " + bestActionIdx);
+      return Decision.degraded("no_applicable_action", stateAge);
+    }
+
+    if (onlineLearningEnabled) {
+      pendingTransitions.put(goalKey, new PendingTransition(currentStateIdx, bestActionIdx, System.currentTimeMillis()));
+    }
+
+    if (LOGGER.isLoggable(Level.FINE)) {
+      LOGGER.fine("Goal " + Arrays.toString(goalDescription) + ", state " + Arrays.toString(currentStateDescription)
+        + " (" + currentStateIdx + ", " + status + "): " + bestAction.getActionTag() + " "
+        + Arrays.toString(bestAction.getPayload()) + " with Q=" + qTensor.get(goalKey, currentStateIdx, bestActionIdx));
+      for (int actionIdx : applicableActions) {
+        if (actionIdx != bestActionIdx && lab.getAction(actionIdx) != null) {
+          LOGGER.fine("  alternative " + lab.getAction(actionIdx).getActionTag() + " "
+            + Arrays.toString(lab.getAction(actionIdx).getPayload()) + " with Q=" + qTensor.get(goalKey, currentStateIdx, actionIdx));
+        }
+      }
+    }
+
+    return new Decision(status, "", stateAge, bestAction);
+  }
+
+  /**
+  * Returns the greedy policy of a goal, for the states that are not already at the goal
+  * and whose Q values have been learned
+  *
+  * @return the policy as [State, ActionTag, PayloadTags, Payload] entries
+  * @throws IllegalArgumentException if the goal is invalid or has no Q-table
+  * @throws IllegalStateException if the shared Q-tables are published for longer than they are waited for
+  */
+  public List<Object[]> exportPolicy(Object[] goalDescription) {
+    int goalKey = requireQTable(goalDescription);
+    QTensor qTensor = model.qTensor;
+
+    List<Object[]> entries = new ArrayList<>();
+    for (int state = 0; state < stateCount; state++) {
+      int[] applicableActions = applicableActionTable[state];
+      if (applicableActions.length == 0 || isGoalLevel(goalKey, state)) {
+        continue;
+      }
+
+      int currentState = state;
+      int bestActionIdx = isSharedReader()
+        ? sharedQTables.read(() -> learnedArgmax(qTensor, goalKey, currentState, applicableActions))
+        : learnedArgmax(qTensor, goalKey, state, applicableActions);
+      if (bestActionIdx < 0 || lab.getAction(bestActionIdx) == null) {
+        continue;
+      }
+
+      Action action = lab.getAction(bestActionIdx);
+      entries.add(new Object[]{describeState(state), action.getActionTag(), describePayloadTags(action), action.getPayload()});
+    }
+
+    LOGGER.info("Exported the policy of goal " + Arrays.toString(goalDescription) + " for " + entries.size() + " states");
+    return entries;
+  }
+
+  /**
+  * Rolls out the greedy policy of a goal over the model of the observed transitions,
+  * until the goal is reached, after the maximum number of steps, when the model has not
+  * observed the greedy action in the predicted state, or when the predicted states would loop
+  *
+  * @throws IllegalArgumentException if the goal is invalid or has no Q-table, or if the
+  * state description is invalid
+  * @throws IllegalStateException if the shared Q-tables are published for longer than they are waited for
+  */
+  public Plan plan(Object[] goalDescription, Object[] currentStateDescription, int maxSteps) {
+    int goalKey = requireQTable(goalDescription);
+    QTensor qTensor = model.qTensor;
+    TransitionModel transitionModel = model.transitionModel;
+
+    int state = parseStateDescription(currentStateDescription);
+    if (state < 0) {
+      throw new IllegalArgumentException("Invalid state description: " + Arrays.toString(currentStateDescription));
+    }
+
+    List<Object[]> steps = new ArrayList<>();
+    Set<Integer> visited = new HashSet<>();
+    visited.add(state);
+    boolean atGoal = isGoalLevel(goalKey, state);
+    double probability = 1.0;
+
+    while (!atGoal && steps.size() < maxSteps && applicableActionTable[state].length > 0) {
+      int currentState = state;
+      int action = isSharedReader()
+        ? sharedQTables.read(() -> qTensor.argmax(goalKey, currentState, applicableActionTable[currentState]))
+        : qTensor.argmax(goalKey, state, applicableActionTable[state]);
+      int nextState = transitionModel.predict(state, action);
+      if (nextState < 0 || !visited.add(nextState) || lab.getAction(action) == null) {
+        break;
+      }
+
+      Action a = lab.getAction(action);
+      steps.add(new Object[]{a.getActionTag(), describePayloadTags(a), a.getPayload(), describeState(nextState)});
+      probability *= transitionModel.getProbability(state, action, nextState);
+      state = nextState;
+      atGoal = isGoalLevel(goalKey, state);
+    }
+
+    LOGGER.fine("Plan for goal " + Arrays.toString(goalDescription) + " from " + Arrays.toString(currentStateDescription)
+      + ": " + steps.size() + " steps, reaches goal: " + atGoal + ", probability " + probability);
+    return new Plan(steps, atGoal);
+  }
+
+  /**
+  * Returns a summary of the Q-table of a goal
+  */
+  public String getQTableStatus(Object[] goalDescription) {
+    if (!hasQTable(goalDescription)) {
+      return "No Q-table found for goal " + Arrays.toString(goalDescription);
+    }
+    int goalKey = getGoalKey(goalDescription);
+    QTensor qTensor = model.qTensor;
+
+    double maxQ = Double.NEGATIVE_INFINITY;
+    int positiveCount = 0;
+
+    for (int i = 0; i < stateCount; i++) {
+      for (int j = 0; j < actionCount; j++) {
+        maxQ = Math.max(maxQ, qTensor.get(goalKey, i, j));
+        if (qTensor.get(goalKey, i, j) > 0) positiveCount++;
+      }
+    }
+
+    return String.format("Goal %s: Max Q=%.3f, Positive entries=%d, Ready for real lab: %s",
+      Arrays.toString(goalDescription), maxQ, positiveCount,
+      maxQ > 10.0 ? "YES" : "RECOMMEND MORE TRAINING");
+  }
+
+  /**
+  * Enables online learning: every decision is remembered, and the state observed at the
+  * next decision (or passed to {@link #observeOutcome}) updates the Q-table of the goal
+  * with a bounded one-step Q-learning update
+  *
+  * @throws IllegalArgumentException if a parameter is out of range
+  * @throws IllegalStateException if the Q-tables are read from shared Q-tables
+  */
+  public void enableOnlineLearning(double alpha, double gamma, double goalReward, double maxDelta) {
+    if (isSharedReader()) {
+      throw new IllegalStateException("Online learning is not available to a reader of shared Q-tables");
+    }
+    if (alpha < 0 || alpha > 1 || gamma < 0 || gamma >= 1 || maxDelta <= 0) {
+      throw new IllegalArgumentException("Invalid online learning parameters: alpha=" + alpha + ", gamma=" + gamma
+        + ", maxDelta=" + maxDelta);
+    }
+
+    this.onlineAlpha = alpha;
+    this.onlineGamma = gamma;
+    this.onlineGoalReward = goalReward;
+    this.onlineMaxDelta = maxDelta;
+    this.pendingTransitions.clear();
+    this.onlineLearningEnabled = true;
+  }
+
+  /**
+  * Disables online learning and drops any pending transitions
+  */
+  public void disableOnlineLearning() {
+    this.onlineLearningEnabled = false;
+    this.pendingTransitions.clear();
+  }
+
+  /**
+  * Applies the online learning settings of another instance, e.g. of another lab of a fleet
+  */
+  void copyOnlineLearning(QLearning other) {
+    this.onlineAlpha = other.onlineAlpha;
+    this.onlineGamma = other.onlineGamma;
+    this.onlineGoalReward = other.onlineGoalReward;
+    this.onlineMaxDelta = other.onlineMaxDelta;
+    this.pendingTransitions.clear();
+    this.onlineLearningEnabled = other.onlineLearningEnabled;
+  }
+
+  /**
+  * Feeds an observed state back to the Q-table of a goal, completing the pending
+  * transition of the goal (if any), if online learning is enabled
+  */
+  public void observeOutcome(Object[] goalDescription, Object[] currentStateDescription) {
+    int goalKey = getGoalKey(goalDescription);
+
+    if (!onlineLearningEnabled || goalKey < 0 || !model.qTensor.has(goalKey)) {
+      return;
+    }
+
+    int currentStateIdx = parseStateDescription(currentStateDescription);
+    if (currentStateIdx >= 0) {
+      applyOnlineUpdate(goalKey, goalDescription, currentStateIdx, currentStateDescription);
+    }
+  }
+
+  /**
+  * Completes the pending transition of a goal with the observed next state, and applies
+  * a bounded one-step Q-learning update to the Q-table of the goal.
+  */
+  private void applyOnlineUpdate(int goalKey, Object[] goalDescription, int nextStateIdx, Object[] nextStateDescription) {
+    PendingTransition transition = pendingTransitions.remove(goalKey);
+    QTensor qTensor = model.qTensor;
+
+    if (transition == null) {
+      return;
+    }
+
+    if (System.currentTimeMillis() - transition.timestamp > onlineMaxTransitionAgeMs) {
+      LOGGER.fine("Dropping stale online transition from state " + transition.stateIndex);
+      return;
+    }
+
+    List<Integer> stateVector = lab.getStateVector(nextStateIdx);
+    double reward = computeRewardValue(goalDescription, stateVector, lab.getStateVector(transition.stateIndex),
+      onlineGoalReward);
+    boolean goalReached = isGoalLevel(goalKey, nextStateIdx);
+
+    // the goal is terminal for the control loop, so no future value is bootstrapped from it
+    model.transitionModel.observe(transition.stateIndex, transition.actionIndex, nextStateIdx);
+    double maxFutureQ = goalReached ? 0.0 : qTensor.max(goalKey, nextStateIdx, applicableActionTable[nextStateIdx]);
+    double currentQValue = qTensor.get(goalKey, transition.stateIndex, transition.actionIndex);
+    double delta = onlineAlpha * (reward + onlineGamma * maxFutureQ - currentQValue);
+    delta = Math.max(-onlineMaxDelta, Math.min(onlineMaxDelta, delta));
+
+    double qBound = Math.abs(onlineGoalReward) / (1 - onlineGamma);
+    qTensor.set(goalKey, transition.stateIndex, transition.actionIndex, Math.max(-qBound, Math.min(qBound, currentQValue + delta)));
+
+    LOGGER.fine("Online update for goal " + Arrays.toString(goalDescription) + ": Q(" + transition.stateIndex + ","
+      + transition.actionIndex + ") " + currentQValue + " -> " + qTensor.get(goalKey, transition.stateIndex, transition.actionIndex));
+  }
+
+  /**
+  * Shares the Q-tables with other processes on the same host through a memory-mapped file,
+  * as "writer" or "reader" (see {@link QLearner#useSharedQTables})
+  *
+  * @throws IllegalArgumentException if the role is unknown
+  * @throws IllegalStateException if the Q-tables are already shared, or if a reader has Q-tables of its own
+  * @throws IOException if the file cannot be shared
+  */
+  public void useSharedQTables(File file, String role) throws IOException {
+    if (sharedQTables != null) {
+      throw new IllegalStateException("The Q-tables are already shared");
+    }
+
+    int goalCount = GOAL_LEVELS * GOAL_LEVELS;
+    if ("writer".equals(role)) {
+      sharedQTables = SharedQTables.openWriter(file, goalCount, stateCount, actionCount, lab.getFingerprint());
+      for (int goal : model.trainedGoalLevels.keySet()) {
+        sharedQTables.publish(goal, model.qTensor);
+      }
+    } else if ("reader".equals(role)) {
+      if (!model.qTensor.isEmpty()) {
+        throw new IllegalStateException("A reader of shared Q-tables cannot have Q-tables of its own");
+      }
+      disableOnlineLearning();
+      sharedQTables = SharedQTables.openReader(file, goalCount, stateCount, actionCount, lab.getFingerprint());
+      model.qTensor = sharedQTables.getView();
+    } else {
+      throw new IllegalArgumentException("Unknown role " + role + ", expected writer or reader");
+    }
+    LOGGER.info("Sharing the Q-tables with " + file + " as " + role);
+  }
+
+  /**
+  * Returns whether the Q-tables are shared with other processes
+  */
+  public boolean isShared() {
+    return sharedQTables != null;
+  }
+
+  private boolean isSharedReader() {
+    return sharedQTables != null && !sharedQTables.isWriter();
+  }
+
+  /**
+  * Saves the Q-tables to a file, in the format of shared Q-tables, keeping the Q-tables
+  * of other goals that the file already holds
+  *
+  * @return the number of saved Q-tables
+  */
+  public int saveQTables(File file) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+
+    int saved = 0;
+    try (SharedQTables tables = SharedQTables.openWriter(file, GOAL_LEVELS * GOAL_LEVELS, stateCount, actionCount,
+        lab.getFingerprint())) {
+      for (int goal = 0; goal < GOAL_LEVELS * GOAL_LEVELS; goal++) {
+        if (model.qTensor.has(goal)) {
+          tables.publish(goal, model.qTensor);
+          saved++;
+        }
+      }
+    } catch (OverlappingFileLockException e) {
+      throw new IOException("The file is locked by a writer of shared Q-tables", e);
+    }
+    LOGGER.info("Saved the Q-tables of " + saved + " goals to " + file);
+    return saved;
+  }
+
+  /**
+  * Loads the Q-tables saved to a file by {@link #saveQTables} or published by a writer
+  * of shared Q-tables, replacing the Q-tables of the same goals
+  *
+  * @return the goals of the loaded Q-tables, e.g. [[2,3], [1,1]]
+  * @throws IllegalStateException if the Q-tables are read from shared Q-tables
+  */
+  public List<Object[]> loadQTables(File file) throws IOException {
+    if (isSharedReader()) {
+      throw new IllegalStateException("A reader of shared Q-tables cannot load Q-tables");
+    }
+
+    List<Object[]> loaded = new ArrayList<>();
+    try (SharedQTables tables = SharedQTables.openReader(file, GOAL_LEVELS * GOAL_LEVELS, stateCount, actionCount,
+        lab.getFingerprint())) {
+      QTensor view = tables.getView();
+      for (int goal = 0; goal < GOAL_LEVELS * GOAL_LEVELS; goal++) {
+        if (!view.has(goal)) {
+          continue;
+        }
+        double[][] slice = new double[1][];
+        int slicedGoal = goal;
+        tables.read(() -> {
+          slice[0] = view.copySlice(slicedGoal);
+          return 0;
+        });
+        model.qTensor.setSlice(goal, slice[0]);
+
+        Object[] goalDescription = {goal / GOAL_LEVELS, goal % GOAL_LEVELS};
+        model.goalDescriptions.put(goal, Arrays.toString(goalDescription));
+        model.trainedGoalLevels.put(goal, new int[]{goal / GOAL_LEVELS, goal % GOAL_LEVELS});
+        if (sharedQTables != null) {
+          sharedQTables.publish(goal, model.qTensor);
+        }
+        loaded.add(goalDescription);
+      }
+    }
+
+    // online decisions taken on the replaced Q-tables are not fed back into the loaded ones
+    pendingTransitions.clear();
+    LOGGER.info("Loaded the Q-tables of " + loaded.size() + " goals from " + file);
+    return loaded;
+  }
+
+  /**
+  * Returns the action that sets each device of the lab, as [PayloadTag, ActionTag] pairs
+  */
+  public List<Object[]> getDeviceActions() {
+    Map<Object, String> actionTags = new LinkedHashMap<>();
+    for (int action = 0; action < actionCount; action++) {
+      Action a = lab.getAction(action);
+      if (a != null && a.getPayloadTags().length == 1) {
+        actionTags.putIfAbsent(a.getPayloadTags()[0], a.getActionTag());
+      }
+    }
+
+    List<Object[]> pairs = new ArrayList<>();
+    for (Map.Entry<Object, String> entry : actionTags.entrySet()) {
+      pairs.add(new Object[]{entry.getKey(), entry.getValue()});
+    }
+    return pairs;
+  }
+
+  /**
+  * Returns the dense id of a goal [Z1Level, Z2Level], i.e. Z1Level * 4 + Z2Level,
+  * or -1 if the goal description is invalid
+  */
+  public static int getGoalKey(Object[] goalDescription) {
+    if (goalDescription.length != 2) {
+      return -1;
+    }
+    try {
+      int z1Level = Integer.parseInt(goalDescription[0].toString());
+      int z2Level = Integer.parseInt(goalDescription[1].toString());
+      if (z1Level < 0 || z1Level >= GOAL_LEVELS || z2Level < 0 || z2Level >= GOAL_LEVELS) {
+        return -1;
+      }
+      return z1Level * GOAL_LEVELS + z2Level;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static int requireGoalKey(Object[] goalDescription) {
+    int goalKey = getGoalKey(goalDescription);
+    if (goalKey < 0) {
+      throw new IllegalArgumentException("Invalid goal " + Arrays.toString(goalDescription)
+        + ", expected [Z1Level, Z2Level] with levels in [0,3]");
+    }
+    return goalKey;
+  }
+
+  private int requireQTable(Object[] goalDescription) {
+    int goalKey = requireGoalKey(goalDescription);
+    if (!hasQTable(goalDescription)) {
+      throw new IllegalArgumentException("Q-table not found for goal " + Arrays.toString(goalDescription));
+    }
+    return goalKey;
+  }
+
+  private static int[][] createApplicableActionTable(LearningEnvironment lab) {
+    int[][] applicableActionTable = new int[lab.getStateCount()][];
+    for (int state = 0; state < applicableActionTable.length; state++) {
+      applicableActionTable[state] = lab.getApplicableActions(state).stream().mapToInt(Integer::intValue).toArray();
+    }
+    return applicableActionTable;
+  }
+
+  /**
+  * Returns whether the light levels of a state are those of a goal
+  */
+  private boolean isGoalLevel(int goalKey, int state) {
+    List<Integer> stateVector = lab.getStateVector(state);
+    return stateVector.get(0) == goalKey / GOAL_LEVELS && stateVector.get(1) == goalKey % GOAL_LEVELS;
+  }
+
+  /**
+  * Waits until the circuit breaker of a failing lab lets a trial request through
+  *
+  * @param failingSince the time (milliseconds since the epoch) the lab started failing, or 0
+  * @param timeout the time in milliseconds the lab may fail before training stops
+  * @param episode the episode interrupted by the lab
+  * @return the time the lab started failing
+  * @throws IOException if the lab has been failing for longer than the timeout
+  */
+  private long awaitLab(long failingSince, long timeout, int episode) throws IOException {
+    long now = System.currentTimeMillis();
+    if (failingSince == 0) {
+      failingSince = now;
+    }
+    long delay = lab.getRetryDelay();
+    if (now + delay - failingSince > timeout) {
+      throw new IOException("The lab has been unavailable for more than " + timeout + "ms, training stopped at episode "
+        + episode);
+    }
+    LOGGER.warning("The lab failed during episode " + episode + ", repeating the episode in " + delay + "ms");
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the lab at episode " + episode);
+    }
+    return failingSince;
+  }
+
+  /**
+  * Returns which states have the light levels of a goal, the terminal states of its episodes
+  */
+  private boolean[] goalStates(int goalKey) {
+    boolean[] goalStates = new boolean[stateCount];
+    for (int state = 0; state < stateCount; state++) {
+      goalStates[state] = isGoalLevel(goalKey, state);
+    }
+    return goalStates;
+  }
+
+  /**
+  * Returns the description of a state in the form agents observe it, with the light
+  * levels, the lights and blinds as booleans, and the sunshine level, e.g. [2,2,true,false,true,true,2]
+  */
+  private Object[] describeState(int state) {
+    List<Integer> stateVector = lab.getStateVector(state);
+    return new Object[]{stateVector.get(0), stateVector.get(1), stateVector.get(2) == 1, stateVector.get(3) == 1,
+      stateVector.get(4) == 1, stateVector.get(5) == 1, stateVector.get(6)};
+  }
+
+  private static Object[] describePayloadTags(Action action) {
+    Object[] payloadTags = new Object[action.getPayloadTags().length];
+    for (int i = 0; i < payloadTags.length; i++) {
+      payloadTags[i] = action.getPayloadTags()[i].toString();
+    }
+    return payloadTags;
+  }
+
+  /**
+  * Returns the best applicable action of a state, or -1 if the Q values of the state
+  * have not been learned (are all 0.0)
+  */
+  private static int learnedArgmax(QTensor qTensor, int goal, int state, int[] applicableActions) {
+    for (int action : applicableActions) {
+      if (qTensor.get(goal, state, action) != 0.0) {
+        return qTensor.argmax(goal, state, applicableActions);
+      }
+    }
+    return -1;
+  }
+
+  /**
+  * Returns the reward of a transition into a state, shaped by the distance to the goal, the
+  * energy used and the change of the light levels since the state the transition started from
+  *
+  * @param previousStateVector the state the transition started from
+  */
+  private double computeRewardValue(Object[] goalDescription, List<Integer> stateVector,
+                                    List<Integer> previousStateVector, double goalReward) {
+    try {
+      int targetZ1Level = Integer.parseInt(goalDescription[0].toString());
+      int targetZ2Level = Integer.parseInt(goalDescription[1].toString());
+
+      if (stateVector == null || stateVector.size() < 7) {
+        return -1.0;
+      }
+
+      int actualZ1Level = stateVector.get(0);
+      int actualZ2Level = stateVector.get(1);
+      boolean zone1LightOn = stateVector.get(2) == 1;
+      boolean zone2LightOn = stateVector.get(3) == 1;
+      boolean zone1BlindsUp = stateVector.get(4) == 1;
+      boolean zone2BlindsUp = stateVector.get(5) == 1;
+      int sunshineLevel = stateVector.get(6);
+
+      // the previous levels are those of the transition, so training and online updates never see each other's states
+      int prevZ1 = previousStateVector != null ? previousStateVector.get(0) : actualZ1Level;
+      int prevZ2 = previousStateVector != null ? previousStateVector.get(1) : actualZ2Level;
+
+      double totalReward = -0.01;
+
+      boolean goalAchieved = (actualZ1Level == targetZ1Level && actualZ2Level == targetZ2Level);
+
+      if (goalAchieved) {
+        totalReward += goalReward;
+        LOGGER.fine("GOAL ACHIEVED! Z1=" + actualZ1Level + ", Z2=" + actualZ2Level +
+          " matches target [" + targetZ1Level + "," + targetZ2Level + "]");
+        return totalReward;
+      }
+      int z1Distance = Math.abs(actualZ1Level - targetZ1Level);
+      int z2Distance = Math.abs(actualZ2Level - targetZ2Level);
+      double totalDistance = z1Distance + z2Distance;
+
+      if (totalDistance > 0) {
+        double proximityReward = goalReward * 0.2 / (1 + totalDistance);
+        totalReward += proximityReward;
+      }
+
+      if (zone1LightOn) totalReward -= 0.5;
+      if (zone2LightOn) totalReward -= 0.5;
+      if (zone1BlindsUp) totalReward -= 0.01;
+      if (zone2BlindsUp) totalReward -= 0.01;
+
+      int z1Change = Math.abs(actualZ1Level - prevZ1);
+      int z2Change = Math.abs(actualZ2Level - prevZ2);
+      totalReward -= 0.05 * (z1Change + z2Change);
+
+      if (sunshineLevel >= 2) {
+        if (zone1BlindsUp && zone1LightOn) {
+          totalReward -= 0.3;
+        }
+        if (zone2BlindsUp && zone2LightOn) {
+          totalReward -= 0.3;
+        }
+      }
+
+      return totalReward;
+
+    } catch (Exception e) {
+      LOGGER.warning("Error computing reward: " + e.getMessage());
+      return -1.0;
+    }
+  }
+
+  /**
+  * Initializes the Q matrix of a goal, from the Q matrices of already trained goals.
+  *
+  * @param goal the goal id
+  * @param targetZ1 the desired light level in Zone 1
+  * @param targetZ2 the desired light level in Zone 2
+  * @param mode "none", "nearest" or "blend"
+  * @param scale the factor applied to the warm start Q values
+  * @param sources the (returned) descriptions of the goals used for the warm start
+  */
+  private void initializeQTable(int goal, int targetZ1, int targetZ2, String mode, double scale, List<String> sources) {
+    QTensor qTensor = model.qTensor;
+    Map<Integer, int[]> trainedGoalLevels = model.trainedGoalLevels;
+
+    if ("none".equals(mode) || trainedGoalLevels.isEmpty()) {
+      qTensor.reset(goal);
+      return;
+    }
+
+    if (!"nearest".equals(mode) && !"blend".equals(mode)) {
+      LOGGER.warning("Unknown warm start mode " + mode + ", starting from a Q matrix of zeros");
+      qTensor.reset(goal);
+      return;
+    }
+
+    int minDistance = Integer.MAX_VALUE;
+    for (int[] levels : trainedGoalLevels.values()) {
+      minDistance = Math.min(minDistance, Math.abs(levels[0] - targetZ1) + Math.abs(levels[1] - targetZ2));
+    }
+
+    // the warm start is computed apart, since the goal itself may be one of the trained goals
+    double[] qValues = new double[stateCount * actionCount];
+    double totalWeight = 0.0;
+    for (Map.Entry<Integer, int[]> entry : trainedGoalLevels.entrySet()) {
+      int[] levels = entry.getValue();
+      int distance = Math.abs(levels[0] - targetZ1) + Math.abs(levels[1] - targetZ2);
+
+      double weight;
+      if ("nearest".equals(mode)) {
+        weight = distance == minDistance ? 1.0 : 0.0;
+      } else {
+        weight = 1.0 / ((1 + distance) * (1 + distance));
+      }
+
+      if (weight > 0) {
+        double[] source = qTensor.copySlice(entry.getKey());
+        for (int i = 0; i < qValues.length; i++) {
+          qValues[i] += weight * source[i];
+        }
+        totalWeight += weight;
+        sources.add(model.goalDescriptions.get(entry.getKey()));
+      }
+    }
+
+    double factor = scale / totalWeight;
+    for (int i = 0; i < qValues.length; i++) {
+      qValues[i] *= factor;
+    }
+    qTensor.setSlice(goal, qValues);
+
+    LOGGER.info("Warm start (" + mode + ") from trained goals " + sources);
+  }
+
+  /**
+  * Estimates the number of episodes saved by a warm start, relative to the mean episodes
+  * run by previous training runs without warm start (or, if there is none, relative to
+  * the episode budget of a run that converged). Runs without warm start are recorded as
+  * the baseline of later estimates.
+  */
+  private int estimateEpisodesSaved(List<String> warmStartSources, boolean converged, int episodesRun, int totalEpisodes) {
+    List<Integer> coldStartEpisodes = model.coldStartEpisodes;
+    if (warmStartSources.isEmpty()) {
+      coldStartEpisodes.add(episodesRun);
+      return 0;
+    }
+
+    if (!coldStartEpisodes.isEmpty()) {
+      double baseline = coldStartEpisodes.stream().mapToInt(Integer::intValue).average().getAsDouble();
+      return (int) Math.round(baseline) - episodesRun;
+    }
+
+    return converged ? totalEpisodes - episodesRun : 0;
+  }
+
+  private void initializeRandomState() {
+    try {
+      int numRandomActions = random.nextInt(3) + 1;
+
+      for (int i = 0; i < numRandomActions; i++) {
+        int currentState = lab.readCurrentState();
+        List<Integer> availableActions = lab.getApplicableActions(currentState);
+        if (!availableActions.isEmpty()) {
+          int randomActionIdx = random.nextInt(availableActions.size());
+          lab.performAction(availableActions.get(randomActionIdx));
+        }
+      }
+    } catch (Exception e) {
+      LOGGER.warning("Error initializing random state: " + e.getMessage());
+    }
+  }
+
+  /**
+  * Selects the action of a training step with the exploration of the run, and counts its visit
+  *
+  * @return the action, or -1 if no action is applicable in the state
+  */
+  private int selectTrainingAction(int goal, int state, double epsilon, boolean ucb, VisitCounts visitCounts) {
+    int[] validActions = applicableActionTable[state];
+    if (validActions.length == 0) {
+      return -1;
+    }
+    int action = ucb
+      ? visitCounts.selectAction(model.qTensor, goal, state, validActions)
+      : selectActionEpsilonGreedy(goal, state, validActions, epsilon);
+    visitCounts.recordVisit(state, action);
+    return action;
+  }
+
+  private int selectActionEpsilonGreedy(int goal, int state, int[] validActions, double epsilon) {
+    if (random.nextDouble() < epsilon) {
+      return validActions[random.nextInt(validActions.length)];
+    }
+
+    return model.qTensor.argmax(goal, state, validActions);
+  }
+
+  private int parseStateDescription(Object[] stateDescription) {
+    int observedState = parseObservedState(stateDescription);
+    return observedState >= 0 ? observedState : lab.readCurrentState();
+  }
+
+  /**
+  * Returns the state of a state description, or -1 if the description is not valid
+  */
+  private int parseObservedState(Object[] stateDescription) {
+    try {
+      if (stateDescription.length == 7) {
+        int observedState = lab.getStateFromObservation(stateDescription);
+        if (observedState >= 0) {
+          return observedState;
+        }
+
+        List<Object> stateList = Arrays.asList(stateDescription);
+        List<Integer> compatibleStates = lab.getCompatibleStates(stateList);
+
+        if (!compatibleStates.isEmpty()) {
+          return compatibleStates.get(0);
+        }
+      }
+    } catch (Exception e) {
+      LOGGER.warning("Error parsing state description: " + e.getMessage());
+    }
+    return -1;
+  }
+
+  private void logBestPolicy(int goal, Object[] goalDescription) {
+    QTensor qTensor = model.qTensor;
+
+    List<StateActionPair> bestPairs = new ArrayList<>();
+    for (int state = 0; state < stateCount; state++) {
+      for (int action = 0; action < actionCount; action++) {
+        if (qTensor.get(goal, state, action) > 0) {
+          bestPairs.add(new StateActionPair(state, action, qTensor.get(goal, state, action)));
+        }
+      }
+    }
+
+    bestPairs.sort((a, b) -> Double.compare(b.qValue, a.qValue));
+
+    LOGGER.fine("Top 5 state-action pairs for goal " + Arrays.toString(goalDescription) + ":");
+
+    for (int i = 0; i < Math.min(5, bestPairs.size()); i++) {
+      StateActionPair pair = bestPairs.get(i);
+      Action action = lab.getAction(pair.actionIndex);
+      if (action != null) {
+        LOGGER.fine("  State " + pair.stateIndex + " -> " + action.getActionTag() +
+          " (Q=" + String.format("%.3f", pair.qValue) + ")");
+      }
+    }
+  }
+
+  private void displayQTableSample(int goal, Object[] goalDescription) {
+    QTensor qTensor = model.qTensor;
+    LOGGER.fine("Q-TABLE TRAINING RESULTS");
+    LOGGER.fine("Goal: " + Arrays.toString(goalDescription));
+
+    int samplesToShow = Math.min(5, stateCount);
+    for (int i = 0; i < samplesToShow; i++) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("State ").append(String.format("%3d", i)).append(": [");
+      for (int j = 0; j < actionCount; j++) {
+        sb.append(String.format("%6.2f", qTensor.get(goal, i, j)));
+        if (j < actionCount - 1) sb.append(", ");
+      }
+      sb.append("]");
+      LOGGER.fine(sb.toString());
+    }
+
+    // Find and display best Q-values
+    double maxQ = Double.NEGATIVE_INFINITY;
+    int bestState = -1, bestAction = -1;
+    int positiveQCount = 0;
+
+    for (int i = 0; i < stateCount; i++) {
+      for (int j = 0; j < actionCount; j++) {
+        if (qTensor.get(goal, i, j) > maxQ) {
+          maxQ = qTensor.get(goal, i, j);
+          bestState = i;
+          bestAction = j;
+        }
+        if (qTensor.get(goal, i, j) > 0) {
+          positiveQCount++;
+        }
+      }
+    }
+
+    if (bestState >= 0) {
+      Action bestActionObj = lab.getAction(bestAction);
+      String actionName = bestActionObj != null ? bestActionObj.getActionTag() : "Unknown";
+
+      LOGGER.fine("Training Results Summary:");
+      LOGGER.fine("  Highest Q-value: " + String.format("%.3f", maxQ));
+      LOGGER.fine("  Best state-action: State " + bestState + " -> " + actionName);
+      LOGGER.fine("  Positive Q-values: " + positiveQCount + "/" +
+        (stateCount * actionCount) + " entries");
+
+      if (maxQ > 50.0) {
+        LOGGER.fine("  STATUS: Good convergence achieved!");
+      } else if (maxQ > 10.0) {
+        LOGGER.fine("  STATUS: Moderate convergence - consider more episodes");
+      } else {
+        LOGGER.warning("  STATUS: Poor convergence - check reward function and parameters");
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package tools;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+* A headless training run of the {@link QLearner}, without the JaCaMo platform.
+*
+* <p> The trainer creates the lab of an environment URL, like the QLearner artifact: a
+* {@link SimulatedLab} for "local:" URLs, a {@link ReplayLab} for "replay:" URLs, or a
+* {@link Lab} for the URL of a W3C WoT Thing Description. It then calculates the Q-tables
+* of the given goals with a {@link QLearning}, as the artifact does, and saves them to
+* a file, from which the QLearner artifact of an agent loads them with
+* {@link QLearner#loadQTables}. The file records the fingerprint of the lab, and only a
+* QLearner whose lab has the same fingerprint loads it.
+* </p>
+*/
+public class QTableTrainer {
+
+  private static final Logger LOGGER = Logger.getLogger(QTableTrainer.class.getName());
+
+  /**
+  * Parses goals separated by ";", e.g. "2-3;1-1", or "all" for the 16 goals
+  */
+  static List<Object[]> parseGoals(String goals) {
+    List<Object[]> parsed = new ArrayList<>();
+    if ("all".equals(goals)) {
+      for (int z1 = 0; z1 < 4; z1++) {
+        for (int z2 = 0; z2 < 4; z2++) {
+          parsed.add(new Object[]{z1, z2});
+        }
+      }
+      return parsed;
+    }
+    for (String goal : goals.split(";")) {
+      String[] levels = goal.trim().split("-");
+      if (levels.length != 2) {
+        throw new IllegalArgumentException("Invalid goal " + goal + ", expected Z1Level-Z2Level, e.g. 2-3");
+      }
+      parsed.add(new Object[]{Integer.parseInt(levels[0]), Integer.parseInt(levels[1])});
+    }
+    return parsed;
+  }
+
+  /**
+  * Parses training options separated by ";", e.g. "lambda=0.8;start_states=stratified",
+  * into [Name, Value] pairs
+  */
+  static Object[] parseOptions(String options) {
+    List<Object> pairs = new ArrayList<>();
+    for (String option : options.split(";")) {
+      if (option.isBlank()) {
+        continue;
+      }
+      int separator = option.indexOf('=');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Invalid training option " + option + ", expected Name=Value");
+      }
+      pairs.add(new Object[]{option.substring(0, separator).trim(), option.substring(separator + 1).trim()});
+    }
+    return pairs.toArray();
+  }
+
+  /**
+  * Trains the Q-tables of goals and saves them to a file
+  *
+  * @param args the environment URL (default "local:simulator"), the goals separated by ";"
+  * (default "all"), the number of episodes per goal (default 200), the learning rate (default 0.2),
+  * the discount factor (default 0.8), the exploration rate (default 0.3), the output file
+  * (default "build/qtables/qtables.bin") and the training options separated by ";"
+  * (default "start_states=stratified")
+  */
+  public static void main(String[] args) throws IOException {
+    String environmentURL = args.length > 0 ? args[0] : SimulatedLab.URL_PREFIX + "simulator";
+    List<Object[]> goals = parseGoals(args.length > 1 ? args[1] : "all");
+    int episodes = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    double alpha = args.length > 3 ? Double.parseDouble(args[3]) : 0.2;
+    double gamma = args.length > 4 ? Double.parseDouble(args[4]) : 0.8;
+    double epsilon = args.length > 5 ? Double.parseDouble(args[5]) : 0.3;
+    File output = new File(args.length > 6 ? args[6] : "build/qtables/qtables.bin");
+    Object[] options = parseOptions(args.length > 7 ? args[7] : "start_states=stratified");
+
+    // the learner would otherwise log every training run
+    Logger.getLogger(QLearning.class.getName()).setLevel(Level.WARNING);
+
+    long start = System.nanoTime();
+    QLearning learning = new QLearning(QLearning.createLab(environmentURL));
+    LOGGER.info("Initialized " + environmentURL + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+
+    for (Object[] goal : goals) {
+      long goalStart = System.nanoTime();
+      Map<String, Object> results = learning.train(goal, episodes, alpha, gamma, epsilon, 100.0, options);
+
+      StringBuilder summary = new StringBuilder();
+      for (Map.Entry<String, Object> result : results.entrySet()) {
+        if (!(result.getValue() instanceof Object[])) {
+          summary.append(summary.length() > 0 ? ", " : "").append(result.getKey()).append('=').append(result.getValue());
+        }
+      }
+      System.out.println("Goal " + Arrays.toString(goal) + " trained in " + (System.nanoTime() - goalStart) / 1000000
+        + "ms: " + summary);
+    }
+
+    learning.saveQTables(output);
+    TrainingTelemetry.getInstance().close();
+    System.out.println("Trained " + goals.size() + " goals in " + (System.nanoTime() - start) / 1000000
+      + "ms, Q-tables written to " + output);
+  }
+}
@@ -0,0 +1,208 @@
+package tools;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+* The Q values of all goals, laid out as a goal x state x action tensor in one
+* {@link DoubleBuffer}.
+*
+* <p> Goals are identified by a dense goal id in [0, goalCount). The Q matrix of a
+* goal (its slice) is allocated when the goal is first reset, so that memory grows
+* with the number of trained goals only. Within a slice, the Q value of a
+* state-action pair is at state * actionCount + action, so that the actions of a
+* state are adjacent in memory.
+* </p>
+* <p> The best action and the maximum Q value of a state are computed by a scalar scan
+* of the row of the state, which compares the Q value of every action of a dense list of
+* applicable actions (e.g. a row of the applicable action table). Only the listed actions
+* are visited, so inapplicable actions need no check of their own. Ties are broken in
+* favour of the first applicable action.
+* </p>
+* <p> The Q values are held in a heap buffer, or, for views of shared Q tables (see
+* {@link SharedQTables}), in a memory-mapped buffer with one slice per goal.
+* </p>
+*/
+public class QTensor {
+
+  private final int goalCount;
+  private final int stateCount;
+  private final int actionCount;
+  private final int sliceSize;
+
+  private final int[] sliceOffsets; // the offset of the slice of every goal, or -1
+  private DoubleBuffer values;
+  private int slices = 0; // the number of allocated slices, or -1 for views with one slice per goal
+
+  /**
+  * @param goalCount the number of goals
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  */
+  public QTensor(int goalCount, int stateCount, int actionCount) {
+    this.goalCount = goalCount;
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.sliceSize = stateCount * actionCount;
+    this.sliceOffsets = new int[goalCount];
+    Arrays.fill(sliceOffsets, -1);
+    this.values = DoubleBuffer.allocate(0);
+  }
+
+  /**
+  * Creates a view of Q values with one slice per goal, where the slice of goal g is at
+  * g * stateCount * actionCount. Goals are not available before {@link #mapGoals(long)}.
+  *
+  * @param values the Q values of all goals
+  */
+  QTensor(DoubleBuffer values, int goalCount, int stateCount, int actionCount) {
+    this(goalCount, stateCount, actionCount);
+    if (values.capacity() < goalCount * sliceSize) {
+      throw new IllegalArgumentException("Expected " + goalCount * sliceSize + " Q values, got " + values.capacity());
+    }
+    this.values = values;
+    this.slices = -1;
+  }
+
+  /**
+  * Makes the slices of a view available for the goals of a bit set
+  *
+  * @param goals the bit set of the available goals, with bit g for goal g
+  */
+  void mapGoals(long goals) {
+    for (int goal = 0; goal < goalCount; goal++) {
+      sliceOffsets[goal] = (goals & (1L << goal)) != 0 ? goal * sliceSize : -1;
+    }
+  }
+
+  public int getGoalCount() {
+    return this.goalCount;
+  }
+
+  public int getStateCount() {
+    return this.stateCount;
+  }
+
+  public int getActionCount() {
+    return this.actionCount;
+  }
+
+  /**
+  * Returns whether a goal has a Q matrix
+  */
+  public boolean has(int goal) {
+    return goal >= 0 && goal < goalCount && sliceOffsets[goal] != -1;
+  }
+
+  /**
+  * Returns whether no goal has a Q matrix
+  */
+  public boolean isEmpty() {
+    for (int offset : sliceOffsets) {
+      if (offset != -1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Sets all Q values of a goal to 0.0, allocating its Q matrix if needed
+  */
+  public void reset(int goal) {
+    if (sliceOffsets[goal] == -1) {
+      if (slices < 0) {
+        sliceOffsets[goal] = goal * sliceSize;
+      } else {
+        if ((slices + 1) * sliceSize > values.capacity()) {
+          DoubleBuffer grown = DoubleBuffer.allocate(Math.max(sliceSize, values.capacity() * 2));
+          grown.put(values.duplicate().clear());
+          values = grown;
+        }
+        sliceOffsets[goal] = slices++ * sliceSize;
+      }
+    }
+    int offset = sliceOffsets[goal];
+    for (int i = 0; i < sliceSize; i++) {
+      values.put(offset + i, 0.0);
+    }
+  }
+
+  public double get(int goal, int state, int action) {
+    return values.get(sliceOffsets[goal] + state * actionCount + action);
+  }
+
+  public void set(int goal, int state, int action, double value) {
+    values.put(sliceOffsets[goal] + state * actionCount + action, value);
+  }
+
+  public void add(int goal, int state, int action, double delta) {
+    int index = sliceOffsets[goal] + state * actionCount + action;
+    values.put(index, values.get(index) + delta);
+  }
+
+  /**
+  * Returns the action with the highest Q value among the given actions of a state
+  *
+  * @param actions the applicable actions of the state
+  * @return the best action, or -1 if there are no actions
+  */
+  public int argmax(int goal, int state, int[] actions) {
+    if (actions.length == 0) {
+      return -1;
+    }
+    int row = sliceOffsets[goal] + state * actionCount;
+    int best = actions[0];
+    double max = values.get(row + best);
+    for (int i = 1; i < actions.length; i++) {
+      double q = values.get(row + actions[i]);
+      if (q > max) {
+        max = q;
+        best = actions[i];
+      }
+    }
+    return best;
+  }
+
+  /**
+  * Returns the highest Q value among the given actions of a state
+  *
+  * @param actions the applicable actions of the state
+  * @return the highest Q value, or 0.0 if there are no actions
+  */
+  public double max(int goal, int state, int[] actions) {
+    if (actions.length == 0) {
+      return 0.0;
+    }
+    int row = sliceOffsets[goal] + state * actionCount;
+    double max = values.get(row + actions[0]);
+    for (int i = 1; i < actions.length; i++) {
+      max = Math.max(max, values.get(row + actions[i]));
+    }
+    return max;
+  }
+
+  /**
+  * Returns a copy of the Q matrix of a goal, indexed by state * actionCount + action
+  */
+  public double[] copySlice(int goal) {
+    double[] slice = new double[sliceSize];
+    values.get(sliceOffsets[goal], slice);
+    return slice;
+  }
+
+  /**
+  * Sets the Q matrix of a goal, allocating it if needed
+  *
+  * @param slice the Q values indexed by state * actionCount + action
+  */
+  public void setSlice(int goal, double[] slice) {
+    if (slice.length != sliceSize) {
+      throw new IllegalArgumentException("Expected " + sliceSize + " Q values, got " + slice.length);
+    }
+    if (sliceOffsets[goal] == -1) {
+      reset(goal);
+    }
+    values.put(sliceOffsets[goal], slice);
+  }
+}
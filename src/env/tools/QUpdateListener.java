@@ -0,0 +1,14 @@
+package tools;
+
+/**
+* Receives the updates applied to a Q matrix by the learning algorithms of the
+* {@link QLearner}, e.g. for tracking convergence.
+*/
+interface QUpdateListener {
+
+  /**
+  * @param state the state whose Q value was updated
+  * @param delta the change applied to the Q value
+  */
+  void updated(int state, double delta);
+}
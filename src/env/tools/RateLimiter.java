@@ -0,0 +1,146 @@
+package tools;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.*;
+
+/**
+* A token bucket that limits the rate of requests to an endpoint, and adapts the
+* rate to the health of the endpoint.
+*
+* <p> Rate limiters are shared by all code that talks to the same endpoint: they are
+* retrieved with {@link #forEndpoint(String, String)} by endpoint and kind of request
+* (e.g. "read" or "action"), so that each kind of request has its own budget.
+* </p>
+* <p> The rate backs off multiplicatively when a request fails or when its latency
+* rises well above the usual latency of the endpoint, and recovers additively
+* towards the configured rate while requests succeed.
+* </p>
+*/
+public class RateLimiter {
+
+  private static final Map<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+  private static final double ERROR_BACKOFF = 0.5; // the factor applied to the rate after a failed request
+  private static final double LATENCY_BACKOFF = 0.8; // the factor applied to the rate after a slow request
+  private static final double LATENCY_FACTOR = 2.0; // requests slower than this factor times the usual latency are slow
+  private static final double RECOVERY_STEP = 0.05; // the share of the configured rate recovered per successful request
+  private static final double MIN_RATE_FACTOR = 0.05; // the rate never drops below this share of the configured rate
+  private static final double LATENCY_SMOOTHING = 0.1; // the weight of a new latency in the usual latency
+
+  private static final Logger LOGGER = Logger.getLogger(RateLimiter.class.getName());
+
+  private final String name;
+
+  private double maxRate; // the configured rate in requests per second
+  private double burst; // the maximum number of tokens
+  private double rate; // the current (adapted) rate in requests per second
+  private double tokens;
+  private long lastRefill;
+  private double usualLatencyNanos = -1; // the exponentially smoothed latency of successful requests
+
+  /**
+  * @param name the name of the limiter, used for logging
+  * @param rate the rate in requests per second
+  * @param burst the maximum number of requests that can be issued at once
+  */
+  public RateLimiter(String name, double rate, double burst) {
+    this.name = name;
+    this.lastRefill = System.nanoTime();
+    configure(rate, burst);
+    this.tokens = this.burst;
+  }
+
+  /**
+  * Returns the rate limiter shared by all requests of a kind to an endpoint,
+  * creating it with a given rate and burst if it does not exist yet
+  *
+  * @param endpoint the endpoint, e.g. the URL of a W3C WoT Thing Description
+  * @param kind the kind of requests, e.g. "read" or "action"
+  * @param rate the rate in requests per second of a new limiter
+  * @param burst the burst of a new limiter
+  */
+  public static RateLimiter forEndpoint(String endpoint, String kind, double rate, double burst) {
+    String key = kind + " " + endpoint;
+    return LIMITERS.computeIfAbsent(key, k -> new RateLimiter(k, rate, burst));
+  }
+
+  /**
+  * Sets the rate and burst of the limiter, and resets any back-off
+  *
+  * @param rate the rate in requests per second
+  * @param burst the maximum number of requests that can be issued at once
+  */
+  public synchronized void configure(double rate, double burst) {
+    if (rate <= 0 || burst < 1) {
+      throw new IllegalArgumentException("Invalid rate limit: rate=" + rate + ", burst=" + burst);
+    }
+    refill(System.nanoTime());
+    this.maxRate = rate;
+    this.rate = rate;
+    this.burst = burst;
+    this.tokens = Math.min(this.tokens, burst);
+  }
+
+  /**
+  * Waits until a request may be issued
+  */
+  public void acquire() {
+    long waitNanos;
+    synchronized (this) {
+      refill(System.nanoTime());
+      tokens -= 1;
+      waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+    }
+
+    if (waitNanos > 0) {
+      try {
+        Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+  * Records a successful request, backing off if its latency is well above the usual
+  * latency, and recovering the rate otherwise
+  *
+  * @param latencyNanos the latency of the request
+  */
+  public synchronized void onSuccess(long latencyNanos) {
+    if (usualLatencyNanos > 0 && latencyNanos > LATENCY_FACTOR * usualLatencyNanos) {
+      backOff(LATENCY_BACKOFF, "latency of " + latencyNanos / 1000000 + "ms");
+    } else {
+      rate = Math.min(maxRate, rate + RECOVERY_STEP * maxRate);
+    }
+
+    usualLatencyNanos = usualLatencyNanos < 0 ? latencyNanos
+      : (1 - LATENCY_SMOOTHING) * usualLatencyNanos + LATENCY_SMOOTHING * latencyNanos;
+  }
+
+  /**
+  * Records a failed request, and backs off
+  */
+  public synchronized void onError() {
+    backOff(ERROR_BACKOFF, "failed request");
+  }
+
+  public synchronized double getRate() {
+    return this.rate;
+  }
+
+  private void backOff(double factor, String reason) {
+    refill(System.nanoTime());
+    double previousRate = rate;
+    rate = Math.max(MIN_RATE_FACTOR * maxRate, rate * factor);
+    if (rate < previousRate) {
+      LOGGER.fine("Backing off " + name + " to " + rate + " requests/s after " + reason);
+    }
+  }
+
+  private void refill(long now) {
+    tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * rate);
+    lastRefill = now;
+  }
+}
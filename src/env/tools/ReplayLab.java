@@ -0,0 +1,221 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+* A lab that extends {@link Lab}, and serves status reads from a trace of the
+* interactions with a lab (see {@link LabTrace}) without any HTTP interaction.
+*
+* <p> As long as the actions and resets requested from a replay lab are the ones
+* of the trace, the replay lab follows the trace and serves the recorded states.
+* Once the requests deviate from the trace, the next state of a state-action pair
+* is taken from the transitions observed in the trace, cycling through the observed
+* outcomes of the pair, or, if the pair has never been observed, predicted from the
+* lights, the blinds and the last sunshine of the trace. Replays are therefore deterministic: the same
+* sequence of requests is always served the same sequence of states.
+* </p>
+*/
+public class ReplayLab extends Lab {
+
+  /**
+  * The prefix of the environment URLs for which a {@link QLearner} uses a
+  * {@link ReplayLab} instead of a {@link Lab}, e.g. "replay:traces/lab.trace"
+  */
+  public static final String URL_PREFIX = "replay:";
+
+  private static final Logger LOGGER = Logger.getLogger(ReplayLab.class.getName());
+
+  private final List<LabTrace.Record> records;
+  private final Map<Long, List<Integer>> transitions = new HashMap<>(); // the observed next states per state-action pair
+  private final Map<Integer, List<Integer>> resets = new HashMap<>(); // the observed states per requested reset
+  private final Map<Long, Integer> servedOutcomes = new HashMap<>(); // the number of outcomes served per pair or reset
+
+  private int cursor = 0; // the position of the next record of the trace to follow
+  private int state = 0; // the current state of the replay
+  private long followed = 0; // the number of requests served from the sequence of the trace
+  private long modelled = 0; // the number of requests served from observed transitions
+  private long predicted = 0; // the number of requests served from predictions
+
+  /**
+  * Constructs a {@link ReplayLab} instance from a trace file. If the trace cannot be
+  * read, all states are predicted.
+  *
+  * @param traceFile the trace file
+  */
+  public ReplayLab(File traceFile) {
+    super();
+    createLocalActionSpace();
+
+    List<LabTrace.Record> trace = new ArrayList<>();
+    try {
+      trace = LabTrace.read(traceFile);
+      LOGGER.info("Replaying " + trace.size() + " records of the lab trace " + traceFile);
+    } catch (IOException e) {
+      LOGGER.severe(e.getMessage());
+    }
+    this.records = trace;
+
+    indexTransitions();
+
+    // the replay starts from the first recorded state
+    int first = nextRead(0);
+    if (first != -1) {
+      state = records.get(first).state;
+      lastSunshineLux = records.get(first).sunshineLux;
+      cursor = first + 1;
+    }
+    readCurrentState();
+  }
+
+  /**
+  * @see {@link LearningEnvironment#readCurrentState()}
+  */
+  @Override
+  public int readCurrentState() {
+    List<Integer> st = getStateVector(state);
+    for (int i = 0; i < st.size(); i++) {
+      currentState.set(i, st.get(i));
+    }
+    return state;
+  }
+
+  /**
+  * @see {@link LearningEnvironment#performAction(int)}
+  */
+  @Override
+  public void performAction(int action) {
+    int next = nextRequest(cursor);
+    if (next != -1 && records.get(next).type == LabTrace.ACTION && records.get(next).action == action) {
+      int read = nextRead(next + 1);
+      if (read != -1) {
+        follow(read);
+        return;
+      }
+    }
+    // once the requests deviate from the trace, the trace is no longer followed
+    cursor = records.size();
+
+    long key = ((long) state << 16) | action;
+    List<Integer> outcomes = transitions.get(key);
+    if (outcomes != null) {
+      state = serve(key, outcomes);
+      modelled++;
+      return;
+    }
+
+    Action a = actionSpace.get(action);
+    int devices = getDeviceBits(state);
+    for (int i = 0; i < a.getPayloadTags().length; i++) {
+      int bit = 1 << (3 - Arrays.asList(DEVICE_PROPERTIES).indexOf(a.getPayloadTags()[i].toString()));
+      devices = (Boolean) a.getPayload()[i] ? devices | bit : devices & ~bit;
+    }
+    state = predictState(devices, lastSunshineLux);
+    predicted++;
+  }
+
+  /**
+  * @see {@link LearningEnvironment#resetState(int)}
+  */
+  @Override
+  public boolean resetState(int target) {
+    int next = nextRequest(cursor);
+    if (next != -1 && records.get(next).type == LabTrace.RESET && records.get(next).state == target) {
+      int read = nextRead(next + 1);
+      if (read != -1) {
+        follow(read);
+        return true;
+      }
+    }
+    cursor = records.size();
+
+    List<Integer> outcomes = resets.get(target);
+    if (outcomes != null) {
+      state = serve(-1L - target, outcomes);
+      modelled++;
+      return true;
+    }
+
+    state = predictState(getDeviceBits(target), lastSunshineLux);
+    predicted++;
+    return true;
+  }
+
+  /**
+  * Returns the number of requests served by following the trace, from the
+  * observed transitions of the trace, and from predictions
+  */
+  public long[] getServedCounts() {
+    return new long[]{followed, modelled, predicted};
+  }
+
+  private void follow(int read) {
+    state = records.get(read).state;
+    lastSunshineLux = records.get(read).sunshineLux;
+    cursor = read + 1;
+    followed++;
+  }
+
+  private int serve(long key, List<Integer> outcomes) {
+    int served = servedOutcomes.getOrDefault(key, 0);
+    servedOutcomes.put(key, served + 1);
+    return outcomes.get(served % outcomes.size());
+  }
+
+  /**
+  * Indexes the observed transitions of the trace: the state read before an action (or
+  * reset) and the state read after it
+  */
+  private void indexTransitions() {
+    int before = -1;
+    for (int i = 0; i < records.size(); i++) {
+      LabTrace.Record record = records.get(i);
+      if (record.type == LabTrace.READ) {
+        if (record.success) {
+          before = record.state;
+        }
+        continue;
+      }
+
+      int read = nextRead(i + 1);
+      if (!record.success || read == -1) {
+        continue;
+      }
+      int after = records.get(read).state;
+
+      if (record.type == LabTrace.ACTION && before != -1) {
+        transitions.computeIfAbsent(((long) before << 16) | record.action, k -> new ArrayList<>()).add(after);
+      } else if (record.type == LabTrace.RESET) {
+        resets.computeIfAbsent(record.state, k -> new ArrayList<>()).add(after);
+      }
+    }
+  }
+
+  /**
+  * Returns the position of the next successful read from a position of the trace,
+  * or -1 if there is none
+  */
+  private int nextRead(int from) {
+    for (int i = from; i < records.size(); i++) {
+      if (records.get(i).type == LabTrace.READ && records.get(i).success && records.get(i).state >= 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+  * Returns the position of the next successful action or reset from a position of the
+  * trace, or -1 if there is none
+  */
+  private int nextRequest(int from) {
+    for (int i = from; i < records.size(); i++) {
+      if (records.get(i).type != LabTrace.READ && records.get(i).success) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
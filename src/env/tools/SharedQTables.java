@@ -0,0 +1,294 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+* Q tables shared between processes through a memory-mapped file.
+*
+* <p> One process (the writer) owns the file, and publishes the Q matrix of a goal
+* after it has been trained. Other processes (readers) map the same file read-only,
+* and read the published Q matrices in place, without copying them.
+* </p>
+* <p> The file starts with a header of {@link #HEADER_SIZE} bytes:
+* <ul>
+* <li> magic (int): "QTBL", and the format version (int)
+* <li> the number of goals, states and actions (int)
+* <li> at {@link #GENERATION_OFFSET}, the generation (long): incremented before and after
+* every publication, so that it is odd while a Q matrix is being written
+* <li> at {@link #GOALS_OFFSET}, the published goals (long): a bit set with bit g for goal g
+* <li> at {@link #FINGERPRINT_OFFSET}, the fingerprint of the environment the Q tables were
+* trained in (16 ASCII hexadecimal digits, see {@link LearningEnvironment#getFingerprint()})
+* </ul>
+* followed by the Q values (double, in native byte order) of every goal, one slice
+* of states x actions per goal. Readers read consistently by retrying a read whenever
+* the generation was odd or changed during the read. A release store only orders the
+* writes before it, so the writer fences the odd generation from the Q values that
+* follow it, and readers fence their reads of the Q values from the second read of
+* the generation. Readers retry for at most {@link #MAX_RETRY_MILLIS}, since a writer
+* that stops while publishing leaves the generation odd until another writer opens the file.
+* </p>
+*/
+public class SharedQTables implements AutoCloseable {
+
+  public static final int HEADER_SIZE = 64;
+  public static final int GENERATION_OFFSET = 24;
+  public static final int GOALS_OFFSET = 32;
+  public static final int FINGERPRINT_OFFSET = 40;
+  public static final long MAX_RETRY_MILLIS = 100; // the time a read is retried while a Q matrix is being published
+
+  private static final int MAGIC = 0x5154424C; // "QTBL"
+  private static final int VERSION = 2;
+  private static final int FINGERPRINT_LENGTH = 16;
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private final FileChannel channel;
+  private final FileLock lock; // the lock of the writer, or null for readers
+  private final MappedByteBuffer buffer;
+  private final DoubleBuffer values; // the Q values after the header
+  private final QTensor view;
+  private final int sliceSize;
+  private long mappedGeneration = -1; // the generation of the goals mapped in the view
+
+  private SharedQTables(FileChannel channel, FileLock lock, MappedByteBuffer buffer, int goalCount, int stateCount,
+      int actionCount) {
+    this.channel = channel;
+    this.lock = lock;
+    this.buffer = buffer;
+    this.sliceSize = stateCount * actionCount;
+    this.values = buffer.duplicate().position(HEADER_SIZE).slice().order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    this.view = new QTensor(values, goalCount, stateCount, actionCount);
+  }
+
+  /**
+  * Opens the shared Q tables of a file as their writer, creating the file if needed.
+  * Only one process at a time can be the writer of a file.
+  *
+  * @param fingerprint the fingerprint of the environment of the Q tables
+  * @throws IOException if the file cannot be mapped, has other dimensions or another fingerprint, or has another writer
+  */
+  public static SharedQTables openWriter(File file, int goalCount, int stateCount, int actionCount, String fingerprint)
+      throws IOException {
+    byte[] fingerprintBytes = toFingerprintBytes(fingerprint);
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+      StandardOpenOption.WRITE);
+    try {
+      FileLock lock = channel.tryLock();
+      if (lock == null) {
+        throw new IOException("The shared Q tables " + file + " already have a writer");
+      }
+
+      boolean isNew = channel.size() == 0;
+      long size = HEADER_SIZE + 8L * goalCount * stateCount * actionCount;
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      buffer.order(ByteOrder.nativeOrder());
+
+      if (isNew) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, goalCount);
+        buffer.putInt(12, stateCount);
+        buffer.putInt(16, actionCount);
+        buffer.put(FINGERPRINT_OFFSET, fingerprintBytes);
+      } else {
+        checkHeader(buffer, file, goalCount, stateCount, actionCount, fingerprint);
+      }
+
+      SharedQTables tables = new SharedQTables(channel, lock, buffer, goalCount, stateCount, actionCount);
+      // a writer that stopped while publishing leaves an odd generation behind
+      long generation = tables.getGeneration();
+      if (generation % 2 != 0) {
+        LONGS.setRelease(buffer, GENERATION_OFFSET, generation + 1);
+      }
+      tables.refresh();
+      return tables;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+  * Opens the shared Q tables of an existing file as a reader
+  *
+  * @param fingerprint the fingerprint of the environment the Q tables are used in
+  * @throws IOException if the file cannot be mapped, or has other dimensions or another fingerprint
+  */
+  public static SharedQTables openReader(File file, int goalCount, int stateCount, int actionCount, String fingerprint)
+      throws IOException {
+    toFingerprintBytes(fingerprint);
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      long size = HEADER_SIZE + 8L * goalCount * stateCount * actionCount;
+      if (channel.size() < size) {
+        throw new IOException("The shared Q tables " + file + " have " + channel.size() + " bytes, expected " + size);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      buffer.order(ByteOrder.nativeOrder());
+      checkHeader(buffer, file, goalCount, stateCount, actionCount, fingerprint);
+
+      SharedQTables tables = new SharedQTables(channel, null, buffer, goalCount, stateCount, actionCount);
+      tables.refresh();
+      return tables;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static void checkHeader(MappedByteBuffer buffer, File file, int goalCount, int stateCount, int actionCount,
+      String fingerprint) throws IOException {
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a shared Q table file: " + file);
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("The shared Q tables " + file + " have format version " + buffer.getInt(4) + ", expected "
+        + VERSION + "; they must be trained again");
+    }
+    if (buffer.getInt(8) != goalCount || buffer.getInt(12) != stateCount || buffer.getInt(16) != actionCount) {
+      throw new IOException("The shared Q tables " + file + " are for " + buffer.getInt(8) + " goals, "
+        + buffer.getInt(12) + " states and " + buffer.getInt(16) + " actions, expected " + goalCount + ", "
+        + stateCount + " and " + actionCount);
+    }
+    byte[] fileFingerprint = new byte[FINGERPRINT_LENGTH];
+    buffer.get(FINGERPRINT_OFFSET, fileFingerprint);
+    String trainedFingerprint = new String(fileFingerprint, StandardCharsets.US_ASCII);
+    if (!trainedFingerprint.equals(fingerprint)) {
+      throw new IOException("The shared Q tables " + file + " were trained in the environment " + trainedFingerprint
+        + ", expected " + fingerprint);
+    }
+  }
+
+  private static byte[] toFingerprintBytes(String fingerprint) {
+    byte[] bytes = fingerprint.getBytes(StandardCharsets.US_ASCII);
+    if (bytes.length != FINGERPRINT_LENGTH) {
+      throw new IllegalArgumentException("Invalid environment fingerprint " + fingerprint + ", expected "
+        + FINGERPRINT_LENGTH + " hexadecimal digits");
+    }
+    return bytes;
+  }
+
+  /**
+  * Returns the fingerprint of the environment the Q tables were trained in
+  */
+  public String getFingerprint() {
+    byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+    buffer.get(FINGERPRINT_OFFSET, fingerprint);
+    return new String(fingerprint, StandardCharsets.US_ASCII);
+  }
+
+  public boolean isWriter() {
+    return lock != null;
+  }
+
+  /**
+  * Returns a view of the published Q matrices. The view reads the mapped file in
+  * place; reads should be made through {@link #read(IntSupplier)}.
+  */
+  public QTensor getView() {
+    return this.view;
+  }
+
+  public long getGeneration() {
+    return (long) LONGS.getAcquire(buffer, GENERATION_OFFSET);
+  }
+
+  /**
+  * Makes the goals published since the last refresh available in the view. If no
+  * publication completes within {@link #MAX_RETRY_MILLIS}, the view keeps the goals
+  * of the last refresh.
+  *
+  * @return whether new Q matrices were published since the last refresh
+  */
+  public boolean refresh() {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_MILLIS);
+    while (true) {
+      long generation = getGeneration();
+      if (generation == mappedGeneration) {
+        return false;
+      }
+      if (generation % 2 == 0) {
+        long goals = (long) LONGS.getAcquire(buffer, GOALS_OFFSET);
+        VarHandle.acquireFence(); // the goals are read before the generation is read again
+        if (getGeneration() == generation) {
+          view.mapGoals(goals);
+          mappedGeneration = generation;
+          return true;
+        }
+      }
+      if (System.nanoTime() - deadline > 0) {
+        return false;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  /**
+  * Performs a read of the view that is consistent with a single publication, by
+  * retrying the read while a Q matrix is being published
+  *
+  * @throws IllegalStateException if no publication completes within {@link #MAX_RETRY_MILLIS}
+  */
+  public int read(IntSupplier read) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_MILLIS);
+    while (true) {
+      long generation = getGeneration();
+      if (generation % 2 == 0) {
+        int result = read.getAsInt();
+        // the plain reads of the Q values are not reordered after the generation is read again
+        VarHandle.acquireFence();
+        if (getGeneration() == generation) {
+          return result;
+        }
+      }
+      if (System.nanoTime() - deadline > 0) {
+        throw new IllegalStateException("The shared Q tables have been published for more than " + MAX_RETRY_MILLIS
+          + "ms, their writer may have stopped while publishing");
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  /**
+  * Publishes the Q matrix of a goal
+  *
+  * @param goal the goal id
+  * @param source the Q values holding the Q matrix of the goal
+  */
+  public void publish(int goal, QTensor source) {
+    if (!isWriter()) {
+      throw new IllegalStateException("Shared Q tables can only be published by their writer");
+    }
+
+    long generation = getGeneration();
+    LONGS.setRelease(buffer, GENERATION_OFFSET, generation + 1);
+    // the odd generation is visible before any of the Q values written below
+    VarHandle.storeStoreFence();
+
+    values.put(goal * sliceSize, source.copySlice(goal));
+    long goals = (long) LONGS.getAcquire(buffer, GOALS_OFFSET);
+    LONGS.setRelease(buffer, GOALS_OFFSET, goals | (1L << goal));
+
+    LONGS.setRelease(buffer, GENERATION_OFFSET, generation + 2);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (lock != null) {
+      buffer.force();
+      lock.release();
+    }
+    channel.close();
+  }
+}
@@ -0,0 +1,147 @@
+package tools;
+
+import java.util.*;
+
+/**
+* A local stand-in of the lab that extends {@link Lab}, and follows the semantics of
+* the simulated lab (see simulator/simulator_flow.json) without any HTTP interaction.
+*
+* <p> The illuminance of each zone follows from the lights, the blinds and the
+* sunshine out of the lab, and settles immediately after each action. By default,
+* the sunshine hovers around 600..650 lux, as in the simulated lab. A reset to a
+* state also sets the sunshine to a value of the sunshine level of the state.
+* </p>
+*/
+public class SimulatedLab extends Lab {
+
+  /**
+  * The prefix of the environment URLs for which a {@link QLearner} uses a
+  * {@link SimulatedLab} instead of a {@link Lab}, e.g. "local:simulator"
+  */
+  public static final String URL_PREFIX = "local:";
+
+  /**
+  * The sunshine (in lux) and its random variation used for each sunshine level
+  * after a reset
+  */
+  private static final double[] SUNSHINE_BASE = {20, 120, 600, 800};
+  private static final double[] SUNSHINE_VARIATION = {10, 50, 50, 50};
+
+  private final boolean[] devices = new boolean[4]; // z1Light, z2Light, z1Blinds, z2Blinds
+  private final Random random;
+
+  private double sunshineBase = 600;
+  private double sunshineVariation = 50;
+  private double sunshineLux;
+
+  private double totalEnergyCost = 0; // the energy cost of all performed actions
+  private long actionsPerformed = 0;
+
+  /**
+  * Constructs a {@link SimulatedLab} instance with all lights off and all blinds down
+  *
+  * @param seed the seed of the random sunshine variation
+  */
+  public SimulatedLab(long seed) {
+    super();
+    this.random = new Random(seed);
+    this.sunshineLux = nextSunshine();
+
+    createLocalActionSpace();
+
+    readCurrentState();
+  }
+
+  public SimulatedLab() {
+    this(System.nanoTime());
+  }
+
+  /**
+  * @see {@link LearningEnvironment#readCurrentState()}
+  */
+  @Override
+  public int readCurrentState() {
+    int state = predictState(getDeviceBits(), sunshineLux);
+    List<Integer> st = getStateVector(state);
+    for (int i = 0; i < st.size(); i++) {
+      currentState.set(i, st.get(i));
+    }
+    lastSunshineLux = sunshineLux;
+    return state;
+  }
+
+  /**
+  * Sets lights or blinds as the action endpoint of the simulated lab does, and
+  * advances the sunshine. Switching on a light costs 100, raising blinds costs 5.
+  *
+  * @see {@link LearningEnvironment#performAction(int)}
+  */
+  @Override
+  public void performAction(int action) {
+    Action a = actionSpace.get(action);
+
+    for (int i = 0; i < a.getPayloadTags().length; i++) {
+      int device = Arrays.asList(DEVICE_PROPERTIES).indexOf(a.getPayloadTags()[i].toString());
+      boolean value = (Boolean) a.getPayload()[i];
+
+      if (!devices[device] && value) {
+        totalEnergyCost += device < 2 ? 100 : 5;
+      }
+      devices[device] = value;
+    }
+    actionsPerformed++;
+
+    sunshineLux = nextSunshine();
+  }
+
+  /**
+  * Sets the lights, the blinds and the sunshine level of the lab to the values of a
+  * given state. The light levels follow from the lights, blinds and sunshine.
+  *
+  * @see {@link LearningEnvironment#resetState(int)}
+  */
+  @Override
+  public boolean resetState(int state) {
+    List<Integer> st = getStateVector(state);
+    for (int i = 0; i < devices.length; i++) {
+      devices[i] = st.get(2 + i) == 1;
+    }
+    sunshineBase = SUNSHINE_BASE[st.get(6)];
+    sunshineVariation = SUNSHINE_VARIATION[st.get(6)];
+    sunshineLux = nextSunshine();
+    return true;
+  }
+
+  /**
+  * Returns the states reached by every combination of lights and blinds, for every
+  * sunshine level.
+  *
+  * @see {@link LearningEnvironment#getResetStates()}
+  */
+  @Override
+  public List<Integer> getResetStates() {
+    List<Integer> resetStates = new ArrayList<>();
+    for (int level = 0; level < SUNSHINE_BASE.length; level++) {
+      for (int bits = 0; bits < 16; bits++) {
+        resetStates.add(predictState(bits, SUNSHINE_BASE[level]));
+      }
+    }
+    return resetStates;
+  }
+
+  public double getTotalEnergyCost() {
+    return this.totalEnergyCost;
+  }
+
+  public long getActionsPerformed() {
+    return this.actionsPerformed;
+  }
+
+  private int getDeviceBits() {
+    return (devices[0] ? 8 : 0) | (devices[1] ? 4 : 0) | (devices[2] ? 2 : 0) | (devices[3] ? 1 : 0);
+  }
+
+  private double nextSunshine() {
+    return sunshineBase + sunshineVariation * random.nextDouble();
+  }
+}
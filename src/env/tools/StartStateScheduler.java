@@ -0,0 +1,116 @@
+package tools;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* Chooses the start states of training episodes so that episodes are spread
+* evenly over the states that have been visited the least.
+*
+* <p> The scheduler chooses among the states that the learning environment can
+* be reset to (see {@link LearningEnvironment#getResetStates()}), and prefers the
+* candidate with the fewest visits during training plus episodes started from it.
+* Ties are broken at random.
+* </p>
+*/
+public class StartStateScheduler {
+
+  private final int[] candidates; // the states that episodes may start from
+  private final int[] visits; // the number of visits of every state during training
+  private final int[] starts; // the number of episodes started from every candidate
+  private final Random random;
+
+  /**
+  * @param candidates the states that episodes may start from
+  * @param stateCount the number of states
+  * @param random the random number generator used for breaking ties
+  */
+  public StartStateScheduler(List<Integer> candidates, int stateCount, Random random) {
+    this.candidates = candidates.stream().distinct().mapToInt(Integer::intValue).toArray();
+    this.visits = new int[stateCount];
+    this.starts = new int[this.candidates.length];
+    this.random = random;
+  }
+
+  /**
+  * Records a visit of a state during training
+  */
+  public void recordVisit(int state) {
+    if (state >= 0) {
+      visits[state]++;
+    }
+  }
+
+  /**
+  * Returns the start state of the next episode
+  */
+  public int next() {
+    int best = -1;
+    int bestCount = Integer.MAX_VALUE;
+    int ties = 0;
+
+    for (int i = 0; i < candidates.length; i++) {
+      int count = visits[candidates[i]] + starts[i];
+      if (count < bestCount) {
+        best = i;
+        bestCount = count;
+        ties = 1;
+      } else if (count == bestCount && random.nextInt(++ties) == 0) {
+        best = i;
+      }
+    }
+
+    starts[best]++;
+    return candidates[best];
+  }
+
+  public boolean isEmpty() {
+    return candidates.length == 0;
+  }
+
+  /**
+  * Returns the visits and starts recorded so far, for checkpoints
+  */
+  public byte[] saveState() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(visits.length);
+    for (int count : visits) {
+      out.writeInt(count);
+    }
+    out.writeInt(candidates.length);
+    for (int i = 0; i < candidates.length; i++) {
+      out.writeInt(candidates[i]);
+      out.writeInt(starts[i]);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+  * Restores the visits and starts returned by {@link #saveState()}. Starts from
+  * states that are no longer candidates are ignored.
+  *
+  * @throws IOException if the state is of a scheduler with another state space
+  */
+  public void restoreState(byte[] state) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+    if (in.readInt() != visits.length) {
+      throw new IOException("The checkpoint was taken with another state space");
+    }
+    for (int i = 0; i < visits.length; i++) {
+      visits[i] = in.readInt();
+    }
+    Arrays.fill(starts, 0);
+    int savedCandidates = in.readInt();
+    for (int i = 0; i < savedCandidates; i++) {
+      int candidate = in.readInt();
+      int count = in.readInt();
+      for (int j = 0; j < candidates.length; j++) {
+        if (candidates[j] == candidate) {
+          starts[j] = count;
+        }
+      }
+    }
+  }
+}
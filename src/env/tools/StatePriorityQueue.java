@@ -0,0 +1,147 @@
+package tools;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+* A max-priority queue of states backed by primitive arrays.
+*
+* <p> Every state is in the queue at most once. Adding a state that is already
+* queued keeps the larger of the two priorities.
+* </p>
+*/
+public class StatePriorityQueue {
+
+  private final int[] heap; // the queued states, ordered as a binary max-heap
+  private final int[] position; // the position of each state in the heap, -1 if not queued
+  private final double[] priority; // the priority of each queued state
+  private int size = 0;
+
+  /**
+  * @param stateCount the number of states
+  */
+  public StatePriorityQueue(int stateCount) {
+    this.heap = new int[stateCount];
+    this.position = new int[stateCount];
+    this.priority = new double[stateCount];
+    Arrays.fill(this.position, -1);
+  }
+
+  /**
+  * Adds a state with a priority, or raises the priority of a queued state
+  */
+  public void add(int state, double statePriority) {
+    int pos = position[state];
+    if (pos == -1) {
+      pos = size++;
+      heap[pos] = state;
+      position[state] = pos;
+      priority[state] = statePriority;
+      siftUp(pos);
+    } else if (statePriority > priority[state]) {
+      priority[state] = statePriority;
+      siftUp(pos);
+    }
+  }
+
+  /**
+  * Removes and returns the state with the highest priority
+  */
+  public int poll() {
+    int top = heap[0];
+    position[top] = -1;
+    size--;
+    if (size > 0) {
+      heap[0] = heap[size];
+      position[heap[0]] = 0;
+      siftDown(0);
+    }
+    return top;
+  }
+
+  /**
+  * Returns the priority of the state with the highest priority
+  */
+  public double peekPriority() {
+    return priority[heap[0]];
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      position[heap[i]] = -1;
+    }
+    size = 0;
+  }
+
+  /**
+  * Writes the queued states and their priorities, in heap order
+  */
+  void writeState(DataOutputStream out) throws IOException {
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeInt(heap[i]);
+      out.writeDouble(priority[heap[i]]);
+    }
+  }
+
+  /**
+  * Replaces the queued states with the states written by {@link #writeState}. Adding the
+  * states in heap order restores the same heap.
+  */
+  void readState(DataInputStream in) throws IOException {
+    clear();
+    int queued = in.readInt();
+    for (int i = 0; i < queued; i++) {
+      int state = in.readInt();
+      double statePriority = in.readDouble();
+      if (state < 0 || state >= heap.length) {
+        throw new IOException("The checkpoint was taken with another state space");
+      }
+      add(state, statePriority);
+    }
+  }
+
+  private void siftUp(int pos) {
+    int state = heap[pos];
+    while (pos > 0) {
+      int parent = (pos - 1) / 2;
+      if (priority[heap[parent]] >= priority[state]) {
+        break;
+      }
+      heap[pos] = heap[parent];
+      position[heap[pos]] = pos;
+      pos = parent;
+    }
+    heap[pos] = state;
+    position[state] = pos;
+  }
+
+  private void siftDown(int pos) {
+    int state = heap[pos];
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && priority[heap[child + 1]] > priority[heap[child]]) {
+        child++;
+      }
+      if (priority[heap[child]] <= priority[state]) {
+        break;
+      }
+      heap[pos] = heap[child];
+      position[heap[pos]] = pos;
+      pos = child;
+    }
+    heap[pos] = state;
+    position[state] = pos;
+  }
+}
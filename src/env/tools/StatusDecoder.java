@@ -0,0 +1,331 @@
+package tools;
+
+import java.io.IOException;
+import java.util.*;
+import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
+
+/**
+* A decoder of the JSON payload of the Status property of the lab, specialised for
+* the Status schema of the lab's Thing Description.
+*
+* <p> The decoder is built once from the object schema of the property: every
+* property of the schema is mapped to a slot of {@link Status} by its semantic type
+* (e.g. "http://example.org/was#Z1Level"). Payloads are then scanned in a single pass,
+* and the values of the mapped properties are written into the primitive fields of a
+* reusable {@link Status}, without building a map or boxing values. Lux values may be
+* integers or decimals, and device states may be booleans or 0/1. Properties that are
+* not mapped (e.g. the energy cost) are skipped.
+* </p>
+* <p> Numbers of up to 15 significant digits without exponent are computed from their
+* digits; since such a mantissa and its power of ten are exact doubles, the single
+* division is correctly rounded. Longer numbers and exponents are parsed by the JDK.
+* A decoder reuses its scanner, and decodes the payloads of one thread at a time.
+* </p>
+*/
+public class StatusDecoder {
+
+  public static final String Z1_LEVEL = "http://example.org/was#Z1Level";
+  public static final String Z2_LEVEL = "http://example.org/was#Z2Level";
+  public static final String Z1_LIGHT = "http://example.org/was#Z1Light";
+  public static final String Z2_LIGHT = "http://example.org/was#Z2Light";
+  public static final String Z1_BLINDS = "http://example.org/was#Z1Blinds";
+  public static final String Z2_BLINDS = "http://example.org/was#Z2Blinds";
+  public static final String SUNSHINE = "http://example.org/was#Sunshine";
+
+  private static final String[] SLOT_TYPES = {Z1_LEVEL, Z2_LEVEL, Z1_LIGHT, Z2_LIGHT, Z1_BLINDS, Z2_BLINDS, SUNSHINE};
+  private static final int ALL_SLOTS = (1 << SLOT_TYPES.length) - 1;
+  private static final int MAX_FAST_DIGITS = 15; // 10^15 < 2^53, so the mantissa is an exact double
+  private static final double[] POWERS_OF_TEN = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15};
+
+  private final String[] names; // the property names of the payload, by slot
+  private final Scanner scanner = new Scanner(); // reused by every decode
+
+  /**
+  * A decoded Status payload
+  */
+  public static class Status {
+    public double z1Lux;
+    public double z2Lux;
+    public boolean z1Light;
+    public boolean z2Light;
+    public boolean z1Blinds;
+    public boolean z2Blinds;
+    public double sunshineLux;
+
+    /**
+    * Returns the lights and blinds as the bits z1Light, z2Light, z1Blinds, z2Blinds
+    * (most to least significant)
+    */
+    public int getDevices() {
+      return (z1Light ? 8 : 0) | (z2Light ? 4 : 0) | (z1Blinds ? 2 : 0) | (z2Blinds ? 1 : 0);
+    }
+  }
+
+  /**
+  * @param schema the object schema of the Status property
+  * @throws IllegalArgumentException if a slot has no property in the schema
+  */
+  public StatusDecoder(ObjectSchema schema) {
+    this.names = new String[SLOT_TYPES.length];
+    for (Map.Entry<String, DataSchema> property : schema.getProperties().entrySet()) {
+      Set<String> types = property.getValue().getSemanticTypes();
+      for (int slot = 0; slot < SLOT_TYPES.length; slot++) {
+        if (types != null && types.contains(SLOT_TYPES[slot])) {
+          names[slot] = property.getKey();
+        }
+      }
+    }
+    for (int slot = 0; slot < SLOT_TYPES.length; slot++) {
+      if (names[slot] == null) {
+        throw new IllegalArgumentException("The Status schema has no property of type " + SLOT_TYPES[slot]);
+      }
+    }
+  }
+
+  /**
+  * Decodes a Status payload into a status
+  *
+  * @param payload the JSON payload
+  * @param status the status the decoded values are written into
+  * @throws IOException if the payload is not a JSON object, or misses a value of the schema
+  */
+  public void decode(CharSequence payload, Status status) throws IOException {
+    scanner.reset(payload);
+    scanner.skipWhitespace();
+    scanner.expect('{');
+    int decoded = 0;
+
+    scanner.skipWhitespace();
+    if (scanner.peek() == '}') {
+      scanner.pos++;
+    } else {
+      while (true) {
+        scanner.skipWhitespace();
+        int slot = scanner.readName(names);
+        scanner.skipWhitespace();
+        scanner.expect(':');
+        scanner.skipWhitespace();
+
+        switch (slot) {
+          case 0: status.z1Lux = scanner.readNumber(); break;
+          case 1: status.z2Lux = scanner.readNumber(); break;
+          case 2: status.z1Light = scanner.readBoolean(); break;
+          case 3: status.z2Light = scanner.readBoolean(); break;
+          case 4: status.z1Blinds = scanner.readBoolean(); break;
+          case 5: status.z2Blinds = scanner.readBoolean(); break;
+          case 6: status.sunshineLux = scanner.readNumber(); break;
+          default: scanner.skipValue();
+        }
+        if (slot >= 0) {
+          decoded |= 1 << slot;
+        }
+
+        scanner.skipWhitespace();
+        char c = scanner.next();
+        if (c == '}') {
+          break;
+        } else if (c != ',') {
+          throw scanner.error("Expected ',' or '}'");
+        }
+      }
+    }
+
+    if (decoded != ALL_SLOTS) {
+      for (int slot = 0; slot < SLOT_TYPES.length; slot++) {
+        if ((decoded & (1 << slot)) == 0) {
+          throw new IOException("The Status payload has no value for " + names[slot]);
+        }
+      }
+    }
+  }
+
+  /**
+  * A cursor over a JSON payload
+  */
+  private static class Scanner {
+    CharSequence in;
+    int pos = 0;
+
+    /**
+    * Starts scanning a payload
+    */
+    void reset(CharSequence payload) {
+      this.in = payload;
+      this.pos = 0;
+    }
+
+    char peek() throws IOException {
+      if (pos >= in.length()) {
+        throw error("Unexpected end of payload");
+      }
+      return in.charAt(pos);
+    }
+
+    char next() throws IOException {
+      char c = peek();
+      pos++;
+      return c;
+    }
+
+    void expect(char expected) throws IOException {
+      if (next() != expected) {
+        throw error("Expected '" + expected + "'");
+      }
+    }
+
+    void skipWhitespace() {
+      while (pos < in.length() && Character.isWhitespace(in.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    /**
+    * Reads a property name, and returns its index among the given names, or -1
+    */
+    int readName(String[] candidates) throws IOException {
+      expect('"');
+      int start = pos;
+      boolean escaped = false;
+      while (next() != '"') {
+        if (in.charAt(pos - 1) == '\\') {
+          escaped = true;
+          pos++;
+        }
+      }
+      int length = pos - 1 - start;
+      if (!escaped) {
+        for (int i = 0; i < candidates.length; i++) {
+          if (candidates[i].length() == length && regionMatches(start, candidates[i])) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
+    private boolean regionMatches(int start, String name) {
+      for (int i = 0; i < name.length(); i++) {
+        if (in.charAt(start + i) != name.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    double readNumber() throws IOException {
+      int start = pos;
+      boolean negative = false;
+      if (peek() == '-') {
+        negative = true;
+        pos++;
+      }
+
+      long mantissa = 0;
+      int digits = 0;
+      int scale = 0;
+      while (pos < in.length() && Character.isDigit(in.charAt(pos))) {
+        mantissa = mantissa * 10 + (in.charAt(pos++) - '0');
+        digits++;
+      }
+      if (pos < in.length() && in.charAt(pos) == '.') {
+        pos++;
+        while (pos < in.length() && Character.isDigit(in.charAt(pos))) {
+          mantissa = mantissa * 10 + (in.charAt(pos++) - '0');
+          digits++;
+          scale++;
+        }
+      }
+      if (digits == 0) {
+        throw error("Expected a number");
+      }
+
+      boolean hasExponent = pos < in.length() && (in.charAt(pos) == 'e' || in.charAt(pos) == 'E');
+      if (digits > MAX_FAST_DIGITS || hasExponent) {
+        // rare forms are parsed exactly by the JDK
+        if (hasExponent) {
+          pos++;
+          if (pos < in.length() && (in.charAt(pos) == '+' || in.charAt(pos) == '-')) {
+            pos++;
+          }
+          while (pos < in.length() && Character.isDigit(in.charAt(pos))) {
+            pos++;
+          }
+        }
+        try {
+          return Double.parseDouble(in.subSequence(start, pos).toString());
+        } catch (NumberFormatException e) {
+          throw error("Invalid number");
+        }
+      }
+
+      double value = mantissa / POWERS_OF_TEN[scale];
+      return negative ? -value : value;
+    }
+
+    boolean readBoolean() throws IOException {
+      char c = peek();
+      if (c == 't' && readLiteral("true")) {
+        return true;
+      } else if (c == 'f' && readLiteral("false")) {
+        return false;
+      } else if (c == '0' || c == '1') {
+        pos++;
+        return c == '1';
+      }
+      throw error("Expected a boolean");
+    }
+
+    private boolean readLiteral(String literal) {
+      if (pos + literal.length() <= in.length() && regionMatches(pos, literal)) {
+        pos += literal.length();
+        return true;
+      }
+      return false;
+    }
+
+    /**
+    * Skips a value of a property that is not decoded
+    */
+    void skipValue() throws IOException {
+      int depth = 0;
+      boolean inString = false;
+      while (true) {
+        char c = peek();
+        if (inString) {
+          pos++;
+          if (c == '\\') {
+            pos++;
+          } else if (c == '"') {
+            inString = false;
+            if (depth == 0) {
+              return;
+            }
+          }
+          continue;
+        }
+        if (c == '"') {
+          inString = true;
+        } else if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          if (depth == 0) {
+            return;
+          }
+          depth--;
+        } else if (c == ',' && depth == 0) {
+          return;
+        }
+        pos++;
+        if (depth == 0 && (c == '}' || c == ']')) {
+          return;
+        }
+      }
+    }
+
+    IOException error(String message) {
+      return new IOException(message + " at position " + pos + " of the Status payload");
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package tools;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+* A snapshot of a training run of the {@link QLearner}, taken between episodes, from
+* which the run can be resumed.
+*
+* <p> A checkpoint file starts with a header (the magic number "QCKP" and a format
+* version), followed by:
+* <ul>
+* <li> the goal id, the number of states and of actions (int)
+* <li> the learning rate, discount factor, exploration rate and goal reward (double)
+* <li> the next episode (int), which also determines the decayed exploration rate
+* <li> the successful episodes and the start state resets so far (int)
+* <li> the Q matrix of the goal (int length, then double values)
+* <li> the state of the convergence tracker and of the start state scheduler (int length,
+* then bytes; a length of -1 if episodes do not start from stratified states)
+* <li> the state-action visit counts (int length, then bytes; since version 2, a length of -1 if
+* the run does not count visits)
+* <li> since version 3, the model and queue of the prioritized sweeper (int length, then bytes;
+* a length of -1 if the run does not plan), and the transitions observed in the lab
+* (int length, then bytes)
+* </ul>
+* </p>
+* <p> Checkpoints are written to a temporary file that is synced to disk and then
+* atomically moved over the previous checkpoint, so that a crash while writing leaves
+* the previous checkpoint intact.
+* </p>
+*/
+public class TrainingCheckpoint {
+
+  private static final int MAGIC = 0x51434B50; // "QCKP"
+  private static final short VERSION = 3;
+
+  final int goal;
+  final int stateCount;
+  final int actionCount;
+  final double alpha;
+  final double gamma;
+  final double epsilon;
+  final double reward;
+  final int nextEpisode;
+  final int successfulEpisodes;
+  final int resets;
+  final double[] qValues;
+  final byte[] convergenceState;
+  final byte[] startStateState; // null if episodes do not start from stratified states
+  final byte[] visitState; // null if the run does not count visits, or for checkpoints of version 1
+  final byte[] sweeperState; // null if the run does not plan, or for checkpoints before version 3
+  final byte[] transitionState; // null for checkpoints before version 3
+
+  TrainingCheckpoint(int goal, int stateCount, int actionCount, double alpha, double gamma, double epsilon,
+      double reward, int nextEpisode, int successfulEpisodes, int resets, double[] qValues, byte[] convergenceState,
+      byte[] startStateState, byte[] visitState, byte[] sweeperState, byte[] transitionState) {
+    this.goal = goal;
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.alpha = alpha;
+    this.gamma = gamma;
+    this.epsilon = epsilon;
+    this.reward = reward;
+    this.nextEpisode = nextEpisode;
+    this.successfulEpisodes = successfulEpisodes;
+    this.resets = resets;
+    this.qValues = qValues;
+    this.convergenceState = convergenceState;
+    this.startStateState = startStateState;
+    this.visitState = visitState;
+    this.sweeperState = sweeperState;
+    this.transitionState = transitionState;
+  }
+
+  /**
+  * Atomically replaces the checkpoint file with this checkpoint
+  */
+  public void write(File file) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    File temp = new File(file.getPath() + ".tmp");
+
+    try (FileOutputStream fileOut = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeInt(goal);
+      out.writeInt(stateCount);
+      out.writeInt(actionCount);
+      out.writeDouble(alpha);
+      out.writeDouble(gamma);
+      out.writeDouble(epsilon);
+      out.writeDouble(reward);
+      out.writeInt(nextEpisode);
+      out.writeInt(successfulEpisodes);
+      out.writeInt(resets);
+      out.writeInt(qValues.length);
+      for (double q : qValues) {
+        out.writeDouble(q);
+      }
+      writeBytes(out, convergenceState);
+      writeBytes(out, startStateState);
+      writeBytes(out, visitState);
+      writeBytes(out, sweeperState);
+      writeBytes(out, transitionState);
+      out.flush();
+      fileOut.getFD().sync();
+    }
+
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+  * Reads a checkpoint file
+  */
+  public static TrainingCheckpoint read(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a training checkpoint: " + file);
+      }
+      short version = in.readShort();
+      if (version < 1 || version > VERSION) {
+        throw new IOException("Unsupported training checkpoint version " + version + ": " + file);
+      }
+      int goal = in.readInt();
+      int stateCount = in.readInt();
+      int actionCount = in.readInt();
+      double alpha = in.readDouble();
+      double gamma = in.readDouble();
+      double epsilon = in.readDouble();
+      double reward = in.readDouble();
+      int nextEpisode = in.readInt();
+      int successfulEpisodes = in.readInt();
+      int resets = in.readInt();
+      double[] qValues = new double[in.readInt()];
+      for (int i = 0; i < qValues.length; i++) {
+        qValues[i] = in.readDouble();
+      }
+      byte[] convergenceState = readBytes(in);
+      byte[] startStateState = readBytes(in);
+      byte[] visitState = version >= 2 ? readBytes(in) : null;
+      byte[] sweeperState = version >= 3 ? readBytes(in) : null;
+      byte[] transitionState = version >= 3 ? readBytes(in) : null;
+      return new TrainingCheckpoint(goal, stateCount, actionCount, alpha, gamma, epsilon, reward, nextEpisode,
+        successfulEpisodes, resets, qValues, convergenceState, startStateState, visitState, sweeperState,
+        transitionState);
+    } catch (EOFException e) {
+      throw new IOException("Truncated training checkpoint: " + file, e);
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,113 @@
+package tools;
+
+import java.util.*;
+
+/**
+* The optional settings of a training run of the {@link QLearner}.
+*
+* <p> Options are passed by agents as a list of [Name, Value] pairs, e.g.
+* [["q_tolerance", 0.5], ["convergence_window", 20]]. Options that are not
+* given take their default values.
+* </p>
+*/
+public class TrainingOptions {
+
+  private final Map<String, Object> options = new HashMap<>();
+
+  /**
+  * Creates the training options from a list of [Name, Value] pairs
+  *
+  * @param optionPairs the list of pairs, e.g. [["q_tolerance", 0.5]]
+  */
+  public TrainingOptions(Object[] optionPairs) {
+    for (Object option : optionPairs) {
+      if (!(option instanceof Object[]) || ((Object[]) option).length != 2) {
+        throw new IllegalArgumentException("Training options must be [Name, Value] pairs: " + option);
+      }
+      Object[] pair = (Object[]) option;
+      options.put(stripQuotes(pair[0].toString()), pair[1]);
+    }
+  }
+
+  /**
+  * Creates training options where every option takes its default value
+  */
+  public TrainingOptions() {
+    this(new Object[0]);
+  }
+
+  public boolean has(String name) {
+    return options.containsKey(name);
+  }
+
+  public double getDouble(String name, double defaultValue) {
+    return options.containsKey(name) ? Double.parseDouble(getString(name, null)) : defaultValue;
+  }
+
+  public int getInt(String name, int defaultValue) {
+    return options.containsKey(name) ? (int) Double.parseDouble(getString(name, null)) : defaultValue;
+  }
+
+  public boolean getBoolean(String name, boolean defaultValue) {
+    return options.containsKey(name) ? Boolean.parseBoolean(getString(name, null)) : defaultValue;
+  }
+
+  public String getString(String name, String defaultValue) {
+    return options.containsKey(name) ? stripQuotes(options.get(name).toString()) : defaultValue;
+  }
+
+  /**
+  * Checks that the given options, if they are set, have numeric values
+  *
+  * @throws IllegalArgumentException naming the first option whose value is not a number
+  */
+  public void requireNumbers(String... names) {
+    for (String name : names) {
+      if (options.containsKey(name)) {
+        try {
+          Double.parseDouble(getString(name, null));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid option " + name + ": " + options.get(name) + " is not a number");
+        }
+      }
+    }
+  }
+
+  /**
+  * Checks that the given options, if they are set, have the value true or false
+  *
+  * @throws IllegalArgumentException naming the first option whose value is not a boolean
+  */
+  public void requireBooleans(String... names) {
+    for (String name : names) {
+      String value = getString(name, "false");
+      if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+        throw new IllegalArgumentException("Invalid option " + name + ": " + value + " is not true or false");
+      }
+    }
+  }
+
+  /**
+  * Checks that an option, if it is set, has one of the given values
+  *
+  * @throws IllegalArgumentException if the option has another value
+  */
+  public void requireChoice(String name, String... values) {
+    if (options.containsKey(name) && !Arrays.asList(values).contains(getString(name, null))) {
+      throw new IllegalArgumentException("Invalid option " + name + ": " + getString(name, null) + ", expected one of "
+        + String.join(", ", values));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return options.toString();
+  }
+
+  private static String stripQuotes(String value) {
+    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,245 @@
+package tools;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.*;
+
+/**
+* A structured stream of training events, written to a CSV file by a background thread.
+*
+* <p> Training threads only enqueue events in a bounded queue, and never wait for the
+* file: if the queue is full, events are dropped and counted. Each event is a line of
+* the file with the columns of {@link #HEADER}. Episode events summarize an episode:
+* the step column holds the number of steps, the reward column the episode reward, the
+* state column the last state, and the latencies are means per step.
+* </p>
+* <p> Telemetry is opt-in, and configured in logging.properties:
+* <ul>
+* <li> tools.TrainingTelemetry.level: INFO records episode events, FINE also records
+* step events, and higher levels (e.g. WARNING or OFF) disable telemetry. Telemetry
+* is disabled if the level is not set, whatever the levels of the parent loggers.
+* <li> tools.TrainingTelemetry.file: the CSV file (default log/training-telemetry.csv)
+* <li> tools.TrainingTelemetry.capacity: the capacity of the queue (default 65536)
+* </ul>
+* </p>
+* <p> The queued events are written when the telemetry is closed, by {@link #close()}
+* or at the shutdown of the JVM.
+* </p>
+*/
+public class TrainingTelemetry implements AutoCloseable {
+
+  public static final String HEADER = "timestamp_ms,run,goal,event,episode,step,state,action,reward,epsilon,success,action_latency_us,read_latency_us";
+
+  private static final Logger LOGGER = Logger.getLogger(TrainingTelemetry.class.getName());
+  private static final int DEFAULT_CAPACITY = 65536;
+
+  private static TrainingTelemetry instance;
+  private static final Event CLOSE = new Event(0, "", false, 0, 0, 0, 0, 0, 0, false, 0, 0); // stops the writer
+
+  private final BlockingQueue<Event> queue;
+  private final File file;
+  private final AtomicLong runs = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private Thread writer;
+
+  /**
+  * An event of a training run
+  */
+  private static class Event {
+    final long timestamp;
+    final long run;
+    final String goal;
+    final boolean episodeEvent;
+    final int episode;
+    final int step;
+    final int state;
+    final int action;
+    final double reward;
+    final double epsilon;
+    final boolean success;
+    final long actionLatencyNanos;
+    final long readLatencyNanos;
+
+    Event(long run, String goal, boolean episodeEvent, int episode, int step, int state, int action,
+        double reward, double epsilon, boolean success, long actionLatencyNanos, long readLatencyNanos) {
+      this.timestamp = System.currentTimeMillis();
+      this.run = run;
+      this.goal = goal;
+      this.episodeEvent = episodeEvent;
+      this.episode = episode;
+      this.step = step;
+      this.state = state;
+      this.action = action;
+      this.reward = reward;
+      this.epsilon = epsilon;
+      this.success = success;
+      this.actionLatencyNanos = actionLatencyNanos;
+      this.readLatencyNanos = readLatencyNanos;
+    }
+  }
+
+  /**
+  * @param file the CSV file the events are appended to
+  * @param capacity the number of events that can be queued before events are dropped
+  */
+  public TrainingTelemetry(File file, int capacity) {
+    this.file = file;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /**
+  * Returns the telemetry shared by all learners of the JVM, configured in logging.properties
+  */
+  public static synchronized TrainingTelemetry getInstance() {
+    if (instance == null) {
+      LogManager manager = LogManager.getLogManager();
+      String path = manager.getProperty(TrainingTelemetry.class.getName() + ".file");
+      String capacity = manager.getProperty(TrainingTelemetry.class.getName() + ".capacity");
+      instance = new TrainingTelemetry(new File(path != null ? path : "log/training-telemetry.csv"),
+        capacity != null ? Integer.parseInt(capacity.trim()) : DEFAULT_CAPACITY);
+      TrainingTelemetry telemetry = instance;
+      Runtime.getRuntime().addShutdownHook(new Thread(telemetry::close, "training-telemetry-shutdown"));
+    }
+    return instance;
+  }
+
+  /**
+  * Returns whether episode events are recorded
+  */
+  public boolean isEpisodeEnabled() {
+    return LOGGER.getLevel() != null && LOGGER.isLoggable(Level.INFO);
+  }
+
+  /**
+  * Returns whether step events are recorded
+  */
+  public boolean isStepEnabled() {
+    return LOGGER.getLevel() != null && LOGGER.isLoggable(Level.FINE);
+  }
+
+  /**
+  * Returns a new identifier for a training run
+  */
+  public long newRun() {
+    return runs.incrementAndGet();
+  }
+
+  /**
+  * Records a step of an episode
+  */
+  public void step(long run, String goal, int episode, int step, int state, int action, double reward,
+      double epsilon, boolean success, long actionLatencyNanos, long readLatencyNanos) {
+    enqueue(new Event(run, goal, false, episode, step, state, action, reward, epsilon, success,
+      actionLatencyNanos, readLatencyNanos));
+  }
+
+  /**
+  * Records an episode
+  *
+  * @param steps the number of steps of the episode
+  * @param state the last state of the episode
+  * @param reward the reward of the episode
+  * @param actionLatencyNanos the total latency of the actions of the episode
+  * @param readLatencyNanos the total latency of the status reads of the episode
+  */
+  public void episode(long run, String goal, int episode, int steps, int state, double reward,
+      double epsilon, boolean success, long actionLatencyNanos, long readLatencyNanos) {
+    int perStep = Math.max(1, steps);
+    enqueue(new Event(run, goal, true, episode, steps, state, -1, reward, epsilon, success,
+      actionLatencyNanos / perStep, readLatencyNanos / perStep));
+  }
+
+  /**
+  * Returns the number of events dropped because the queue was full
+  */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+  * Writes the queued events to the file and stops the writer thread. Events recorded
+  * afterwards start a new writer thread.
+  */
+  @Override
+  public synchronized void close() {
+    if (writer == null || !writer.isAlive()) {
+      writer = null;
+      return;
+    }
+    try {
+      queue.put(CLOSE);
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.warning("Interrupted while writing training telemetry to " + file);
+    }
+    writer = null;
+  }
+
+  private void enqueue(Event event) {
+    if (!queue.offer(event)) {
+      dropped.incrementAndGet();
+      return;
+    }
+    startWriter();
+  }
+
+  private synchronized void startWriter() {
+    if (writer == null) {
+      writer = new Thread(this::write, "training-telemetry");
+      writer.setDaemon(true);
+      writer.start();
+    }
+  }
+
+  /**
+  * Writes the queued events to the file, flushing whenever the queue is drained, until
+  * the telemetry is closed
+  */
+  private void write() {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    boolean isNew = !file.exists() || file.length() == 0;
+
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+      if (isNew) {
+        out.write(HEADER);
+        out.write('\n');
+      }
+
+      List<Event> batch = new ArrayList<>();
+      StringBuilder line = new StringBuilder();
+      boolean closed = false;
+      while (!closed) {
+        batch.add(queue.take());
+        queue.drainTo(batch);
+        for (Event event : batch) {
+          if (event == CLOSE) {
+            closed = true;
+            continue;
+          }
+          line.setLength(0);
+          line.append(event.timestamp).append(',').append(event.run).append(',').append(event.goal).append(',')
+            .append(event.episodeEvent ? "episode" : "step").append(',').append(event.episode).append(',')
+            .append(event.step).append(',').append(event.state).append(',').append(event.action).append(',')
+            .append(event.reward).append(',').append(event.epsilon).append(',').append(event.success).append(',')
+            .append(event.actionLatencyNanos / 1000).append(',').append(event.readLatencyNanos / 1000).append('\n');
+          out.append(line);
+        }
+        batch.clear();
+        if (closed || queue.isEmpty()) {
+          out.flush();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      LOGGER.severe("Stopped writing training telemetry to " + file + ": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package tools;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+* A model of the transitions observed in a learning environment, which predicts the
+* most likely next state of a state-action pair.
+*
+* <p> For every state-action pair, the model keeps the observed successor states and
+* the number of times each of them was observed, in small arrays that are allocated
+* when the pair is first observed.
+* </p>
+*/
+public class TransitionModel {
+
+  private final int actionCount;
+  private final int[][] successors; // the observed successor states of every state-action pair
+  private final int[][] successorCounts; // the number of observations of every successor
+  private final int[] successorSize;
+  private final int[] visits; // the number of observations of every state-action pair
+
+  /**
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  */
+  public TransitionModel(int stateCount, int actionCount) {
+    this.actionCount = actionCount;
+    this.successors = new int[stateCount * actionCount][];
+    this.successorCounts = new int[stateCount * actionCount][];
+    this.successorSize = new int[stateCount * actionCount];
+    this.visits = new int[stateCount * actionCount];
+  }
+
+  /**
+  * Records an observed transition
+  */
+  public void observe(int state, int action, int nextState) {
+    if (state < 0 || nextState < 0) {
+      return;
+    }
+    int pair = state * actionCount + action;
+    visits[pair]++;
+
+    int size = successorSize[pair];
+    for (int i = 0; i < size; i++) {
+      if (successors[pair][i] == nextState) {
+        successorCounts[pair][i]++;
+        return;
+      }
+    }
+
+    if (successors[pair] == null) {
+      successors[pair] = new int[2];
+      successorCounts[pair] = new int[2];
+    } else if (size == successors[pair].length) {
+      successors[pair] = Arrays.copyOf(successors[pair], size * 2);
+      successorCounts[pair] = Arrays.copyOf(successorCounts[pair], size * 2);
+    }
+    successors[pair][size] = nextState;
+    successorCounts[pair][size] = 1;
+    successorSize[pair] = size + 1;
+  }
+
+  /**
+  * Returns the most frequently observed successor of a state-action pair
+  *
+  * @return the successor state, or -1 if the pair has not been observed
+  */
+  public int predict(int state, int action) {
+    int pair = state * actionCount + action;
+    int best = -1;
+    int bestCount = 0;
+    for (int i = 0; i < successorSize[pair]; i++) {
+      if (successorCounts[pair][i] > bestCount) {
+        best = successors[pair][i];
+        bestCount = successorCounts[pair][i];
+      }
+    }
+    return best;
+  }
+
+  /**
+  * Returns the share of the observations of a state-action pair that led to a state
+  */
+  public double getProbability(int state, int action, int nextState) {
+    int pair = state * actionCount + action;
+    for (int i = 0; i < successorSize[pair]; i++) {
+      if (successors[pair][i] == nextState) {
+        return (double) successorCounts[pair][i] / visits[pair];
+      }
+    }
+    return 0.0;
+  }
+
+  /**
+  * Returns the observed transitions, for checkpoints
+  */
+  public byte[] saveState() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(visits.length);
+    for (int pair = 0; pair < visits.length; pair++) {
+      out.writeInt(visits[pair]);
+      out.writeInt(successorSize[pair]);
+      for (int i = 0; i < successorSize[pair]; i++) {
+        out.writeInt(successors[pair][i]);
+        out.writeInt(successorCounts[pair][i]);
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+  * Replaces the observed transitions with the transitions returned by {@link #saveState()}
+  *
+  * @throws IOException if the state is of a model with another state or action space
+  */
+  public void restoreState(byte[] state) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+    if (in.readInt() != visits.length) {
+      throw new IOException("The checkpoint was taken with another state or action space");
+    }
+    for (int pair = 0; pair < visits.length; pair++) {
+      visits[pair] = in.readInt();
+      int size = in.readInt();
+      successors[pair] = size > 0 ? new int[size] : null;
+      successorCounts[pair] = size > 0 ? new int[size] : null;
+      successorSize[pair] = size;
+      for (int i = 0; i < size; i++) {
+        successors[pair][i] = in.readInt();
+        successorCounts[pair][i] = in.readInt();
+      }
+    }
+  }
+}
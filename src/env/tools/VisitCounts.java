@@ -0,0 +1,124 @@
+package tools;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* Counts the visits of the state-action pairs during training, and selects actions
+* by count-based exploration (UCB1).
+*
+* <p> The selected action of a state maximizes Q(s,a) + c * sqrt(ln N(s) / N(s,a)),
+* where N(s) is the number of visits of the state and N(s,a) the number of times
+* the action was taken in it. Actions that were never taken in a state are
+* selected first, so that exploration is directed at the rare state-action pairs
+* instead of revisiting well-known ones at random. Counts are kept in primitive
+* arrays indexed by state * actionCount + action.
+* </p>
+*/
+public class VisitCounts {
+
+  private final int actionCount;
+  private final int[] pairVisits; // the number of times every action was taken in every state
+  private final int[] stateVisits; // the number of actions taken in every state
+  private final double scale; // the scale c of the exploration bonus
+  private final Random random;
+  private int visitedPairs = 0;
+
+  /**
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  * @param scale the scale of the exploration bonus, in units of Q values
+  * @param random the random number generator used for breaking ties
+  */
+  public VisitCounts(int stateCount, int actionCount, double scale, Random random) {
+    this.actionCount = actionCount;
+    this.pairVisits = new int[stateCount * actionCount];
+    this.stateVisits = new int[stateCount];
+    this.scale = scale;
+    this.random = random;
+  }
+
+  /**
+  * Records that an action was taken in a state
+  */
+  public void recordVisit(int state, int action) {
+    if (pairVisits[state * actionCount + action]++ == 0) {
+      visitedPairs++;
+    }
+    stateVisits[state]++;
+  }
+
+  /**
+  * Returns the applicable action of a state with the largest Q value plus
+  * exploration bonus, preferring actions that were never taken in the state
+  *
+  * @param qTensor the Q values
+  * @param goal the goal id
+  * @param state the state
+  * @param validActions the applicable actions of the state
+  */
+  public int selectAction(QTensor qTensor, int goal, int state, int[] validActions) {
+    int offset = state * actionCount;
+    double logVisits = Math.log(Math.max(1, stateVisits[state]));
+    int best = validActions[0];
+    double bestValue = Double.NEGATIVE_INFINITY;
+    int ties = 0;
+
+    for (int action : validActions) {
+      int visits = pairVisits[offset + action];
+      double value = visits == 0
+        ? Double.POSITIVE_INFINITY
+        : qTensor.get(goal, state, action) + scale * Math.sqrt(logVisits / visits);
+      if (value > bestValue) {
+        best = action;
+        bestValue = value;
+        ties = 1;
+      } else if (value == bestValue && random.nextInt(++ties) == 0) {
+        best = action;
+      }
+    }
+    return best;
+  }
+
+  /**
+  * Returns the number of state-action pairs that were visited at least once
+  */
+  public int getVisitedPairs() {
+    return visitedPairs;
+  }
+
+  /**
+  * Returns the counts recorded so far, for checkpoints
+  */
+  public byte[] saveState() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(pairVisits.length);
+    for (int count : pairVisits) {
+      out.writeInt(count);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+  * Restores the counts returned by {@link #saveState()}
+  *
+  * @throws IOException if the state is of counts with another state or action space
+  */
+  public void restoreState(byte[] state) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+    if (in.readInt() != pairVisits.length) {
+      throw new IOException("The checkpoint was taken with another state or action space");
+    }
+    Arrays.fill(stateVisits, 0);
+    visitedPairs = 0;
+    for (int i = 0; i < pairVisits.length; i++) {
+      pairVisits[i] = in.readInt();
+      stateVisits[i / actionCount] += pairVisits[i];
+      if (pairVisits[i] > 0) {
+        visitedPairs++;
+      }
+    }
+  }
+}
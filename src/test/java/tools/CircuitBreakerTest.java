@@ -0,0 +1,111 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import org.junit.*;
+
+/**
+* Checks that the {@link CircuitBreaker} opens after consecutive failures, becomes
+* half-open with a single trial request after its open time, and closes or opens
+* again depending on the outcome of the trial.
+*/
+public class CircuitBreakerTest {
+
+  private static final int FAILURE_THRESHOLD = 2;
+  private static final long OPEN_MILLIS = 50;
+
+  private CircuitBreaker breaker;
+
+  @Before
+  public void createBreaker() {
+    breaker = new CircuitBreaker("test", FAILURE_THRESHOLD, OPEN_MILLIS);
+  }
+
+  private static void failRequest(CircuitBreaker breaker) {
+    try {
+      breaker.call(() -> {
+        throw new IOException("unavailable");
+      }, 1000);
+      fail("A failed request succeeded");
+    } catch (IOException e) {
+      assertEquals("unavailable", e.getMessage());
+    }
+  }
+
+  private static void succeedRequest(CircuitBreaker breaker) throws IOException {
+    assertEquals("ok", breaker.call(() -> "ok", 1000));
+  }
+
+  @Test
+  public void opensAfterConsecutiveFailures() throws IOException {
+    failRequest(breaker);
+    succeedRequest(breaker);
+    failRequest(breaker);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest());
+
+    failRequest(breaker);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest());
+    assertTrue(breaker.getRetryDelay() > 0 && breaker.getRetryDelay() <= OPEN_MILLIS + 1);
+  }
+
+  @Test
+  public void closesAfterASuccessfulTrial() throws Exception {
+    failRequest(breaker);
+    failRequest(breaker);
+    Thread.sleep(OPEN_MILLIS + 10);
+
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertEquals(0, breaker.getRetryDelay());
+    assertTrue(breaker.allowRequest());
+    // a single trial request at a time
+    assertFalse(breaker.allowRequest());
+
+    succeedRequest(breaker);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void opensAgainAfterAFailedTrial() throws Exception {
+    failRequest(breaker);
+    failRequest(breaker);
+    Thread.sleep(OPEN_MILLIS + 10);
+
+    assertTrue(breaker.allowRequest());
+    failRequest(breaker);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest());
+  }
+
+  @Test
+  public void countsMissedDeadlinesAsFailures() throws IOException {
+    for (int request = 0; request < FAILURE_THRESHOLD; request++) {
+      try {
+        breaker.call(() -> {
+          Thread.sleep(1000);
+          return "late";
+        }, 10);
+        fail("A request that missed its deadline succeeded");
+      } catch (IOException e) {
+        assertTrue(e.getMessage().contains("10ms"));
+      }
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void sharesBreakersByEndpoint() {
+    String endpoint = "http://localhost/" + CircuitBreakerTest.class.getName();
+    CircuitBreaker shared = CircuitBreaker.forEndpoint(endpoint, FAILURE_THRESHOLD, OPEN_MILLIS);
+    assertSame(shared, CircuitBreaker.forEndpoint(endpoint, 10, 1000));
+    assertNotSame(shared, CircuitBreaker.forEndpoint(endpoint + "/other", FAILURE_THRESHOLD, OPEN_MILLIS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidConfigurations() {
+    breaker.configure(0, OPEN_MILLIS);
+  }
+}
@@ -0,0 +1,98 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import org.junit.*;
+
+/**
+* Checks that the {@link ConvergenceTracker} only converges once its window is full,
+* at the edges of its tolerances, and that its state survives a checkpoint.
+*/
+public class ConvergenceTrackerTest {
+
+  private static final int STATES = 4;
+  private static final int WINDOW = 3;
+  private static final double Q_TOLERANCE = 0.5;
+
+  @Test
+  public void convergesOnlyWithAFullWindow() {
+    ConvergenceTracker tracker = new ConvergenceTracker(STATES, WINDOW, Q_TOLERANCE, 0);
+    assertFalse(tracker.endEpisode());
+    assertFalse(tracker.endEpisode());
+    assertTrue(tracker.endEpisode());
+    assertEquals(WINDOW, tracker.getEpisodes());
+  }
+
+  @Test
+  public void toleratesChangesUpToTheQTolerance() {
+    ConvergenceTracker tracker = new ConvergenceTracker(STATES, WINDOW, Q_TOLERANCE, 0);
+    for (int episode = 0; episode < WINDOW; episode++) {
+      tracker.recordUpdate(0, -Q_TOLERANCE, 1);
+      tracker.endEpisode();
+    }
+    assertTrue(tracker.isConverged());
+    assertEquals(Q_TOLERANCE, tracker.getWindowMaxDelta(), 0.0);
+
+    tracker.recordUpdate(0, Math.nextUp(Q_TOLERANCE), 1);
+    assertFalse(tracker.endEpisode());
+  }
+
+  @Test
+  public void forgetsChangesThatLeftTheWindow() {
+    ConvergenceTracker tracker = new ConvergenceTracker(STATES, WINDOW, Q_TOLERANCE, 0);
+    tracker.recordUpdate(0, 10.0, 1);
+    tracker.endEpisode();
+    for (int episode = 1; episode < WINDOW; episode++) {
+      assertFalse(tracker.endEpisode());
+    }
+    assertEquals(10.0, tracker.getWindowMaxDelta(), 0.0);
+
+    assertTrue(tracker.endEpisode());
+    assertEquals(0.0, tracker.getWindowMaxDelta(), 0.0);
+  }
+
+  @Test
+  public void countsGreedyPolicyChangesAfterTheFirstGreedyAction() {
+    ConvergenceTracker tracker = new ConvergenceTracker(STATES, WINDOW, Q_TOLERANCE, 1);
+    // the first greedy action of a state is not a change
+    tracker.recordUpdate(0, 0.0, 1);
+    tracker.recordUpdate(1, 0.0, 2);
+    tracker.recordUpdate(0, 0.0, 1);
+    tracker.endEpisode();
+    assertEquals(0, tracker.getWindowPolicyChanges());
+
+    tracker.recordUpdate(0, 0.0, 2);
+    tracker.endEpisode();
+    assertTrue(tracker.endEpisode());
+    assertEquals(1, tracker.getWindowPolicyChanges());
+
+    tracker.recordUpdate(1, 0.0, 0);
+    assertFalse(tracker.endEpisode());
+    assertEquals(2, tracker.getWindowPolicyChanges());
+  }
+
+  @Test
+  public void restoresItsStateFromACheckpoint() throws IOException {
+    ConvergenceTracker tracker = new ConvergenceTracker(STATES, WINDOW, Q_TOLERANCE, 0);
+    tracker.recordUpdate(2, 0.25, 1);
+    tracker.endEpisode();
+    tracker.endEpisode();
+
+    ConvergenceTracker restored = new ConvergenceTracker(STATES, WINDOW, Q_TOLERANCE, 0);
+    restored.restoreState(tracker.saveState());
+    assertEquals(2, restored.getEpisodes());
+    assertEquals(0.25, restored.getWindowMaxDelta(), 0.0);
+
+    // the greedy policy is restored too, so another greedy action is a change
+    restored.recordUpdate(2, 0.0, 3);
+    assertFalse(restored.endEpisode());
+    assertEquals(1, restored.getWindowPolicyChanges());
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsTheStateOfAnotherWindow() throws IOException {
+    ConvergenceTracker tracker = new ConvergenceTracker(STATES, WINDOW, Q_TOLERANCE, 0);
+    new ConvergenceTracker(STATES, WINDOW + 1, Q_TOLERANCE, 0).restoreState(tracker.saveState());
+  }
+}
@@ -0,0 +1,90 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/**
+* Checks that the {@link EligibilityTraces} propagate temporal difference errors back
+* along the visited state-action pairs, replace the traces of a revisited state, and
+* are cut after an exploratory action.
+*/
+public class EligibilityTracesTest {
+
+  private static final int GOAL = 0;
+  private static final int STATES = 4;
+  private static final int ACTIONS = 2;
+  private static final double GAMMA = 0.5;
+  private static final double LAMBDA = 0.8;
+
+  private EligibilityTraces traces;
+  private QTensor q;
+
+  @Before
+  public void createTraces() {
+    traces = new EligibilityTraces(STATES, ACTIONS, GAMMA, LAMBDA, 0.01);
+    q = new QTensor(1, STATES, ACTIONS);
+    q.reset(GOAL);
+  }
+
+  @Test
+  public void propagatesErrorsToThePreviousPairs() {
+    traces.visit(0, 1);
+    traces.update(q, GOAL, 1.0, 0.0, true, null);
+    traces.visit(1, 0);
+    traces.update(q, GOAL, 1.0, 10.0, true, null);
+
+    assertEquals(10.0, q.get(GOAL, 1, 0), 1e-12);
+    assertEquals(10.0 * GAMMA * LAMBDA, q.get(GOAL, 0, 1), 1e-12);
+    assertEquals(0.0, q.get(GOAL, 0, 0), 0.0);
+    assertEquals(2, traces.getActiveCount());
+  }
+
+  @Test
+  public void cutsTheTracesAfterAnExploratoryAction() {
+    traces.visit(0, 1);
+    // the next action is exploratory: the current error is applied, then the traces are cut
+    traces.update(q, GOAL, 1.0, 1.0, false, null);
+    assertEquals(1.0, q.get(GOAL, 0, 1), 1e-12);
+    assertEquals(0, traces.getActiveCount());
+
+    traces.visit(1, 0);
+    traces.update(q, GOAL, 1.0, 10.0, true, null);
+    assertEquals(10.0, q.get(GOAL, 1, 0), 1e-12);
+    assertEquals(1.0, q.get(GOAL, 0, 1), 1e-12);
+  }
+
+  @Test
+  public void replacesTheTracesOfARevisitedState() {
+    traces.visit(2, 0);
+    traces.update(q, GOAL, 1.0, 0.0, true, null);
+    traces.visit(2, 1);
+    traces.update(q, GOAL, 1.0, 4.0, true, null);
+
+    assertEquals(0.0, q.get(GOAL, 2, 0), 0.0);
+    assertEquals(4.0, q.get(GOAL, 2, 1), 1e-12);
+    assertEquals(1, traces.getActiveCount());
+  }
+
+  @Test
+  public void dropsTracesBelowTheThreshold() {
+    traces.visit(0, 0);
+    // (gamma * lambda)^n = 0.4^n falls below 0.01 at the 6th decay
+    for (int step = 0; step < 6; step++) {
+      assertEquals(1, traces.getActiveCount());
+      traces.update(q, GOAL, 1.0, 0.0, true, null);
+    }
+    assertEquals(0, traces.getActiveCount());
+  }
+
+  @Test
+  public void resetClearsAllTraces() {
+    traces.visit(0, 0);
+    traces.visit(3, 1);
+    traces.reset();
+    assertEquals(0, traces.getActiveCount());
+
+    traces.update(q, GOAL, 1.0, 5.0, true, (state, delta) -> fail("Updated state " + state + " after a reset"));
+    assertEquals(0.0, q.get(GOAL, 0, 0), 0.0);
+  }
+}
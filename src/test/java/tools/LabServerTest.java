@@ -0,0 +1,78 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import org.junit.*;
+
+import ch.unisg.ics.interactions.wot.td.ThingDescription;
+import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
+import ch.unisg.ics.interactions.wot.td.affordances.ActionAffordance;
+import ch.unisg.ics.interactions.wot.td.affordances.PropertyAffordance;
+import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
+import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
+import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+
+/**
+* Checks that the Thing Description served by the {@link LabServer} is read by
+* wot-td-java, and that a {@link Lab} reads the state of the server and performs
+* actions on it.
+*/
+public class LabServerTest {
+
+  private LabServer server;
+
+  @Before
+  public void startServer() throws Exception {
+    // no periodic updates, the environment is updated on every status read
+    server = new LabServer(0, 2, 0, 42);
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop();
+  }
+
+  @Test
+  public void thingDescriptionIsReadByTDGraphReader() throws Exception {
+    ThingDescription td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, server.getThingDescriptionURL());
+
+    Optional<PropertyAffordance> status = td.getFirstPropertyBySemanticType("https://example.org/was#Status");
+    assertTrue("no Status property affordance", status.isPresent());
+    assertTrue(status.get().getFirstFormForOperationType(TD.readProperty).isPresent());
+    assertTrue(status.get().getDataSchema() instanceof ObjectSchema);
+
+    for (String type : Lab.DEVICE_AFFORDANCE_TYPES) {
+      Optional<ActionAffordance> action = td.getFirstActionBySemanticType(type);
+      assertTrue("no action affordance " + type, action.isPresent());
+      assertTrue(action.get().getFirstFormForOperationType(TD.invokeAction).isPresent());
+      assertTrue(action.get().getInputSchema().isPresent());
+      assertEquals(1, ((ObjectSchema) action.get().getInputSchema().get()).getProperties().size());
+    }
+  }
+
+  @Test
+  public void labReadsTheStateAndPerformsActions() {
+    Lab lab = new Lab(server.getThingDescriptionURL());
+    assertEquals(1024, lab.getStateCount());
+    assertEquals(8, lab.getActionCount());
+
+    long statusRequests = server.getStatusRequests();
+    int state = lab.readCurrentState();
+    assertTrue(state >= 0);
+    assertEquals(statusRequests + 1, server.getStatusRequests());
+    assertEquals(Integer.valueOf(0), lab.getStateVector(state).get(2));
+
+    int turnOnZ1Light = lab.getActionKey("http://example.org/was#SetZ1Light", new Object[]{"Z1Light"}, new Object[]{true});
+    assertTrue(turnOnZ1Light >= 0);
+    assertTrue(lab.getApplicableActions(state).contains(turnOnZ1Light));
+
+    lab.performAction(turnOnZ1Light);
+    assertEquals(1, server.getActionRequests());
+
+    state = lab.readCurrentState();
+    assertTrue(state >= 0);
+    assertEquals(Integer.valueOf(1), lab.getStateVector(state).get(2));
+  }
+}
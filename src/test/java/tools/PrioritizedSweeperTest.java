@@ -0,0 +1,80 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/**
+* Checks that the backups of the {@link PrioritizedSweeper} propagate rewards to the
+* predecessors of the backed up states, weigh the observed successors by their counts,
+* and bootstrap no future value from goal states.
+*/
+public class PrioritizedSweeperTest {
+
+  private static final int GOAL = 0;
+  private static final int STATES = 4;
+  private static final int ACTIONS = 1;
+  private static final double GAMMA = 0.5;
+
+  // a chain 0 -> 1 -> 2, where 2 is the goal, and a state 3 whose action leads to 1 or 2
+  private static final int[][] APPLICABLE_ACTIONS = {{0}, {0}, {0}, {0}};
+  private static final boolean[] GOAL_STATES = {false, false, true, false};
+
+  private PrioritizedSweeper sweeper;
+  private QTensor q;
+
+  @Before
+  public void createSweeper() {
+    sweeper = new PrioritizedSweeper(STATES, ACTIONS, APPLICABLE_ACTIONS, GOAL_STATES, GAMMA, 0.01);
+    q = new QTensor(1, STATES, ACTIONS);
+    q.reset(GOAL);
+  }
+
+  @Test
+  public void propagatesBackupsToPredecessors() {
+    sweeper.observe(q, GOAL, 0, 0, 0.0, 1);
+    assertEquals(0, sweeper.getQueueSize());
+    sweeper.observe(q, GOAL, 1, 0, 10.0, 2);
+    assertEquals(1, sweeper.getQueueSize());
+
+    sweeper.sweep(q, GOAL, 1, null);
+    assertEquals(10.0, q.get(GOAL, 1, 0), 1e-12);
+    // the backup of state 1 queued its predecessor 0
+    assertEquals(1, sweeper.getQueueSize());
+
+    sweeper.sweep(q, GOAL, 1, null);
+    assertEquals(GAMMA * 10.0, q.get(GOAL, 0, 0), 1e-12);
+    assertEquals(2, sweeper.getBackups());
+  }
+
+  @Test
+  public void bootstrapsNoFutureValueFromGoalStates() {
+    q.set(GOAL, 2, 0, 100.0);
+    sweeper.observe(q, GOAL, 1, 0, 10.0, 2);
+    sweeper.sweep(q, GOAL, 10, null);
+    assertEquals(10.0, q.get(GOAL, 1, 0), 1e-12);
+  }
+
+  @Test
+  public void weighsSuccessorsByTheirObservations() {
+    q.set(GOAL, 1, 0, 8.0);
+    sweeper.observe(q, GOAL, 3, 0, 1.0, 1);
+    sweeper.observe(q, GOAL, 3, 0, 1.0, 1);
+    sweeper.observe(q, GOAL, 3, 0, 4.0, 2);
+
+    sweeper.sweep(q, GOAL, 1, null);
+    // the mean reward 2, and 2/3 of the discounted value of state 1; the goal adds no future value
+    assertEquals(2.0 + GAMMA * 8.0 * 2 / 3, q.get(GOAL, 3, 0), 1e-12);
+  }
+
+  @Test
+  public void reportsEveryAppliedUpdate() {
+    sweeper.observe(q, GOAL, 0, 0, 0.0, 1);
+    sweeper.observe(q, GOAL, 1, 0, 10.0, 2);
+
+    double[] deltas = new double[STATES];
+    sweeper.sweep(q, GOAL, 10, (state, delta) -> deltas[state] += delta);
+    assertArrayEquals(new double[]{GAMMA * 10.0, 10.0, 0.0, 0.0}, deltas, 1e-12);
+    assertEquals(0, sweeper.getQueueSize());
+  }
+}
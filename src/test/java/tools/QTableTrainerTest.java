@@ -0,0 +1,53 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+* Checks that the Q-tables written by the {@link QTableTrainer} against its default
+* local stand-in of the lab are loaded by the learning of a {@link Lab} described by
+* the Thing Description of a {@link LabServer}, as the QLearner of an agent loads them.
+*/
+public class QTableTrainerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private LabServer server;
+
+  @Before
+  public void startServer() throws Exception {
+    server = new LabServer(0, 2, 0, 42);
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop();
+  }
+
+  @Test
+  public void trainedQTablesAreLoadedIntoTheLab() throws Exception {
+    File output = new File(folder.getRoot(), "qtables.bin");
+    // the default environment, learning parameters and options, with fewer episodes
+    QTableTrainer.main(new String[]{SimulatedLab.URL_PREFIX + "simulator", "2-3", "50", "0.2", "0.8", "0.3",
+      output.getPath()});
+
+    Lab lab = new Lab(server.getThingDescriptionURL());
+    assertEquals(new SimulatedLab().getFingerprint(), lab.getFingerprint());
+
+    QLearning learning = new QLearning(lab);
+    List<Object[]> loaded = learning.loadQTables(output);
+    assertEquals(1, loaded.size());
+    assertArrayEquals(new Object[]{2, 3}, loaded.get(0));
+
+    QLearning.Decision decision = learning.decide(new Object[]{2, 3},
+      new Object[]{0, 0, false, false, false, false, 0}, QLearning.DEFAULT_MAX_STATE_AGE);
+    assertEquals("ok", decision.status);
+    assertNotNull(decision.action);
+  }
+}
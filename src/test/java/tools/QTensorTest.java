@@ -0,0 +1,113 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.nio.DoubleBuffer;
+import org.junit.*;
+
+/**
+* Checks that the {@link QTensor} breaks argmax ties in favour of the first listed
+* action, only scans the listed actions, keeps the Q values of every goal while its
+* storage grows, and maps the slices of views by goal.
+*/
+public class QTensorTest {
+
+  private static final int GOALS = 16;
+  private static final int STATES = 3;
+  private static final int ACTIONS = 4;
+
+  private QTensor tensor;
+
+  @Before
+  public void createTensor() {
+    tensor = new QTensor(GOALS, STATES, ACTIONS);
+  }
+
+  @Test
+  public void breaksTiesInFavourOfTheFirstListedAction() {
+    tensor.reset(0);
+    tensor.set(0, 1, 1, 2.0);
+    tensor.set(0, 1, 3, 2.0);
+
+    assertEquals(1, tensor.argmax(0, 1, new int[]{0, 1, 2, 3}));
+    assertEquals(3, tensor.argmax(0, 1, new int[]{3, 1}));
+    // all Q values are 0.0 in state 0
+    assertEquals(2, tensor.argmax(0, 0, new int[]{2, 0}));
+  }
+
+  @Test
+  public void scansOnlyTheListedActions() {
+    tensor.reset(0);
+    tensor.set(0, 2, 0, -1.0);
+    tensor.set(0, 2, 1, -3.0);
+    tensor.set(0, 2, 2, 5.0);
+
+    assertEquals(0, tensor.argmax(0, 2, new int[]{0, 1}));
+    assertEquals(-1.0, tensor.max(0, 2, new int[]{1, 0}), 0.0);
+    assertEquals(-1, tensor.argmax(0, 2, new int[0]));
+    assertEquals(0.0, tensor.max(0, 2, new int[0]), 0.0);
+  }
+
+  @Test
+  public void keepsTheQValuesOfEveryGoalWhileGrowing() {
+    assertTrue(tensor.isEmpty());
+    for (int goal = GOALS - 1; goal >= 0; goal--) {
+      tensor.reset(goal);
+      tensor.set(goal, STATES - 1, ACTIONS - 1, goal);
+      tensor.add(goal, 0, 0, goal + 0.5);
+    }
+
+    assertFalse(tensor.isEmpty());
+    for (int goal = 0; goal < GOALS; goal++) {
+      assertTrue(tensor.has(goal));
+      assertEquals(goal, tensor.get(goal, STATES - 1, ACTIONS - 1), 0.0);
+      assertEquals(goal + 0.5, tensor.get(goal, 0, 0), 0.0);
+    }
+  }
+
+  @Test
+  public void resetClearsOnlyItsGoal() {
+    tensor.reset(3);
+    tensor.reset(7);
+    tensor.set(3, 1, 2, 4.0);
+    tensor.set(7, 1, 2, 8.0);
+
+    tensor.reset(3);
+    assertEquals(0.0, tensor.get(3, 1, 2), 0.0);
+    assertEquals(8.0, tensor.get(7, 1, 2), 0.0);
+    assertFalse(tensor.has(4));
+    assertFalse(tensor.has(GOALS));
+  }
+
+  @Test
+  public void copiesAndSetsSlices() {
+    double[] slice = new double[STATES * ACTIONS];
+    for (int i = 0; i < slice.length; i++) {
+      slice[i] = i;
+    }
+    tensor.setSlice(5, slice);
+
+    assertTrue(tensor.has(5));
+    assertEquals(1 * ACTIONS + 2, tensor.get(5, 1, 2), 0.0);
+    assertArrayEquals(slice, tensor.copySlice(5), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsSlicesOfAnotherSize() {
+    tensor.setSlice(0, new double[STATES * ACTIONS + 1]);
+  }
+
+  @Test
+  public void viewsMapTheSliceOfEveryGoal() {
+    DoubleBuffer values = DoubleBuffer.allocate(GOALS * STATES * ACTIONS);
+    values.put(2 * STATES * ACTIONS + ACTIONS + 3, 9.0);
+    QTensor view = new QTensor(values, GOALS, STATES, ACTIONS);
+    assertTrue(view.isEmpty());
+
+    view.mapGoals(1L << 2);
+    assertTrue(view.has(2));
+    assertFalse(view.has(0));
+    assertEquals(9.0, view.get(2, 1, 3), 0.0);
+    assertEquals(3, view.argmax(2, 1, new int[]{0, 1, 2, 3}));
+  }
+}
@@ -0,0 +1,89 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/**
+* Checks that the {@link RateLimiter} lets a burst through at once and then paces
+* requests, backs off after failed and slow requests, recovers while requests
+* succeed, and is shared by the requests of a kind to an endpoint.
+*/
+public class RateLimiterTest {
+
+  private static final double RATE = 100.0;
+
+  @Test
+  public void letsABurstThroughThenPacesRequests() {
+    RateLimiter limiter = new RateLimiter("test", RATE, 5);
+    long start = System.nanoTime();
+    for (int request = 0; request < 5; request++) {
+      limiter.acquire();
+    }
+    assertTrue("The burst waited", System.nanoTime() - start < 40_000_000L);
+
+    start = System.nanoTime();
+    for (int request = 0; request < 5; request++) {
+      limiter.acquire();
+    }
+    // 5 requests beyond the burst take about 50ms at 100 requests/s
+    assertTrue("The requests beyond the burst were not paced", System.nanoTime() - start >= 35_000_000L);
+  }
+
+  @Test
+  public void backsOffAfterFailuresAndRecovers() {
+    RateLimiter limiter = new RateLimiter("test", RATE, 1);
+    limiter.onError();
+    assertEquals(RATE / 2, limiter.getRate(), 1e-9);
+    limiter.onError();
+    assertEquals(RATE / 4, limiter.getRate(), 1e-9);
+
+    limiter.onSuccess(1_000_000L);
+    assertEquals(RATE / 4 + 0.05 * RATE, limiter.getRate(), 1e-9);
+    for (int request = 0; request < 100; request++) {
+      limiter.onSuccess(1_000_000L);
+    }
+    assertEquals(RATE, limiter.getRate(), 1e-9);
+  }
+
+  @Test
+  public void neverBacksOffBelowItsMinimumRate() {
+    RateLimiter limiter = new RateLimiter("test", RATE, 1);
+    for (int request = 0; request < 20; request++) {
+      limiter.onError();
+    }
+    assertEquals(0.05 * RATE, limiter.getRate(), 1e-9);
+  }
+
+  @Test
+  public void backsOffAfterSlowRequests() {
+    RateLimiter limiter = new RateLimiter("test", RATE, 1);
+    limiter.onSuccess(1_000_000L);
+    assertEquals(RATE, limiter.getRate(), 1e-9);
+
+    limiter.onSuccess(10_000_000L);
+    assertEquals(0.8 * RATE, limiter.getRate(), 1e-9);
+  }
+
+  @Test
+  public void configureResetsTheBackOff() {
+    RateLimiter limiter = new RateLimiter("test", RATE, 1);
+    limiter.onError();
+    limiter.configure(2 * RATE, 10);
+    assertEquals(2 * RATE, limiter.getRate(), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidRates() {
+    new RateLimiter("test", 0, 1);
+  }
+
+  @Test
+  public void sharesLimitersByEndpointAndKind() {
+    String endpoint = "http://localhost/" + RateLimiterTest.class.getName();
+    RateLimiter reads = RateLimiter.forEndpoint(endpoint, "read", RATE, 1);
+    assertSame(reads, RateLimiter.forEndpoint(endpoint, "read", 2 * RATE, 2));
+    assertNotSame(reads, RateLimiter.forEndpoint(endpoint, "action", RATE, 1));
+    assertEquals(RATE, reads.getRate(), 0.0);
+  }
+}
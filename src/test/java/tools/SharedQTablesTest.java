@@ -0,0 +1,137 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+* Checks that Q tables published by the writer of {@link SharedQTables} are read back
+* by readers and by later writers of the same file, that readers stop retrying when a
+* writer stopped while publishing, and that files of other dimensions or environments
+* are rejected.
+*/
+public class SharedQTablesTest {
+
+  private static final int GOALS = 16;
+  private static final int STATES = 4;
+  private static final int ACTIONS = 3;
+  private static final String FINGERPRINT = "0123456789abcdef";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void createFile() throws IOException {
+    file = new File(folder.getRoot(), "qtables.bin");
+  }
+
+  private static QTensor createTensor(int goal, double offset) {
+    QTensor tensor = new QTensor(GOALS, STATES, ACTIONS);
+    tensor.reset(goal);
+    for (int state = 0; state < STATES; state++) {
+      for (int action = 0; action < ACTIONS; action++) {
+        tensor.set(goal, state, action, offset + state * ACTIONS + action);
+      }
+    }
+    return tensor;
+  }
+
+  @Test
+  public void readerReadsPublishedQTables() throws IOException {
+    try (SharedQTables writer = SharedQTables.openWriter(file, GOALS, STATES, ACTIONS, FINGERPRINT);
+        SharedQTables reader = SharedQTables.openReader(file, GOALS, STATES, ACTIONS, FINGERPRINT)) {
+      assertTrue(writer.isWriter());
+      assertFalse(reader.isWriter());
+      assertFalse(reader.refresh());
+      assertTrue(reader.getView().isEmpty());
+
+      writer.publish(5, createTensor(5, 0.5));
+      assertEquals(2, writer.getGeneration());
+      assertTrue(reader.refresh());
+
+      QTensor view = reader.getView();
+      assertTrue(view.has(5));
+      assertFalse(view.has(4));
+      assertArrayEquals(createTensor(5, 0.5).copySlice(5), view.copySlice(5), 0.0);
+      assertEquals(ACTIONS - 1, reader.read(() -> view.argmax(5, 2, new int[]{0, 1, 2})));
+      assertEquals(FINGERPRINT, reader.getFingerprint());
+    }
+  }
+
+  @Test
+  public void reopenedFileKeepsPublishedQTables() throws IOException {
+    try (SharedQTables writer = SharedQTables.openWriter(file, GOALS, STATES, ACTIONS, FINGERPRINT)) {
+      writer.publish(1, createTensor(1, 10));
+      writer.publish(15, createTensor(15, -10));
+    }
+
+    try (SharedQTables writer = SharedQTables.openWriter(file, GOALS, STATES, ACTIONS, FINGERPRINT)) {
+      QTensor view = writer.getView();
+      assertTrue(view.has(1));
+      assertTrue(view.has(15));
+      assertEquals(-10 + STATES * ACTIONS - 1, view.get(15, STATES - 1, ACTIONS - 1), 0.0);
+
+      writer.publish(1, createTensor(1, 20));
+    }
+
+    try (SharedQTables reader = SharedQTables.openReader(file, GOALS, STATES, ACTIONS, FINGERPRINT)) {
+      assertArrayEquals(createTensor(1, 20).copySlice(1), reader.getView().copySlice(1), 0.0);
+      assertArrayEquals(createTensor(15, -10).copySlice(15), reader.getView().copySlice(15), 0.0);
+    }
+  }
+
+  @Test
+  public void readerGivesUpOnStoppedWriter() throws IOException {
+    try (SharedQTables writer = SharedQTables.openWriter(file, GOALS, STATES, ACTIONS, FINGERPRINT)) {
+      writer.publish(5, createTensor(5, 0.5));
+    }
+
+    try (SharedQTables reader = SharedQTables.openReader(file, GOALS, STATES, ACTIONS, FINGERPRINT);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // a writer that stopped while publishing leaves an odd generation behind
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, SharedQTables.HEADER_SIZE);
+      header.order(ByteOrder.nativeOrder()).putLong(SharedQTables.GENERATION_OFFSET, 3);
+
+      assertFalse(reader.refresh());
+      assertTrue(reader.getView().has(5));
+      try {
+        reader.read(() -> reader.getView().argmax(5, 2, new int[]{0, 1, 2}));
+        fail("Read Q tables that are being published");
+      } catch (IllegalStateException e) {
+        assertTrue(e.getMessage().contains(SharedQTables.MAX_RETRY_MILLIS + "ms"));
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsOtherDimensions() throws IOException {
+    SharedQTables.openWriter(file, GOALS, STATES, ACTIONS, FINGERPRINT).close();
+    SharedQTables.openReader(file, GOALS, STATES, ACTIONS + 1, FINGERPRINT).close();
+  }
+
+  @Test
+  public void rejectsOtherEnvironments() throws IOException {
+    SharedQTables.openWriter(file, GOALS, STATES, ACTIONS, FINGERPRINT).close();
+    try {
+      SharedQTables.openReader(file, GOALS, STATES, ACTIONS, "fedcba9876543210").close();
+      fail("Read Q tables of another environment");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains(FINGERPRINT));
+    }
+    try {
+      SharedQTables.openWriter(file, GOALS, STATES, ACTIONS, "fedcba9876543210").close();
+      fail("Wrote Q tables of another environment");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains(FINGERPRINT));
+    }
+  }
+}
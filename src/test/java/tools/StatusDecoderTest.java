@@ -0,0 +1,139 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import org.junit.*;
+
+import ch.unisg.ics.interactions.wot.td.schemas.BooleanSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.NumberSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
+
+/**
+* Checks that the {@link StatusDecoder} decodes the Status payloads of the lab, with
+* the numbers the JDK parses, and rejects payloads that are malformed or miss a value
+* of the schema.
+*/
+public class StatusDecoderTest {
+
+  private static final String PAYLOAD = "{\"Z1Level\":120,\"Z2Level\":45.5,\"Z1Light\":true,\"Z2Light\":false,"
+    + "\"Z1Blinds\":false,\"Z2Blinds\":true,\"Sunshine\":812.25}";
+
+  private StatusDecoder decoder;
+  private StatusDecoder.Status status;
+
+  @Before
+  public void createDecoder() {
+    decoder = new StatusDecoder(new ObjectSchema.Builder()
+      .addProperty("Z1Level", new NumberSchema.Builder().addSemanticType(StatusDecoder.Z1_LEVEL).build())
+      .addProperty("Z2Level", new NumberSchema.Builder().addSemanticType(StatusDecoder.Z2_LEVEL).build())
+      .addProperty("Z1Light", new BooleanSchema.Builder().addSemanticType(StatusDecoder.Z1_LIGHT).build())
+      .addProperty("Z2Light", new BooleanSchema.Builder().addSemanticType(StatusDecoder.Z2_LIGHT).build())
+      .addProperty("Z1Blinds", new BooleanSchema.Builder().addSemanticType(StatusDecoder.Z1_BLINDS).build())
+      .addProperty("Z2Blinds", new BooleanSchema.Builder().addSemanticType(StatusDecoder.Z2_BLINDS).build())
+      .addProperty("Sunshine", new NumberSchema.Builder().addSemanticType(StatusDecoder.SUNSHINE).build())
+      .build());
+    status = new StatusDecoder.Status();
+  }
+
+  @Test
+  public void decodesIntegerAndDecimalLux() throws IOException {
+    decoder.decode(PAYLOAD, status);
+    assertEquals(120.0, status.z1Lux, 0.0);
+    assertEquals(45.5, status.z2Lux, 0.0);
+    assertEquals(812.25, status.sunshineLux, 0.0);
+    assertEquals(0b1001, status.getDevices());
+
+    decoder.decode(" { \"Sunshine\" : -1.5E1 , \"Z1Level\":0.001,\"Z2Level\":3,\"Z1Light\":false,"
+      + "\"Z2Light\":true,\"Z1Blinds\":true,\"Z2Blinds\":true } ", status);
+    assertEquals(0.001, status.z1Lux, 0.0);
+    assertEquals(3.0, status.z2Lux, 0.0);
+    assertEquals(-15.0, status.sunshineLux, 0.0);
+    assertEquals(0b0111, status.getDevices());
+  }
+
+  @Test
+  public void decodesNumbersAsTheJdkDoes() throws IOException {
+    // up to 15 significant digits, and longer numbers that fall back to the JDK
+    String[] numbers = {"0.123456789012345", "999999999999999", "123456789012345.67", "0.30000000000000004",
+      "9007199254740993", "812.2500000000001", "-0.000000000000000000001"};
+    for (String number : numbers) {
+      decoder.decode(PAYLOAD.replace("812.25", number), status);
+      assertEquals(number, Double.parseDouble(number), status.sunshineLux, 0.0);
+    }
+  }
+
+  @Test
+  public void decodesAfterAFailedDecode() throws IOException {
+    try {
+      decoder.decode(PAYLOAD.substring(0, PAYLOAD.length() / 2), status);
+      fail("Decoded a truncated payload");
+    } catch (IOException e) {
+      // expected
+    }
+    decoder.decode(PAYLOAD, status);
+    assertEquals(812.25, status.sunshineLux, 0.0);
+  }
+
+  @Test
+  public void decodesZeroAndOneAsBooleans() throws IOException {
+    decoder.decode("{\"Z1Level\":1,\"Z2Level\":2,\"Z1Light\":1,\"Z2Light\":0,\"Z1Blinds\":0,\"Z2Blinds\":1,"
+      + "\"Sunshine\":3}", status);
+    assertTrue(status.z1Light);
+    assertFalse(status.z2Light);
+    assertFalse(status.z1Blinds);
+    assertTrue(status.z2Blinds);
+  }
+
+  @Test
+  public void skipsUnknownProperties() throws IOException {
+    decoder.decode("{\"TotalEnergyCost\":3.5e2,\"Hour\":{\"x\":[1,\"}\"]},\"Note\":\"a,\\\"b\\\"\","
+      + PAYLOAD.substring(1), status);
+    assertEquals(120.0, status.z1Lux, 0.0);
+    assertEquals(812.25, status.sunshineLux, 0.0);
+  }
+
+  @Test
+  public void doesNotMatchEscapedNames() throws IOException {
+    // an escaped name is skipped like an unknown property, even if it unescapes to a property of the schema
+    String payload = PAYLOAD.replace("\"Z1Level\":120", "\"Z1\\u004cevel\":120");
+    try {
+      decoder.decode(payload, status);
+      fail("Decoded a payload without Z1Level");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("Z1Level"));
+    }
+
+    decoder.decode("{\"No\\\"te\":1," + PAYLOAD.substring(1), status);
+    assertEquals(120.0, status.z1Lux, 0.0);
+  }
+
+  @Test
+  public void rejectsTruncatedPayloads() {
+    for (int length = 0; length < PAYLOAD.length(); length++) {
+      try {
+        decoder.decode(PAYLOAD.substring(0, length), status);
+        fail("Decoded the truncated payload " + PAYLOAD.substring(0, length));
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsMissingValues() throws IOException {
+    decoder.decode("{\"Z1Level\":1}", status);
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsMalformedValues() throws IOException {
+    decoder.decode(PAYLOAD.replace("true", "yes"), status);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsSchemasWithoutAllProperties() {
+    new StatusDecoder(new ObjectSchema.Builder()
+      .addProperty("Z1Level", new NumberSchema.Builder().addSemanticType(StatusDecoder.Z1_LEVEL).build())
+      .build());
+  }
+}
@@ -0,0 +1,131 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+* Checks that a {@link TrainingCheckpoint} is read back as written, and that checkpoints
+* written in the formats of earlier versions are still read.
+*/
+public class TrainingCheckpointTest {
+
+  private static final int MAGIC = 0x51434B50; // "QCKP"
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void createFile() {
+    file = new File(folder.getRoot(), "training.ckp");
+  }
+
+  /**
+  * Writes the fields that are common to all versions of the format
+  */
+  private DataOutputStream writeCommonFields(short version) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    out.writeInt(MAGIC);
+    out.writeShort(version);
+    out.writeInt(9); // goal
+    out.writeInt(2); // states
+    out.writeInt(2); // actions
+    out.writeDouble(0.2);
+    out.writeDouble(0.8);
+    out.writeDouble(0.3);
+    out.writeDouble(100.0);
+    out.writeInt(40); // next episode
+    out.writeInt(12); // successful episodes
+    out.writeInt(3); // resets
+    out.writeInt(4);
+    for (int i = 0; i < 4; i++) {
+      out.writeDouble(i * 1.5);
+    }
+    writeBytes(out, new byte[]{1, 2, 3});
+    writeBytes(out, null);
+    return out;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes == null ? -1 : bytes.length);
+    if (bytes != null) {
+      out.write(bytes);
+    }
+  }
+
+  private static void assertCommonFields(TrainingCheckpoint checkpoint) {
+    assertEquals(9, checkpoint.goal);
+    assertEquals(2, checkpoint.stateCount);
+    assertEquals(2, checkpoint.actionCount);
+    assertEquals(0.2, checkpoint.alpha, 0.0);
+    assertEquals(0.8, checkpoint.gamma, 0.0);
+    assertEquals(0.3, checkpoint.epsilon, 0.0);
+    assertEquals(100.0, checkpoint.reward, 0.0);
+    assertEquals(40, checkpoint.nextEpisode);
+    assertEquals(12, checkpoint.successfulEpisodes);
+    assertEquals(3, checkpoint.resets);
+    assertArrayEquals(new double[]{0, 1.5, 3, 4.5}, checkpoint.qValues, 0.0);
+    assertArrayEquals(new byte[]{1, 2, 3}, checkpoint.convergenceState);
+    assertNull(checkpoint.startStateState);
+  }
+
+  @Test
+  public void readsWrittenCheckpoint() throws IOException {
+    new TrainingCheckpoint(9, 2, 2, 0.2, 0.8, 0.3, 100.0, 40, 12, 3, new double[]{0, 1.5, 3, 4.5},
+      new byte[]{1, 2, 3}, null, new byte[]{4}, new byte[]{5, 6}, new byte[0]).write(file);
+
+    TrainingCheckpoint checkpoint = TrainingCheckpoint.read(file);
+    assertCommonFields(checkpoint);
+    assertArrayEquals(new byte[]{4}, checkpoint.visitState);
+    assertArrayEquals(new byte[]{5, 6}, checkpoint.sweeperState);
+    assertArrayEquals(new byte[0], checkpoint.transitionState);
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+  }
+
+  @Test
+  public void readsVersion1() throws IOException {
+    try (DataOutputStream out = writeCommonFields((short) 1)) {
+      out.flush();
+    }
+
+    TrainingCheckpoint checkpoint = TrainingCheckpoint.read(file);
+    assertCommonFields(checkpoint);
+    assertNull(checkpoint.visitState);
+    assertNull(checkpoint.sweeperState);
+    assertNull(checkpoint.transitionState);
+  }
+
+  @Test
+  public void readsVersion2() throws IOException {
+    try (DataOutputStream out = writeCommonFields((short) 2)) {
+      writeBytes(out, new byte[]{7, 8});
+    }
+
+    TrainingCheckpoint checkpoint = TrainingCheckpoint.read(file);
+    assertCommonFields(checkpoint);
+    assertArrayEquals(new byte[]{7, 8}, checkpoint.visitState);
+    assertNull(checkpoint.sweeperState);
+    assertNull(checkpoint.transitionState);
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsUnknownVersions() throws IOException {
+    try (DataOutputStream out = writeCommonFields((short) 99)) {
+      out.flush();
+    }
+    TrainingCheckpoint.read(file);
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsTruncatedCheckpoints() throws IOException {
+    try (DataOutputStream out = writeCommonFields((short) 2)) {
+      // the visit state is missing
+      out.flush();
+    }
+    TrainingCheckpoint.read(file);
+  }
+}
@@ -0,0 +1,88 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Random;
+import org.junit.*;
+
+/**
+* Checks that the UCB selection of {@link VisitCounts} takes untried actions first,
+* then trades Q values against the exploration bonus, and that its counts survive a
+* checkpoint.
+*/
+public class VisitCountsTest {
+
+  private static final int GOAL = 0;
+  private static final int STATES = 2;
+  private static final int ACTIONS = 3;
+  private static final int[] ALL_ACTIONS = {0, 1, 2};
+
+  private VisitCounts counts;
+  private QTensor q;
+
+  @Before
+  public void createCounts() {
+    counts = new VisitCounts(STATES, ACTIONS, 1.0, new Random(1));
+    q = new QTensor(1, STATES, ACTIONS);
+    q.reset(GOAL);
+  }
+
+  @Test
+  public void selectsUntriedActionsFirst() {
+    q.set(GOAL, 0, 0, 100.0);
+    q.set(GOAL, 0, 2, -100.0);
+    counts.recordVisit(0, 0);
+    counts.recordVisit(0, 1);
+
+    // the untried action is selected whatever its Q value
+    assertEquals(2, counts.selectAction(q, GOAL, 0, ALL_ACTIONS));
+  }
+
+  @Test
+  public void triesEveryActionOnceBeforeRepeatingOne() {
+    boolean[] tried = new boolean[ACTIONS];
+    for (int step = 0; step < ACTIONS; step++) {
+      int action = counts.selectAction(q, GOAL, 1, ALL_ACTIONS);
+      assertFalse("Action " + action + " selected twice", tried[action]);
+      tried[action] = true;
+      counts.recordVisit(1, action);
+    }
+    assertEquals(ACTIONS, counts.getVisitedPairs());
+  }
+
+  @Test
+  public void favoursRarelyTakenActionsOfEqualValue() {
+    for (int visit = 0; visit < 10; visit++) {
+      counts.recordVisit(0, 0);
+    }
+    counts.recordVisit(0, 1);
+    assertEquals(1, counts.selectAction(q, GOAL, 0, new int[]{0, 1}));
+  }
+
+  @Test
+  public void favoursLargerQValuesOverTheBonus() {
+    counts.recordVisit(0, 0);
+    counts.recordVisit(0, 1);
+    q.set(GOAL, 0, 0, 10.0);
+    // the bonus of both actions is sqrt(ln 2), far below the difference of their Q values
+    assertEquals(0, counts.selectAction(q, GOAL, 0, new int[]{0, 1}));
+  }
+
+  @Test
+  public void restoresItsCountsFromACheckpoint() throws IOException {
+    counts.recordVisit(0, 0);
+    counts.recordVisit(0, 0);
+    counts.recordVisit(1, 2);
+
+    VisitCounts restored = new VisitCounts(STATES, ACTIONS, 1.0, new Random(1));
+    restored.restoreState(counts.saveState());
+    assertEquals(2, restored.getVisitedPairs());
+    assertEquals(1, restored.selectAction(q, GOAL, 0, new int[]{0, 1}));
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsTheCountsOfAnotherActionSpace() throws IOException {
+    new VisitCounts(STATES, ACTIONS + 1, 1.0, new Random(1)).restoreState(counts.saveState());
+  }
+}